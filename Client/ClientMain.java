@@ -2,6 +2,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.io.*;
 import java.net.Socket;
 
@@ -10,11 +12,18 @@ import java.net.Socket;
  */
 public class ClientMain extends JFrame {
     private DrawingCanvas canvas;
+    private StrokeTimeline lastGameTimeline; // Previous game's drawing, for Replay once the canvas is cleared
+    private TimelineViewer spectatorView; // Open while watching another player
+    private String watchedPlayer;
+    private String watchedTitle;
+    private StrokeTimeline watchedTimeline; // Watched player's current game; null until its first strokes arrive
     private JTextField usernameField;
     private JButton connectButton;
     private JButton submitButton;
     private JButton clearButton;
     private JButton newGameButton;
+    private JButton matchButton;
+    private JButton watchButton;
     private JTextArea statusArea;
     private JLabel promptLabel;
     private JLabel timerLabel;
@@ -22,21 +31,34 @@ public class ClientMain extends JFrame {
     private JLabel statsLabel; // User statistics label
     
     private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private FrameCodec connection;
     private boolean connected = false;
     private String currentPrompt = "";
     private int currentRound = 0;
     private Timer gameTimer;
+    private Timer heartbeatTimer;
+    private String username;
+    private volatile String resumeToken; // From the server's SESSION: reply
+    private long receivedSeq = 0; // Game messages received in this session (receive thread only)
+    private volatile boolean reconnecting = false;
+    private int reconnectsFinished = 0; // Guarded by this; reconnect() attempts completed, successful or not
+    private long sessionStartedNanos = System.nanoTime(); // Guarded by this; when a reconnect last got a new session instead of RESUMED
+    private final SubmissionPipeline pipeline = new SubmissionPipeline(this::writeFrame); // Encodes and sends off the EDT
     private int remainingSeconds = 0;
     private boolean isFirstRound = true;
     private boolean currentGameWon = false; // Track if current game was won
+    private boolean gameEnded = true; // GAMEEND already sent for the current game (EDT only)
     
     private static final String SERVER_HOST = "localhost";
     private static final int SERVER_PORT = 8888;
+    private static final int HEARTBEAT_INTERVAL_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 45_000; // Server answers every PING, so silence this long means a dead link
+    private static final int RECONNECT_ATTEMPTS = 8; // Backoff 0.5 s doubling to 8 s, ~40 s in total (server keeps sessions 60 s)
+    private static final long MAX_RECONNECT_DELAY_MS = 8_000;
     
     public ClientMain() {
         initializeGUI();
+        EdtStallMonitor.startIfEnabled(canvas::getInputStats);
     }
     
     private void initializeGUI() {
@@ -106,11 +128,25 @@ public class ClientMain extends JFrame {
         
         // Center - drawing canvas with better styling
         canvas = new DrawingCanvas(800, 600);
+        // Stream every stroke, erase and undo as it happens, for anyone watching this game
+        canvas.setTimelineListener(events -> {
+            if (connected) {
+                send("LIVE:" + java.util.Base64.getEncoder().encodeToString(events));
+            }
+        });
         JScrollPane canvasScroll = new JScrollPane(canvas);
         canvasScroll.setBorder(BorderFactory.createTitledBorder(
             BorderFactory.createLineBorder(accentColor, 2, true),
             "Drawing Canvas", 0, 0, new Font("Segoe UI", Font.BOLD, 13), accentColor));
         canvasScroll.setBackground(bgColor);
+        // Grow the drawing area with the window; below 800x600 the scroll bars take over
+        canvasScroll.getViewport().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                Dimension view = canvasScroll.getViewport().getExtentSize();
+                canvas.setCanvasSize(Math.max(800, view.width), Math.max(600, view.height));
+            }
+        });
         
         // Right side - control panel with better styling
         JPanel controlPanel = new JPanel();
@@ -164,22 +200,92 @@ public class ClientMain extends JFrame {
         controlPanel.add(colorPanel);
         controlPanel.add(Box.createVerticalStrut(15));
         
+        // Tool selection and undo/redo
+        JPanel editPanel = new JPanel(new BorderLayout(5, 5));
+        editPanel.setBackground(bgColor);
+        JLabel editLabel = new JLabel("Tool:");
+        editLabel.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        editPanel.add(editLabel, BorderLayout.NORTH);
+        
+        JPanel editButtonsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 5));
+        editButtonsPanel.setBackground(bgColor);
+        JButton penBtn = createColorButton("Pen", new Color(200, 200, 200), Color.BLACK);
+        penBtn.addActionListener(e -> canvas.setTool(DrawingCanvas.Tool.PEN));
+        JButton eraserBtn = createColorButton("Eraser", new Color(255, 240, 200), Color.BLACK);
+        eraserBtn.addActionListener(e -> canvas.setTool(DrawingCanvas.Tool.ERASER));
+        JButton lineBtn = createColorButton("Line", new Color(200, 200, 200), Color.BLACK);
+        lineBtn.addActionListener(e -> canvas.setTool(DrawingCanvas.Tool.LINE));
+        JButton rectangleBtn = createColorButton("Rect", new Color(200, 200, 200), Color.BLACK);
+        rectangleBtn.addActionListener(e -> canvas.setTool(DrawingCanvas.Tool.RECTANGLE));
+        JButton ellipseBtn = createColorButton("Ellipse", new Color(200, 200, 200), Color.BLACK);
+        ellipseBtn.addActionListener(e -> canvas.setTool(DrawingCanvas.Tool.ELLIPSE));
+        JButton fillBtn = createColorButton("Fill", new Color(200, 230, 200), Color.BLACK);
+        fillBtn.addActionListener(e -> canvas.setTool(DrawingCanvas.Tool.FILL));
+        JButton undoBtn = createColorButton("Undo", new Color(220, 220, 240), Color.BLACK);
+        undoBtn.addActionListener(e -> canvas.undo());
+        JButton redoBtn = createColorButton("Redo", new Color(220, 220, 240), Color.BLACK);
+        redoBtn.addActionListener(e -> canvas.redo());
+        JButton replayBtn = createColorButton("Replay", new Color(220, 240, 240), Color.BLACK);
+        replayBtn.addActionListener(e -> showReplay());
+        editButtonsPanel.add(penBtn);
+        editButtonsPanel.add(eraserBtn);
+        editButtonsPanel.add(lineBtn);
+        editButtonsPanel.add(rectangleBtn);
+        editButtonsPanel.add(ellipseBtn);
+        editButtonsPanel.add(fillBtn);
+        editButtonsPanel.add(undoBtn);
+        editButtonsPanel.add(redoBtn);
+        editButtonsPanel.add(replayBtn);
+        editPanel.add(editButtonsPanel, BorderLayout.CENTER);
+        controlPanel.add(editPanel);
+        controlPanel.add(Box.createVerticalStrut(15));
+        
+        // Ctrl+Z / Ctrl+Y (or Ctrl+Shift+Z) anywhere in the window
+        InputMap keys = getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        keys.put(KeyStroke.getKeyStroke("control Z"), "undo");
+        keys.put(KeyStroke.getKeyStroke("control Y"), "redo");
+        keys.put(KeyStroke.getKeyStroke("control shift Z"), "redo");
+        getRootPane().getActionMap().put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                canvas.undo();
+            }
+        });
+        getRootPane().getActionMap().put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                canvas.redo();
+            }
+        });
+        
         // Action buttons with better styling
         clearButton = createStyledButton("Clear Canvas", new Color(180, 0, 40), Color.WHITE); // Darker red
-        clearButton.addActionListener(e -> canvas.clear());
+        clearButton.addActionListener(e -> canvas.eraseAll()); // Undoable
         controlPanel.add(clearButton);
         controlPanel.add(Box.createVerticalStrut(10));
         
         submitButton = createStyledButton("Submit Drawing", new Color(34, 139, 34), Color.WHITE);
         submitButton.setEnabled(false);
-        submitButton.addActionListener(e -> submitDrawing());
+        submitButton.addActionListener(e -> submitDrawing(false));
         controlPanel.add(submitButton);
         controlPanel.add(Box.createVerticalStrut(10));
         
         newGameButton = createStyledButton("New Game", new Color(255, 140, 0), Color.WHITE);
         newGameButton.setEnabled(false);
-        newGameButton.addActionListener(e -> requestNewGame());
+        newGameButton.addActionListener(e -> requestNewGame("NEWGAME"));
         controlPanel.add(newGameButton);
+        controlPanel.add(Box.createVerticalStrut(10));
+        
+        matchButton = createStyledButton("Find Match", new Color(70, 130, 180), Color.WHITE);
+        matchButton.setEnabled(false);
+        matchButton.addActionListener(e -> requestNewGame("MATCH"));
+        controlPanel.add(matchButton);
+        controlPanel.add(Box.createVerticalStrut(10));
+        
+        watchButton = createStyledButton("Watch Player", new Color(120, 90, 160), Color.WHITE);
+        watchButton.setEnabled(false);
+        watchButton.addActionListener(e -> watchPlayer());
+        controlPanel.add(watchButton);
         
         // Bottom - status display with better styling
         statusArea = new JTextArea(6, 40);
@@ -283,7 +389,7 @@ public class ClientMain extends JFrame {
     }
     
     private void connectToServer() {
-        String username = usernameField.getText().trim();
+        username = usernameField.getText().trim();
         if (username.isEmpty()) {
             showMessage("Please enter a username!");
             return;
@@ -296,24 +402,33 @@ public class ClientMain extends JFrame {
         
         try {
             socket = new Socket(SERVER_HOST, SERVER_PORT);
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in = new ObjectInputStream(socket.getInputStream());
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            connection = new FrameCodec(socket.getInputStream(), socket.getOutputStream());
             
             // Send username
-            out.writeObject(username);
-            out.flush();
+            send(username);
             
             connected = true;
             connectButton.setEnabled(false);
             usernameField.setEnabled(false);
             submitButton.setEnabled(true);
             newGameButton.setEnabled(true);
+            matchButton.setEnabled(true);
+            watchButton.setEnabled(true);
             
             showMessage("Successfully connected to server!");
             
             // Start thread to receive messages
             new Thread(this::receiveMessages).start();
             
+            // Heartbeat so the server (and we) can tell a quiet player from a dead connection
+            heartbeatTimer = new Timer(HEARTBEAT_INTERVAL_MS, e -> {
+                if (!reconnecting) {
+                    send("PING");
+                }
+            });
+            heartbeatTimer.start();
+            
         } catch (Exception e) {
             showMessage("Connection failed: " + e.getMessage());
             e.printStackTrace();
@@ -321,42 +436,136 @@ public class ClientMain extends JFrame {
     }
     
     private void receiveMessages() {
+        while (connected) {
+            try {
+                String message = connection.readMessage();
+                if (message.equals("PING")) {
+                    send("PONG");
+                    continue;
+                } else if (message.equals("PONG") || message.startsWith("RESUMED:")) {
+                    continue;
+                } else if (message.startsWith("SESSION:")) {
+                    resumeToken = message.substring(8);
+                    receivedSeq = 0;
+                    continue;
+                } else if (message.startsWith("SPECTATE:") || message.startsWith("SPECTATING:")
+                        || message.startsWith("NOSPECTATE:")) {
+                    // Someone else's game; not part of ours, so not counted for RESUME
+                    SwingUtilities.invokeLater(() -> handleSpectatorMessage(message));
+                    continue;
+                }
+                receivedSeq++; // Counted like the server numbers them, for RESUME
+                SwingUtilities.invokeLater(() -> handleServerMessage(message));
+            } catch (Exception e) {
+                if (connected && resumeToken != null && reconnect()) {
+                    continue;
+                }
+                disconnected(e);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Reconnect with backoff and resume the session; the server replays the
+     * messages missed in between. Runs on the receive thread.
+     * @return true once connected again (resumed, or a fresh session if the old one is gone)
+     */
+    private boolean reconnect() {
+        reconnecting = true;
+        SwingUtilities.invokeLater(() -> showMessage("Connection lost, reconnecting..."));
+        long delay = 500;
         try {
-            while (connected) {
-                Object obj = in.readObject();
-                
-                if (obj instanceof String) {
-                    String message = (String) obj;
-                    SwingUtilities.invokeLater(() -> handleServerMessage(message));
+            for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && connected; attempt++) {
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, MAX_RECONNECT_DELAY_MS);
+                Socket newSocket = null;
+                try {
+                    newSocket = new Socket(SERVER_HOST, SERVER_PORT);
+                    newSocket.setSoTimeout(READ_TIMEOUT_MS);
+                    FrameCodec newConnection = new FrameCodec(newSocket.getInputStream(), newSocket.getOutputStream());
+                    newConnection.writeMessage("RESUME:" + resumeToken + ":" + receivedSeq + ":" + username);
+                    newConnection.flush();
+                    String reply = newConnection.readMessage();
+                    
+                    try {
+                        socket.close(); // Outside the lock: also fails a write still blocked on the dead connection
+                    } catch (IOException ignored) {
+                    }
+                    synchronized (this) {
+                        socket = newSocket;
+                        connection = newConnection;
+                        if (reply.startsWith("SESSION:")) {
+                            sessionStartedNanos = System.nanoTime(); // Messages submitted before belong to the lost game
+                        }
+                    }
+                    if (reply.startsWith("SESSION:")) {
+                        // Session expired on the server; it starts a new game
+                        resumeToken = reply.substring(8);
+                        receivedSeq = 0;
+                        SwingUtilities.invokeLater(() -> {
+                            currentRound = 0;
+                            currentGameWon = false;
+                            gameEnded = true;
+                            showMessage("Reconnected, but the previous game could not be resumed.");
+                        });
+                    } else {
+                        SwingUtilities.invokeLater(() -> showMessage("Reconnected to server."));
+                    }
+                    return true;
+                } catch (IOException e) {
+                    if (newSocket != null) {
+                        try {
+                            newSocket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
                 }
             }
-        } catch (Exception e) {
-            if (connected) {
-                SwingUtilities.invokeLater(() -> {
-                    showMessage("Disconnected from server: " + e.getMessage());
-                    connected = false;
-                    connectButton.setEnabled(true);
-                    usernameField.setEnabled(true);
-                    submitButton.setEnabled(false);
-                    newGameButton.setEnabled(false);
-                });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                reconnecting = false;
+                reconnectsFinished++;
+                notifyAll(); // Let writeFrame() send what was held back
             }
         }
+        return false;
+    }
+    
+    private void disconnected(Exception e) {
+        if (connected) {
+            SwingUtilities.invokeLater(() -> {
+                showMessage("Disconnected from server: " + e.getMessage());
+                connected = false;
+                resumeToken = null;
+                if (heartbeatTimer != null) {
+                    heartbeatTimer.stop();
+                }
+                connectButton.setEnabled(true);
+                usernameField.setEnabled(true);
+                submitButton.setEnabled(false);
+                newGameButton.setEnabled(false);
+                matchButton.setEnabled(false);
+                watchButton.setEnabled(false);
+            });
+        }
     }
     
     private void handleServerMessage(String message) {
         if (message.startsWith("PROMPT:")) {
-            // Received new prompt
-            // End previous game if it wasn't won (user clicked New Game before winning)
-            if (currentRound > 0 && !currentGameWon) {
-                endGame(false);
+            // Received new prompt; the previous game was ended by requestNewGame()
+            StrokeTimeline finished = canvas.getTimeline();
+            if (finished.size() > 0) {
+                lastGameTimeline = finished;
             }
-            
             currentPrompt = message.substring(7);
             promptLabel.setText("Prompt: " + currentPrompt);
             currentRound = 0;
             isFirstRound = true;
             currentGameWon = false; // Reset for new game
+            gameEnded = false;
             canvas.clear();
             startNewRound();
             showMessage("New game started! Prompt: " + currentPrompt);
@@ -397,6 +606,35 @@ public class ClientMain extends JFrame {
                     submitButton.setEnabled(false);
                 }
             }
+        } else if (message.startsWith("SCORED:")) {
+            // Verdict for an earlier drawing the server could only judge once the AI was back
+            // Format: "SCORED:{...json...}|WON:true/false"; WON means it earned a point
+            int wonIndex = message.indexOf("|WON:");
+            String jsonResult = wonIndex != -1 ? message.substring(7, wonIndex) : message.substring(7);
+            boolean credited = wonIndex != -1 && "true".equals(message.substring(wonIndex + 5));
+            String identifiedObject = "unknown";
+            int objectIdx = jsonResult.indexOf("\"object\"");
+            if (objectIdx != -1) {
+                int objectValStart = jsonResult.indexOf("\"", objectIdx + 8) + 1;
+                int objectValEnd = jsonResult.indexOf("\"", objectValStart);
+                if (objectValEnd != -1) {
+                    identifiedObject = jsonResult.substring(objectValStart, objectValEnd);
+                }
+            }
+            showMessage("[LATE VERDICT] The AI identified an earlier drawing as: " + identifiedObject
+                    + (credited ? " - correct, +1 point!" : ""));
+        } else if (message.startsWith("MATCHED:")) {
+            // Format: "MATCHED:<roomId>:<player>,<player>,..."; the room's PROMPT follows
+            String[] parts = message.split(":", 3);
+            showMessage("Matched in room " + parts[1] + " with " + (parts.length > 2 ? parts[2] : "") + "!");
+        } else if (message.equals("NOMATCH")) {
+            showMessage("Nobody to match right now, starting a game on your own.");
+        } else if (message.startsWith("ROOM:")) {
+            // A roommate's verdict: "ROOM:<player>:<won>"
+            String[] parts = message.split(":", 3);
+            if (parts.length == 3 && "true".equals(parts[2])) {
+                showMessage(parts[1] + " got their drawing recognised!");
+            }
         } else if (message.startsWith("STATS:")) {
             // Received updated statistics
             String stats = message.substring(6);
@@ -429,7 +667,7 @@ public class ClientMain extends JFrame {
             if (remainingSeconds <= 0) {
                 gameTimer.stop();
                 // Auto submit
-                submitDrawing();
+                submitDrawing(true);
             }
         });
         gameTimer.start();
@@ -441,7 +679,10 @@ public class ClientMain extends JFrame {
         timerLabel.setText(String.format("Time: %02d:%02d", minutes, seconds));
     }
     
-    private void submitDrawing() {
+    /**
+     * @param auto true if the round timer ran out; the server judges these first
+     */
+    private void submitDrawing(boolean auto) {
         if (!connected) {
             showMessage("Not connected to server!");
             return;
@@ -451,30 +692,31 @@ public class ClientMain extends JFrame {
             gameTimer.stop();
         }
         
-        try {
-            String imageBase64 = canvas.getImageAsBase64();
-            if (imageBase64 == null) {
-                showMessage("Failed to get image data!");
-                return;
+        // Only the canvas copy happens here; PNG/Base64 encoding and the socket write run in the background
+        int round = currentRound + 1;
+        submitButton.setEnabled(false);
+        showMessage("Submitting round " + round + " drawing...");
+        String meta = "auto=" + (auto ? 1 : 0) + ",round=" + round + ",left=" + Math.max(0, remainingSeconds);
+        pipeline.submit(canvas, meta, new SubmissionPipeline.Listener() {
+            @Override
+            public void onSent(int bytes, long encodeMillis) {
+                showMessage("Submitted round " + round + " drawing (" + bytes / 1024 + " KB, encoded in "
+                        + encodeMillis + " ms), waiting for AI judgment...");
             }
             
-            // Send image data
-            out.writeObject("DRAWING:" + imageBase64);
-            out.flush();
-            
-            showMessage("Submitted round " + (currentRound + 1) + " drawing, waiting for AI judgment...");
-            submitButton.setEnabled(false);
-            
-        } catch (Exception e) {
-            showMessage("Submission failed: " + e.getMessage());
-            e.printStackTrace();
-        }
+            @Override
+            public void onFailed(Exception e) {
+                showMessage("Submission failed: " + e.getMessage());
+                submitButton.setEnabled(true);
+            }
+        });
     }
     
     /**
      * Request a new game from the server
+     * @param request NEWGAME for a game of one's own, MATCH to be put in a room with similar players
      */
-    private void requestNewGame() {
+    private void requestNewGame(String request) {
         if (!connected) {
             showMessage("Not connected to server!");
             return;
@@ -486,16 +728,16 @@ public class ClientMain extends JFrame {
                 gameTimer.stop();
             }
             
-            // If game was won, notify server to record 1 point
-            if (currentGameWon) {
-                endGame(true);
+            // End the current game before asking for the next one, so the server records
+            // it as the game in progress: 1 point if won, 0 if abandoned after a wrong guess
+            if (!gameEnded && (currentGameWon || currentRound > 0)) {
+                endGame(currentGameWon);
             }
             
             // Send new game request
-            out.writeObject("NEWGAME");
-            out.flush();
+            send(request);
             
-            showMessage("Requesting new game...");
+            showMessage(request.equals("MATCH") ? "Looking for players to match..." : "Requesting new game...");
             
         } catch (Exception e) {
             showMessage("Failed to request new game: " + e.getMessage());
@@ -503,18 +745,187 @@ public class ClientMain extends JFrame {
         }
     }
     
+    /**
+     * Play back the drawing on the canvas, or the previous game's if the canvas is empty
+     */
+    private void showReplay() {
+        StrokeTimeline timeline = canvas.getTimeline();
+        if (timeline.size() == 0) {
+            timeline = lastGameTimeline;
+        }
+        if (timeline == null) {
+            showMessage("Nothing to replay yet.");
+            return;
+        }
+        TimelineViewer viewer = new TimelineViewer("Replay", new TimelinePlayer(timeline), false);
+        viewer.setLocationRelativeTo(this);
+        viewer.setVisible(true);
+    }
+    
+    /**
+     * Ask the server to stream another player's drawing to us
+     */
+    private void watchPlayer() {
+        String player = JOptionPane.showInputDialog(this, "Username of the player to watch:", "Watch Player",
+                JOptionPane.QUESTION_MESSAGE);
+        if (player == null || player.isBlank()) {
+            return;
+        }
+        if (spectatorView != null) {
+            TimelineViewer previous = spectatorView;
+            spectatorView = null; // The WATCH below replaces the old one; no UNWATCH needed
+            previous.dispose();
+        }
+        watchedPlayer = player.trim();
+        watchedTitle = "Watching " + watchedPlayer;
+        watchedTimeline = null;
+        send("WATCH:" + watchedPlayer);
+        showMessage("Asking to watch " + watchedPlayer + "...");
+    }
+    
+    /**
+     * SPECTATING:<player>:<prompt> starts a game of the watched player, SPECTATE:<player>:<base64 StrokeTimeline>
+     * continues it, NOSPECTATE:<player> says they can't be watched
+     */
+    private void handleSpectatorMessage(String message) {
+        String[] parts = message.split(":", 3);
+        if (parts.length < 2 || !parts[1].equals(watchedPlayer)) {
+            return; // For a player we have stopped watching
+        }
+        if (parts[0].equals("NOSPECTATE")) {
+            showMessage("Can't watch " + watchedPlayer + ": no such player on this server.");
+            watchedPlayer = null;
+        } else if (parts[0].equals("SPECTATING")) {
+            watchedTimeline = null; // Starts over with the first strokes of the new game
+            watchedTitle = "Watching " + watchedPlayer + (parts.length > 2 ? ": " + parts[2] : "");
+            if (spectatorView != null) {
+                spectatorView.setTitle(watchedTitle);
+            } else {
+                showMessage(watchedTitle);
+            }
+        } else if (parts.length == 3) {
+            StrokeTimeline events;
+            try {
+                events = StrokeTimeline.decode(java.util.Base64.getDecoder().decode(parts[2]));
+                if (watchedTimeline != null) {
+                    watchedTimeline.append(events);
+                }
+            } catch (IllegalArgumentException e) {
+                showMessage("Spectator stream error: " + e.getMessage());
+                return;
+            }
+            if (watchedTimeline == null) {
+                watchedTimeline = events;
+                TimelinePlayer player = new TimelinePlayer(watchedTimeline);
+                if (spectatorView == null) {
+                    openSpectatorView(player);
+                } else {
+                    spectatorView.setPlayer(player);
+                }
+            } else if (spectatorView != null) {
+                spectatorView.timelineGrew();
+            }
+        }
+    }
+    
+    private void openSpectatorView(TimelinePlayer player) {
+        TimelineViewer viewer = new TimelineViewer(watchedTitle, player, true);
+        viewer.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                if (spectatorView == viewer) {
+                    spectatorView = null;
+                    watchedPlayer = null;
+                    send("UNWATCH");
+                }
+            }
+        });
+        spectatorView = viewer;
+        viewer.setLocationRelativeTo(this);
+        viewer.setVisible(true);
+    }
+    
     /**
      * Notify server that game ended and update score
      */
     private void endGame(boolean won) {
+        gameEnded = true;
         try {
-            out.writeObject("GAMEEND:" + (won ? "1" : "0"));
-            out.flush();
+            send("GAMEEND:" + (won ? "1" : "0"));
         } catch (Exception e) {
             System.err.println("Failed to send game end: " + e.getMessage());
         }
     }
     
+    /**
+     * Queue a message behind any drawing still being encoded; never blocks
+     */
+    private void send(String message) {
+        pipeline.send(message, new SubmissionPipeline.Listener() {
+            @Override
+            public void onSent(int bytes, long encodeMillis) {
+            }
+            
+            @Override
+            public void onFailed(Exception e) {
+                showMessage("Failed to send " + message + ": " + e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * Put one frame on the wire; called only by the pipeline's writer thread.
+     * Synchronized with reconnect(), which swaps the connection. While it
+     * reconnects, the frame (and everything queued behind it) waits here and
+     * goes out on the resumed connection; a write that fails because the
+     * connection just dropped is sent again once it is back. Frames submitted
+     * in a game the server could not resume are dropped.
+     */
+    private synchronized void writeFrame(byte[] frame, int length, long submittedNanos) throws IOException {
+        while (true) {
+            while (reconnecting) {
+                awaitReconnect();
+            }
+            if (submittedNanos - sessionStartedNanos < 0) {
+                throw new IOException("the game could not be resumed after reconnecting");
+            }
+            FrameCodec current = connection;
+            int finished = reconnectsFinished;
+            try {
+                current.writeFrame(frame, 0, length);
+                current.flush();
+                return;
+            } catch (IOException e) {
+                if (!connected || resumeToken == null) {
+                    throw e;
+                }
+                // Make the receive thread notice too, and send the frame again after it has reconnected
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                while (reconnectsFinished == finished && connected) {
+                    awaitReconnect();
+                }
+                if (connection == current) {
+                    throw e; // Gave up reconnecting
+                }
+            }
+        }
+    }
+    
+    /**
+     * Wait for reconnect() to finish, releasing the lock meanwhile; rechecks at least every second
+     */
+    private void awaitReconnect() throws IOException {
+        try {
+            wait(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while reconnecting");
+        }
+    }
+    
     /**
      * Handle AI result in JSON format: {"object":"识别出的物体","comment":"..."}
      * @return true if the guess was correct, false otherwise
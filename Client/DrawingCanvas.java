@@ -2,34 +2,128 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Custom drawing canvas component
+ *
+ * Every finished stroke and every eraser gesture is an entry in an undo/redo
+ * log. Undoing or erasing repaints only the affected region: a StrokeGrid
+ * finds the strokes that overlap it. When most of the canvas changes, the
+ * image is restored from the closest usable raster checkpoint (one is
+ * taken every CHECKPOINT_INTERVAL operations) and only the strokes added
+ * since then are redrawn.
+ *
+ * Lines, rectangles, ellipses and bucket fills are strokes too, so they
+ * undo, erase and encode like freehand paths. A shape is previewed over the
+ * image while it is dragged and only drawn into it on release. A fill's
+ * result depends on everything under it, so any redraw that touches a
+ * visible fill replays the whole image in order instead of a clipped region.
+ *
+ * The image lives in a TiledRaster: tiles are allocated only where there
+ * is ink, at the screen's HiDPI scale, and painting and export only touch
+ * tiles that changed. Strokes are kept in logical pixels, so resizing the
+ * canvas or moving to a screen with another scale re-renders them into a
+ * new raster.
+ *
+ * Everything that changes the drawing is also recorded with its time in a
+ * StrokeTimeline (started by clear(), i.e. with each game), which a
+ * listener can stream to spectators and which can be replayed afterwards.
+ *
+ * System property: canvas.scale (force a HiDPI scale, e.g. 2; default: the screen's)
  */
 public class DrawingCanvas extends JPanel {
+    // Drag points closer than this to the previous stored point are dropped (squared, in pixels)
+    private static final int MIN_POINT_DISTANCE_SQ = 2 * 2;
+    private static final int MAX_FPS = Integer.getInteger("canvas.maxFps", 60);
+    private static final int CHECKPOINT_INTERVAL = 16; // Operations between raster checkpoints
+    private static final int MAX_CHECKPOINTS = 6; // Each copies the allocated tiles only
+    private static final double FORCED_SCALE = Double.parseDouble(System.getProperty("canvas.scale", "0"));
+    private static final int GRID_CELL_SIZE = 32;
+    
+    public enum Tool {
+        PEN(Stroke.PATH), ERASER(-1), LINE(Stroke.LINE), RECTANGLE(Stroke.RECTANGLE),
+        ELLIPSE(Stroke.ELLIPSE), FILL(Stroke.FILL);
+        
+        final int strokeKind;
+        
+        Tool(int strokeKind) {
+            this.strokeKind = strokeKind;
+        }
+    }
+    
     /**
-     * Class to store path information including points, color, and brush size
+     * One undoable operation: strokes added, or strokes erased
      */
-    private static class PathInfo {
-        List<Point> points;
-        Color color;
-        int brushSize;
+    private static class Operation {
+        final boolean erase;
+        final int[] strokeIds;
         
-        PathInfo(Color color, int brushSize) {
-            this.points = new ArrayList<>();
-            this.color = color;
-            this.brushSize = brushSize;
+        Operation(boolean erase, int[] strokeIds) {
+            this.erase = erase;
+            this.strokeIds = strokeIds;
         }
     }
     
-    private PathInfo currentPath;
-    private List<PathInfo> allPaths;
+    /**
+     * Pixels of the image (per tile) together with the strokes that were visible
+     * in it, and what each visible fill covered at the time
+     */
+    private static class Checkpoint {
+        final int[][] tiles;
+        final BitSet visible;
+        final Map<Integer, Rectangle> fillBounds;
+        
+        Checkpoint(int[][] tiles, BitSet visible, Map<Integer, Rectangle> fillBounds) {
+            this.tiles = tiles;
+            this.visible = visible;
+            this.fillBounds = fillBounds;
+        }
+    }
+    
+    private Stroke currentPath; // Stroke being drawn; committed to the history when released
+    private int renderedPoints; // Points of currentPath already drawn into the raster
+    private Stroke shapePreview; // Shape being dragged, painted over the raster until released
+    
+    // Strokes by id (= drawing order). The raw samples are what the image shows; the simplified copies are what gets encoded
+    private final List<Stroke> strokes = new ArrayList<>();
+    private final List<Stroke> simplifiedStrokes = new ArrayList<>();
+    private final List<Rectangle> strokeBounds = new ArrayList<>(); // Area each stroke paints (for fills, what it filled last time)
+    private final BitSet visible = new BitSet();
+    private StrokeGrid grid; // Visible strokes only
+    private final List<Operation> operations = new ArrayList<>();
+    private int applied; // operations[0..applied) are in effect; the rest can be redone
+    private final ArrayDeque<Checkpoint> checkpoints = new ArrayDeque<>(); // Oldest first
+    private int recordedSinceCheckpoint;
+    private Tool tool = Tool.PEN;
+    private StrokeTimeline timeline;
+    private long timelineStartNanos;
+    private int strokeStartedAt; // Timeline time the stroke being drawn was started
+    private int lastTimelineTime; // Of the last recorded event; timeline times never go back
+    private Consumer<byte[]> timelineListener = events -> { };
+    private List<Integer> erasedThisDrag; // Stroke ids erased by the current eraser gesture
+    
     private int brushSize = 5;
     private Color currentColor = Color.BLACK;
-    private BufferedImage canvasImage;
+    private TiledRaster raster;
+    private Rectangle dirty; // Shape preview area to repaint on the next frame, or null
+    private final Timer frameTimer; // Renders pending points and repaints, at most MAX_FPS times a second
+    
+    // Input pipeline counters (written on the EDT)
+    private volatile long rawEvents;
+    private volatile long storedPoints;
+    private volatile long framesPainted;
+    private volatile long regionRedraws;
+    private volatile long checkpointRestores;
+    private volatile long fullRedraws;
     
     public DrawingCanvas(int width, int height) {
         setPreferredSize(new Dimension(width, height));
@@ -38,91 +132,556 @@ public class DrawingCanvas extends JPanel {
             BorderFactory.createLineBorder(new Color(200, 200, 200), 1),
             BorderFactory.createEmptyBorder(5, 5, 5, 5)));
         
-        allPaths = new ArrayList<>();
         currentPath = null;
+        grid = new StrokeGrid(width, height, GRID_CELL_SIZE);
+        raster = new TiledRaster(width, height, FORCED_SCALE > 0 ? FORCED_SCALE : 1);
+        startTimeline();
+        // Follow the scale of whichever screen the canvas is on
+        addPropertyChangeListener("graphicsConfiguration", e -> updateScale());
         
-        // Create canvas image
-        canvasImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = canvasImage.createGraphics();
-        g2d.setColor(Color.WHITE);
-        g2d.fillRect(0, 0, width, height);
-        g2d.dispose();
+        frameTimer = new Timer(1000 / MAX_FPS, e -> renderFrame());
+        frameTimer.setCoalesce(true);
         
         addMouseListener(new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
+                rawEvents++;
+                if (busy()) {
+                    return; // A second button pressed mid-drag
+                }
+                strokeStartedAt = timelineTime();
+                if (tool == Tool.ERASER) {
+                    erasedThisDrag = new ArrayList<>();
+                    eraseAt(e.getX(), e.getY());
+                    return;
+                }
+                if (tool == Tool.FILL) {
+                    fillAt(e.getX(), e.getY());
+                    return;
+                }
+                if (tool != Tool.PEN) {
+                    shapePreview = shape(e.getX(), e.getY(), e.getX(), e.getY());
+                    dirty = StrokeGrid.bounds(shapePreview);
+                    frameTimer.start();
+                    return;
+                }
                 // Create new path with current color and brush size
-                currentPath = new PathInfo(currentColor, brushSize);
-                currentPath.points.add(e.getPoint());
-                allPaths.add(currentPath);
-                repaint();
+                currentPath = new Stroke(currentColor.getRGB(), brushSize);
+                currentPath.add(e.getX(), e.getY());
+                renderedPoints = 1;
+                storedPoints++;
+            }
+            
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (erasedThisDrag != null) {
+                    if (!erasedThisDrag.isEmpty()) {
+                        int[] ids = erasedThisDrag.stream().mapToInt(Integer::intValue).toArray();
+                        record(new Operation(true, ids));
+                        recordTimeline(StrokeTimeline.Event.hide(timelineTime(), ids));
+                    }
+                    erasedThisDrag = null;
+                }
+                if (shapePreview != null) {
+                    Stroke shape = shape(shapePreview.getX(0), shapePreview.getY(0), e.getX(), e.getY());
+                    Rectangle area = StrokeGrid.bounds(shapePreview).union(StrokeGrid.bounds(shape));
+                    shapePreview = null;
+                    raster.draw(StrokeGrid.bounds(shape), g2d -> StrokeRenderer.draw(g2d, shape));
+                    commitStroke(shape, StrokeGrid.bounds(shape));
+                    repaint(area); // Where the preview was
+                    repaintDirtyTiles();
+                }
+                if (currentPath != null) {
+                    // Keep the exact end point even if the filter dropped it
+                    if (distanceSqToLast(e) > 0) {
+                        currentPath.add(e.getX(), e.getY());
+                        storedPoints++;
+                    }
+                    renderFrame();
+                    commitStroke(currentPath, StrokeGrid.bounds(currentPath));
+                    currentPath = null;
+                }
             }
         });
         
         addMouseMotionListener(new MouseAdapter() {
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (currentPath != null) {
-                    currentPath.points.add(e.getPoint());
-                    repaint();
+                rawEvents++;
+                if (erasedThisDrag != null) {
+                    eraseAt(e.getX(), e.getY());
+                } else if (shapePreview != null) {
+                    // Repaint where the preview was and where it is now, on the next frame
+                    Rectangle old = StrokeGrid.bounds(shapePreview);
+                    shapePreview = shape(shapePreview.getX(0), shapePreview.getY(0), e.getX(), e.getY());
+                    Rectangle area = old.union(StrokeGrid.bounds(shapePreview));
+                    dirty = dirty == null ? area : dirty.union(area);
+                    if (!frameTimer.isRunning()) {
+                        frameTimer.start();
+                    }
+                } else if (currentPath != null && distanceSqToLast(e) >= MIN_POINT_DISTANCE_SQ) {
+                    // Only store the point; drawing and repainting wait for the next frame
+                    currentPath.add(e.getX(), e.getY());
+                    storedPoints++;
+                    if (!frameTimer.isRunning()) {
+                        frameTimer.start();
+                    }
                 }
             }
         });
     }
     
+    /**
+     * Two-point stroke for the selected shape tool, from the drag start to (x2, y2)
+     */
+    private Stroke shape(int x1, int y1, int x2, int y2) {
+        Stroke shape = new Stroke(tool.strokeKind, currentColor.getRGB(), brushSize);
+        shape.add(x1, y1);
+        shape.add(x2, y2);
+        return shape;
+    }
+    
+    /**
+     * Bucket fill at (x, y); a click on a pixel that already has the colour does nothing
+     */
+    private void fillAt(int x, int y) {
+        Stroke fill = new Stroke(Stroke.FILL, currentColor.getRGB(), 0);
+        fill.add(x, y);
+        Rectangle filled = raster.fill(x, y, fill.getColor());
+        if (filled != null) {
+            commitStroke(fill, filled);
+            repaintDirtyTiles();
+        }
+    }
+    
+    /**
+     * A stroke, shape or eraser drag is in progress
+     */
+    private boolean busy() {
+        return currentPath != null || shapePreview != null || erasedThisDrag != null;
+    }
+    
+    private int distanceSqToLast(MouseEvent e) {
+        int last = currentPath.getPointCount() - 1;
+        int dx = e.getX() - currentPath.getX(last);
+        int dy = e.getY() - currentPath.getY(last);
+        return dx * dx + dy * dy;
+    }
+    
+    /**
+     * Draw the points stored since the last frame into the raster and repaint the tiles that changed
+     */
+    private void renderFrame() {
+        boolean drew = false;
+        if (currentPath != null && renderedPoints < currentPath.getPointCount()) {
+            Stroke path = currentPath;
+            int from = renderedPoints;
+            int pad = path.getWidth() / 2 + 2;
+            Rectangle segments = null;
+            for (int i = from; i < path.getPointCount(); i++) {
+                int x1 = path.getX(i - 1), y1 = path.getY(i - 1);
+                int x2 = path.getX(i), y2 = path.getY(i);
+                Rectangle segment = new Rectangle(Math.min(x1, x2) - pad, Math.min(y1, y2) - pad,
+                        Math.abs(x1 - x2) + 2 * pad, Math.abs(y1 - y2) + 2 * pad);
+                segments = segments == null ? segment : segments.union(segment);
+            }
+            raster.draw(segments, g2d -> StrokeRenderer.drawSegments(g2d, path, from));
+            renderedPoints = path.getPointCount();
+            repaintDirtyTiles();
+            drew = true;
+        }
+        if (dirty != null) {
+            repaint(dirty);
+            dirty = null;
+        } else if (!drew) {
+            frameTimer.stop(); // Idle until the next drag
+        }
+    }
+    
+    private void repaintDirtyTiles() {
+        for (Rectangle tile : raster.takeScreenDirty()) {
+            repaint(tile);
+        }
+    }
+    
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        updateScale();
+    }
+    
+    /**
+     * Re-render at the current screen's scale if it differs from the raster's
+     */
+    private void updateScale() {
+        GraphicsConfiguration configuration = getGraphicsConfiguration();
+        if (FORCED_SCALE > 0 || configuration == null) {
+            return;
+        }
+        double scale = configuration.getDefaultTransform().getScaleX();
+        if (scale != raster.getScale()) {
+            resizeRaster(raster.getWidth(), raster.getHeight(), scale);
+        }
+    }
+    
+    /**
+     * Change the drawing area (logical pixels). Strokes are kept; any outside the new size are just not shown.
+     */
+    public void setCanvasSize(int width, int height) {
+        if (width != raster.getWidth() || height != raster.getHeight()) {
+            resizeRaster(width, height, raster.getScale());
+            setPreferredSize(new Dimension(width, height));
+            revalidate();
+        }
+    }
+    
+    private void resizeRaster(int width, int height, double scale) {
+        raster = new TiledRaster(width, height, scale);
+        grid = new StrokeGrid(width, height, GRID_CELL_SIZE);
+        for (int id = visible.nextSetBit(0); id >= 0; id = visible.nextSetBit(id + 1)) {
+            grid.insert(id, strokeBounds.get(id));
+        }
+        checkpoints.clear(); // Their tiles no longer line up
+        recordedSinceCheckpoint = 0;
+        if (currentPath != null) {
+            renderedPoints = 1; // Drawn again below the rebuilt strokes on the next frame
+        }
+        rebuild();
+        raster.takeScreenDirty();
+        repaint();
+    }
+    
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        // Strokes are already rendered into the tiles, so a paint is a (clipped) blit of the inked tiles
+        Rectangle clip = g.getClipBounds();
+        raster.paint(g, clip != null ? clip : new Rectangle(0, 0, getWidth(), getHeight()));
+        if (shapePreview != null) {
+            Graphics2D overlay = (Graphics2D) g.create();
+            overlay.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            StrokeRenderer.draw(overlay, shapePreview);
+            overlay.dispose();
+        }
+        framesPainted++;
+    }
+    
+    /**
+     * Raw mouse events vs. points kept vs. frames painted, for tuning the input pipeline
+     */
+    public String getInputStats() {
+        return "mouse events=" + rawEvents + ", stored points=" + storedPoints + ", frames painted=" + framesPainted
+                + ", region redraws=" + regionRedraws + ", checkpoint restores=" + checkpointRestores
+                + ", full redraws=" + fullRedraws + ", tiles=" + raster.getAllocatedTiles() + "/" + raster.getTileCount()
+                + " (" + raster.getAllocatedBytes() / 1024 + " KB, scale " + raster.getScale() + ")";
+    }
+    
+    /**
+     * Start over with an empty canvas and no history (new game)
+     */
+    public void clear() {
+        strokes.clear();
+        simplifiedStrokes.clear();
+        strokeBounds.clear();
+        visible.clear();
+        grid.clear();
+        operations.clear();
+        applied = 0;
+        checkpoints.clear();
+        recordedSinceCheckpoint = 0;
+        currentPath = null;
+        shapePreview = null;
+        erasedThisDrag = null;
+        dirty = null;
         
-        // Draw to panel - use each path's own color and brush size
-        for (PathInfo pathInfo : allPaths) {
-            List<Point> path = pathInfo.points;
-            if (path.size() > 1) {
-                g2d.setColor(pathInfo.color);
-                g2d.setStroke(new BasicStroke(pathInfo.brushSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                for (int i = 0; i < path.size() - 1; i++) {
-                    Point p1 = path.get(i);
-                    Point p2 = path.get(i + 1);
-                    g2d.drawLine(p1.x, p1.y, p2.x, p2.y);
+        raster.clearAll(); // Frees every tile
+        raster.takeScreenDirty();
+        repaint();
+        startTimeline();
+    }
+    
+    /**
+     * Told the encoded timeline events (a StrokeTimeline holding just them) as each happens, on the EDT
+     */
+    public void setTimelineListener(Consumer<byte[]> listener) {
+        this.timelineListener = listener;
+    }
+    
+    /**
+     * Copy of the drawing's timeline since the last clear(), for replay
+     */
+    public StrokeTimeline getTimeline() {
+        return StrokeTimeline.decode(timeline.encode());
+    }
+    
+    private void startTimeline() {
+        timeline = new StrokeTimeline(raster.getWidth(), raster.getHeight());
+        timelineStartNanos = System.nanoTime();
+        lastTimelineTime = 0;
+    }
+    
+    private int timelineTime() {
+        return (int) ((System.nanoTime() - timelineStartNanos) / 1_000_000);
+    }
+    
+    private void recordTimeline(StrokeTimeline.Event event) {
+        timeline.add(event);
+        lastTimelineTime = event.time;
+        timelineListener.accept(timeline.encode(timeline.size() - 1));
+    }
+    
+    /**
+     * Erase every stroke as one undoable operation (the Clear button)
+     */
+    public void eraseAll() {
+        int[] ids = visible.stream().toArray();
+        if (ids.length == 0) {
+            return;
+        }
+        for (int id : ids) {
+            hide(id);
+        }
+        redraw(new Rectangle(0, 0, raster.getWidth(), raster.getHeight()));
+        record(new Operation(true, ids));
+        recordTimeline(StrokeTimeline.Event.hide(timelineTime(), ids));
+    }
+    
+    public boolean undo() {
+        if (applied == 0 || busy()) {
+            return false;
+        }
+        Operation operation = operations.get(--applied);
+        apply(operation, operation.erase);
+        return true;
+    }
+    
+    public boolean redo() {
+        if (applied == operations.size() || busy()) {
+            return false;
+        }
+        Operation operation = operations.get(applied++);
+        apply(operation, !operation.erase);
+        return true;
+    }
+    
+    /**
+     * What a press and drag on the canvas does next
+     */
+    public void setTool(Tool tool) {
+        this.tool = tool;
+    }
+    
+    private void apply(Operation operation, boolean show) {
+        recordTimeline(show ? StrokeTimeline.Event.show(timelineTime(), operation.strokeIds)
+                : StrokeTimeline.Event.hide(timelineTime(), operation.strokeIds));
+        Rectangle area = null;
+        for (int id : operation.strokeIds) {
+            if (show) {
+                show(id);
+            } else {
+                hide(id);
+            }
+            Rectangle bounds = strokeBounds.get(id);
+            area = area == null ? bounds : area.union(bounds);
+        }
+        redraw(area);
+    }
+    
+    /**
+     * Add a stroke that has already been drawn into the raster to the history
+     */
+    private void commitStroke(Stroke raw, Rectangle bounds) {
+        int id = strokes.size();
+        strokes.add(raw);
+        strokeBounds.add(bounds);
+        // The image keeps the raw samples; the encoded model keeps only what RDP says matters
+        Stroke simplified = raw.simplified(StrokeSimplifier.DEFAULT_TOLERANCE);
+        simplifiedStrokes.add(simplified);
+        int start = Math.max(strokeStartedAt, lastTimelineTime);
+        recordTimeline(StrokeTimeline.Event.add(start, Math.max(0, timelineTime() - start), simplified));
+        show(id);
+        record(new Operation(false, new int[] {id}));
+    }
+    
+    private void show(int id) {
+        visible.set(id);
+        grid.insert(id, strokeBounds.get(id));
+    }
+    
+    private void hide(int id) {
+        visible.clear(id);
+        grid.remove(id, strokeBounds.get(id));
+    }
+    
+    /**
+     * Append an operation that has already been applied and drawn, dropping anything that could have been redone
+     */
+    private void record(Operation operation) {
+        while (operations.size() > applied) {
+            operations.remove(operations.size() - 1);
+        }
+        operations.add(operation);
+        applied++;
+        if (++recordedSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+            recordedSinceCheckpoint = 0;
+            Map<Integer, Rectangle> fillBounds = new HashMap<>();
+            for (int id = visible.nextSetBit(0); id >= 0; id = visible.nextSetBit(id + 1)) {
+                if (strokes.get(id).getKind() == Stroke.FILL) {
+                    fillBounds.put(id, strokeBounds.get(id));
                 }
             }
+            checkpoints.addLast(new Checkpoint(raster.copyTiles(), (BitSet) visible.clone(), fillBounds));
+            if (checkpoints.size() > MAX_CHECKPOINTS) {
+                checkpoints.removeFirst();
+            }
         }
-        
-        // Also draw to BufferedImage - redraw everything to keep image in sync
-        Graphics2D imgG2d = canvasImage.createGraphics();
-        imgG2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        // Clear image first
-        imgG2d.setColor(Color.WHITE);
-        imgG2d.fillRect(0, 0, getWidth(), getHeight());
-        // Redraw all paths with their original colors
-        for (PathInfo pathInfo : allPaths) {
-            List<Point> path = pathInfo.points;
-            if (path.size() > 1) {
-                imgG2d.setColor(pathInfo.color);
-                imgG2d.setStroke(new BasicStroke(pathInfo.brushSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                for (int i = 0; i < path.size() - 1; i++) {
-                    Point p1 = path.get(i);
-                    Point p2 = path.get(i + 1);
-                    imgG2d.drawLine(p1.x, p1.y, p2.x, p2.y);
+    }
+    
+    /**
+     * Erase the strokes under the eraser at (x, y)
+     */
+    private void eraseAt(int x, int y) {
+        int radius = brushSize / 2 + 2;
+        Rectangle area = null;
+        for (int id : grid.query(new Rectangle(x - radius, y - radius, 2 * radius, 2 * radius))) {
+            Stroke stroke = strokes.get(id);
+            if (hits(stroke, id, x, y, radius)) {
+                Rectangle bounds = strokeBounds.get(id);
+                hide(id);
+                erasedThisDrag.add(id);
+                area = area == null ? bounds : area.union(bounds);
+            }
+        }
+        if (area != null) {
+            redraw(area);
+        }
+    }
+    
+    private boolean hits(Stroke stroke, int id, int x, int y, int radius) {
+        if (stroke.getKind() == Stroke.FILL) {
+            // Hit where the fill still shows: inside what it filled and still its colour
+            return strokeBounds.get(id).contains(x, y) && x < raster.getWidth() && y < raster.getHeight()
+                    && raster.getRGB(x, y) == stroke.getColor();
+        }
+        if (stroke.getKind() != Stroke.PATH) {
+            BasicStroke reachStroke = new BasicStroke(stroke.getWidth() + 2f * radius, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+            return reachStroke.createStrokedShape(StrokeRenderer.outline(stroke)).contains(x, y);
+        }
+        double reach = stroke.getWidth() / 2.0 + radius;
+        double reachSq = reach * reach;
+        if (stroke.getPointCount() == 1) {
+            double dx = x - stroke.getX(0), dy = y - stroke.getY(0);
+            return dx * dx + dy * dy <= reachSq;
+        }
+        for (int i = 1; i < stroke.getPointCount(); i++) {
+            if (Line2D.ptSegDistSq(stroke.getX(i - 1), stroke.getY(i - 1),
+                    stroke.getX(i), stroke.getY(i), x, y) <= reachSq) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Bring the image in line with the visible strokes inside area
+     */
+    private void redraw(Rectangle area) {
+        Rectangle canvasBounds = new Rectangle(0, 0, raster.getWidth(), raster.getHeight());
+        area = area.intersection(canvasBounds);
+        if (area.isEmpty()) {
+            return;
+        }
+        Iterable<Integer> overlapping = grid.query(area);
+        if ((long) area.width * area.height * 4 > (long) canvasBounds.width * canvasBounds.height
+                || containsFill(overlapping)) {
+            rebuild(); // Large change, or a fill that has to be redone: start from a checkpoint
+        } else {
+            raster.clear(area);
+            try (TiledRaster.Batch batch = raster.open(area)) {
+                for (int id : overlapping) {
+                    Stroke stroke = strokes.get(id);
+                    batch.draw(strokeBounds.get(id), g2d -> StrokeRenderer.draw(g2d, stroke));
                 }
             }
+            regionRedraws++;
         }
-        imgG2d.dispose();
+        repaintDirtyTiles();
     }
     
-    public void clear() {
-        allPaths.clear();
-        currentPath = null;
-        
-        // Clear image
-        Graphics2D g2d = canvasImage.createGraphics();
-        g2d.setColor(Color.WHITE);
-        g2d.fillRect(0, 0, getWidth(), getHeight());
-        g2d.dispose();
-        
-        repaint();
+    private boolean containsFill(Iterable<Integer> ids) {
+        for (int id : ids) {
+            if (strokes.get(id).getKind() == Stroke.FILL) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Re-render the whole image, from a checkpoint if one is usable, else from scratch
+     */
+    private void rebuild() {
+        Checkpoint checkpoint = usableCheckpoint();
+        int firstId = 0;
+        if (checkpoint != null) {
+            raster.restore(checkpoint.tiles);
+            checkpoint.fillBounds.forEach(this::setBounds);
+            firstId = checkpoint.visible.length();
+            checkpointRestores++;
+        } else {
+            raster.clearAll();
+            fullRedraws++;
+        }
+        try (TiledRaster.Batch batch = raster.open(null)) {
+            for (int id = visible.nextSetBit(firstId); id >= 0; id = visible.nextSetBit(id + 1)) {
+                Stroke stroke = strokes.get(id);
+                if (stroke.getKind() == Stroke.FILL) {
+                    refill(id, stroke);
+                } else {
+                    batch.draw(strokeBounds.get(id), g2d -> StrokeRenderer.draw(g2d, stroke));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Redo a fill on the current pixels; what it covers changes when strokes under it come and go
+     */
+    private void refill(int id, Stroke fill) {
+        Rectangle filled = raster.fill(fill.getX(0), fill.getY(0), fill.getColor());
+        setBounds(id, filled != null ? filled : new Rectangle(fill.getX(0), fill.getY(0), 1, 1));
+    }
+    
+    private void setBounds(int id, Rectangle bounds) {
+        if (!bounds.equals(strokeBounds.get(id))) {
+            grid.remove(id, strokeBounds.get(id));
+            strokeBounds.set(id, bounds);
+            grid.insert(id, bounds);
+        }
+    }
+    
+    /**
+     * The checkpoint needing the fewest strokes drawn on top: every stroke in it must
+     * still be visible, and every stroke visible since must come after all of them
+     */
+    private Checkpoint usableCheckpoint() {
+        Checkpoint best = null;
+        for (Checkpoint checkpoint : checkpoints) {
+            BitSet hidden = (BitSet) checkpoint.visible.clone();
+            hidden.andNot(visible);
+            if (!hidden.isEmpty()) {
+                continue; // Shows a stroke that has since been erased or undone
+            }
+            BitSet added = (BitSet) visible.clone();
+            added.andNot(checkpoint.visible);
+            if (added.nextSetBit(0) != -1 && added.nextSetBit(0) < checkpoint.visible.length()) {
+                continue; // A stroke that belongs underneath came back
+            }
+            if (best == null || checkpoint.visible.length() > best.visible.length()) {
+                best = checkpoint;
+            }
+        }
+        return best;
     }
     
     public void setBrushSize(int size) {
@@ -134,19 +693,73 @@ public class DrawingCanvas extends JPanel {
     }
     
     /**
-     * Get the current canvas image (for sending to server)
+     * Get a copy of the current canvas image (for sending to server)
      */
     public BufferedImage getImage() {
-        return canvasImage;
+        return snapshot(null);
+    }
+    
+    /**
+     * Visible strokes (simplified), oldest first
+     */
+    public List<Stroke> getStrokes() {
+        List<Stroke> result = new ArrayList<>(visible.cardinality());
+        for (int id = visible.nextSetBit(0); id >= 0; id = visible.nextSetBit(id + 1)) {
+            result.add(simplifiedStrokes.get(id));
+        }
+        return result;
+    }
+    
+    /**
+     * Visible strokes in StrokeCodec's compact binary form, plus the path still being drawn
+     * (snapshot() has it too, so a submission mid-drag judges the same drawing in either format).
+     * The path is copied, not committed; the drag carries on.
+     */
+    public byte[] getStrokesEncoded() {
+        List<Stroke> drawing = getStrokes();
+        if (currentPath != null) {
+            drawing.add(currentPath.simplified(StrokeSimplifier.DEFAULT_TOLERANCE));
+        }
+        return StrokeCodec.encode(raster.getWidth(), raster.getHeight(), drawing);
+    }
+    
+    /**
+     * Replace the drawing with these strokes, with no undo history
+     */
+    public void load(List<Stroke> drawing) {
+        clear();
+        for (Stroke stroke : drawing) {
+            int id = strokes.size();
+            strokes.add(stroke);
+            simplifiedStrokes.add(stroke.simplified(StrokeSimplifier.DEFAULT_TOLERANCE));
+            recordTimeline(StrokeTimeline.Event.add(timelineTime(), 0, simplifiedStrokes.get(id)));
+            // A fill's real extent is known once rebuild() has run it
+            strokeBounds.add(stroke.getKind() == Stroke.FILL
+                    ? new Rectangle(stroke.getX(0), stroke.getY(0), 1, 1) : StrokeGrid.bounds(stroke));
+            show(id);
+        }
+        rebuild();
+        repaintDirtyTiles();
+    }
+    
+    /**
+     * Copy the current image (logical size) for encoding off the EDT
+     * @param reuse image from an earlier snapshot to copy into, or null; if it is
+     *              the one the last snapshot returned, only tiles changed since are copied
+     */
+    public BufferedImage snapshot(BufferedImage reuse) {
+        renderFrame(); // Include points that arrived since the last frame
+        return raster.export(reuse);
     }
     
     /**
      * Get the image as Base64 encoded string
      */
     public String getImageAsBase64() {
+        renderFrame();
         try {
             java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-            javax.imageio.ImageIO.write(canvasImage, "PNG", baos);
+            javax.imageio.ImageIO.write(snapshot(null), "PNG", baos);
             byte[] imageBytes = baos.toByteArray();
             return java.util.Base64.getEncoder().encodeToString(imageBytes);
         } catch (Exception e) {
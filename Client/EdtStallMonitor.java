@@ -0,0 +1,79 @@
+import java.awt.EventQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Measures how long the Swing EDT is blocked.
+ *
+ * A daemon thread posts an empty event every PROBE_INTERVAL_MS and
+ * records how late it runs. A probe delayed by more than STALL_THRESHOLD_MS
+ * counts as a stall. A summary line, plus any extra status such as the
+ * canvas input counters, is printed every REPORT_INTERVAL_MS.
+ *
+ * Enabled with -Dclient.edtMonitor=true
+ */
+public class EdtStallMonitor {
+    private static final long PROBE_INTERVAL_MS = 20;
+    private static final long STALL_THRESHOLD_MS = 50;
+    private static final long REPORT_INTERVAL_MS = 10_000;
+
+    private final AtomicLong maxStallMillis = new AtomicLong();
+    private final AtomicLong totalStallMillis = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final Supplier<String> extraReport;
+
+    public EdtStallMonitor(Supplier<String> extraReport) {
+        this.extraReport = extraReport;
+    }
+
+    public static void startIfEnabled(Supplier<String> extraReport) {
+        if (Boolean.getBoolean("client.edtMonitor")) {
+            new EdtStallMonitor(extraReport).start();
+        }
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::run, "edt-stall-monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        long nextReport = System.currentTimeMillis() + REPORT_INTERVAL_MS;
+        Object done = new Object();
+        try {
+            while (true) {
+                long posted = System.nanoTime();
+                boolean[] ran = {false};
+                EventQueue.invokeLater(() -> {
+                    long delay = (System.nanoTime() - posted) / 1_000_000;
+                    if (delay >= STALL_THRESHOLD_MS) {
+                        stalls.incrementAndGet();
+                        totalStallMillis.addAndGet(delay);
+                    }
+                    maxStallMillis.accumulateAndGet(delay, Math::max);
+                    synchronized (done) {
+                        ran[0] = true;
+                        done.notifyAll();
+                    }
+                });
+                // Wait for the probe so a long stall is measured once rather than by a pile of probes
+                synchronized (done) {
+                    while (!ran[0]) {
+                        done.wait();
+                    }
+                }
+                Thread.sleep(PROBE_INTERVAL_MS);
+
+                if (System.currentTimeMillis() >= nextReport) {
+                    nextReport += REPORT_INTERVAL_MS;
+                    System.out.println("EDT stalls >= " + STALL_THRESHOLD_MS + " ms: " + stalls.getAndSet(0)
+                            + ", total " + totalStallMillis.getAndSet(0) + " ms, max " + maxStallMillis.getAndSet(0) + " ms; "
+                            + extraReport.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
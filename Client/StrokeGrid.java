@@ -0,0 +1,94 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Uniform grid over the canvas that indexes strokes by bounding box, so the
+ * eraser and partial redraws only look at strokes near a point or region
+ * instead of scanning every stroke.
+ *
+ * Stroke ids are their position in the canvas' stroke list, which is also
+ * their drawing order; queries return ids sorted in that order.
+ */
+public class StrokeGrid {
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+    private final List<Integer>[] cells;
+
+    @SuppressWarnings({"unchecked", "rawtypes"}) // Generic array creation; cells are filled in lazily as List<Integer>
+    public StrokeGrid(int width, int height, int cellSize) {
+        this.cellSize = cellSize;
+        this.columns = (width + cellSize - 1) / cellSize;
+        this.rows = (height + cellSize - 1) / cellSize;
+        this.cells = new List[columns * rows];
+    }
+
+    /**
+     * Area a stroke paints, including half its brush width
+     */
+    public static Rectangle bounds(Stroke stroke) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < stroke.getPointCount(); i++) {
+            minX = Math.min(minX, stroke.getX(i));
+            minY = Math.min(minY, stroke.getY(i));
+            maxX = Math.max(maxX, stroke.getX(i));
+            maxY = Math.max(maxY, stroke.getY(i));
+        }
+        int pad = stroke.getWidth() / 2 + 2; // + antialiasing fringe
+        return new Rectangle(minX - pad, minY - pad, maxX - minX + 2 * pad, maxY - minY + 2 * pad);
+    }
+
+    public void insert(int id, Rectangle bounds) {
+        forEachCell(bounds, cell -> {
+            if (cells[cell] == null) {
+                cells[cell] = new ArrayList<>(4);
+            }
+            cells[cell].add(id);
+        });
+    }
+
+    public void remove(int id, Rectangle bounds) {
+        forEachCell(bounds, cell -> {
+            if (cells[cell] != null) {
+                cells[cell].remove(Integer.valueOf(id));
+            }
+        });
+    }
+
+    public void clear() {
+        Arrays.fill(cells, null);
+    }
+
+    /**
+     * Ids of strokes whose bounding box may overlap the area, in drawing order
+     */
+    public TreeSet<Integer> query(Rectangle area) {
+        TreeSet<Integer> ids = new TreeSet<>();
+        forEachCell(area, cell -> {
+            if (cells[cell] != null) {
+                ids.addAll(cells[cell]);
+            }
+        });
+        return ids;
+    }
+
+    private interface CellVisitor {
+        void visit(int cell);
+    }
+
+    private void forEachCell(Rectangle area, CellVisitor visitor) {
+        int firstColumn = Math.max(0, area.x / cellSize);
+        int lastColumn = Math.min(columns - 1, (area.x + area.width) / cellSize);
+        int firstRow = Math.max(0, area.y / cellSize);
+        int lastRow = Math.min(rows - 1, (area.y + area.height) / cellSize);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                visitor.visit(row * columns + column);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Everything the client sends goes through here, so the Swing EDT never
+ * encodes images or touches the socket.
+ *
+ * On the EDT, submit() only takes the encoded strokes (or, when sending
+ * images, copies the canvas into a recycled image). A background encoder
+ * thread turns that into Base64 (via PNG for an image) inside pooled
+ * buffers, and a dedicated writer thread puts the finished frames on the
+ * wire. Plain messages go through the same encoder queue, so
+ * everything is sent in the order it was submitted. Listener callbacks
+ * run on the EDT.
+ */
+public class SubmissionPipeline {
+    /**
+     * Writes one complete frame and flushes it
+     */
+    public interface FrameWriter {
+        /**
+         * @param submittedNanos System.nanoTime() when the message was handed to the pipeline
+         */
+        void write(byte[] frame, int length, long submittedNanos) throws IOException;
+    }
+
+    /**
+     * Progress of one message; both methods are called on the EDT
+     */
+    public interface Listener {
+        void onSent(int bytes, long encodeMillis);
+
+        void onFailed(Exception e);
+    }
+
+    // "strokes" sends StrokeCodec data for the server to render; "png" sends the canvas image
+    private static final boolean SEND_STROKES = !"png".equalsIgnoreCase(System.getProperty("client.drawingFormat", "strokes"));
+
+    /**
+     * A frame waiting for the writer thread
+     */
+    private static class Outgoing {
+        final byte[] data;
+        final int length;
+        final boolean pooled;
+        final long encodeMillis;
+        final long submittedNanos;
+        final Listener listener;
+
+        Outgoing(byte[] data, int length, boolean pooled, long encodeMillis, long submittedNanos, Listener listener) {
+            this.data = data;
+            this.length = length;
+            this.pooled = pooled;
+            this.encodeMillis = encodeMillis;
+            this.submittedNanos = submittedNanos;
+            this.listener = listener;
+        }
+    }
+
+    private final FrameWriter frameWriter;
+    private final BufferPool bufferPool = BufferPool.SHARED;
+    private final ExecutorService encoder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "drawing-encoder");
+        t.setDaemon(true);
+        return t;
+    });
+    private final BlockingQueue<Outgoing> outgoing = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<BufferedImage> idleSnapshots = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+
+    static {
+        // ImageIO otherwise buffers every PNG through a temporary file
+        ImageIO.setUseCache(false);
+    }
+
+    public SubmissionPipeline(FrameWriter frameWriter) {
+        this.frameWriter = frameWriter;
+        writer = new Thread(this::writeLoop, "client-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Submit the drawing as a STROKES message (or a DRAWING message with
+     * -Dclient.drawingFormat=png). Call on the EDT; it only copies the strokes or the image.
+     * @param meta submission details the server schedules judging by, e.g. "auto=1,round=3,left=0"
+     */
+    public void submit(DrawingCanvas canvas, String meta, Listener listener) {
+        long submitted = System.nanoTime();
+        if (SEND_STROKES) {
+            byte[] strokes = canvas.getStrokesEncoded();
+            byte[] prefix = ("STROKES:" + meta + ":").getBytes(StandardCharsets.US_ASCII);
+            encoder.execute(() -> sendBase64(prefix, strokes, strokes.length, System.nanoTime(), submitted, listener));
+            return;
+        }
+        byte[] prefix = ("DRAWING:" + meta + ":").getBytes(StandardCharsets.US_ASCII);
+        BufferedImage snapshot = canvas.snapshot(idleSnapshots.poll());
+        encoder.execute(() -> {
+            long start = System.nanoTime();
+            PooledOutputStream png = new PooledOutputStream(bufferPool, 64 * 1024);
+            try {
+                ImageIO.write(snapshot, "PNG", png);
+                sendBase64(prefix, png.getBuffer(), png.size(), start, submitted, listener);
+            } catch (IOException | RuntimeException e) {
+                failed(listener, e);
+            } finally {
+                png.release();
+                idleSnapshots.offer(snapshot);
+            }
+        });
+    }
+
+    /**
+     * Queue prefix + base64(data) for the writer; runs on the encoder thread
+     */
+    private void sendBase64(byte[] prefix, byte[] data, int length, long start, long submitted, Listener listener) {
+        PooledOutputStream frame = new PooledOutputStream(bufferPool, prefix.length + (length + 2) / 3 * 4);
+        try {
+            frame.write(prefix);
+            try (OutputStream base64 = Base64.getEncoder().wrap(frame)) {
+                base64.write(data, 0, length);
+            }
+            outgoing.add(new Outgoing(frame.getBuffer(), frame.size(), true,
+                    (System.nanoTime() - start) / 1_000_000, submitted, listener));
+        } catch (IOException | RuntimeException e) {
+            frame.release();
+            failed(listener, e);
+        }
+    }
+
+    /**
+     * Send a plain message after everything submitted before it
+     */
+    public void send(String message, Listener listener) {
+        long submitted = System.nanoTime();
+        encoder.execute(() -> {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            outgoing.add(new Outgoing(bytes, bytes.length, false, 0, submitted, listener));
+        });
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Outgoing next;
+            try {
+                next = outgoing.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                frameWriter.write(next.data, next.length, next.submittedNanos);
+                if (next.listener != null) {
+                    int bytes = next.length;
+                    SwingUtilities.invokeLater(() -> next.listener.onSent(bytes, next.encodeMillis));
+                }
+            } catch (IOException | RuntimeException e) {
+                failed(next.listener, e);
+            } finally {
+                if (next.pooled) {
+                    bufferPool.release(next.data);
+                }
+            }
+        }
+    }
+
+    private static void failed(Listener listener, Exception e) {
+        if (listener != null) {
+            SwingUtilities.invokeLater(() -> listener.onFailed(e));
+        }
+    }
+}
@@ -0,0 +1,401 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Backing store of the drawing canvas, split into TILE_SIZE x TILE_SIZE
+ * tiles (in logical pixels) that are only allocated once something is
+ * drawn on them; a missing tile is plain white. Memory therefore grows with
+ * the inked area rather than the canvas size, and clearing an area that
+ * covers whole tiles frees them.
+ *
+ * Tiles hold device pixels: at a HiDPI scale of 2 a tile is 256x256, so
+ * strokes are rasterized at screen resolution and painting is a 1:1 blit.
+ * Callers work in logical coordinates throughout.
+ *
+ * Every change marks the tiles it touched dirty twice over: once for the
+ * screen (takeScreenDirty(), to repaint) and once for export (export()
+ * copies only those into the image it filled last time).
+ */
+public class TiledRaster implements StrokeRenderer.PixelSurface {
+    public static final int TILE_SIZE = 128; // Logical pixels; times any common scale (1.25, 1.5, 2...) it's a whole number
+    private static final int WHITE = 0xFFFFFF;
+
+    private final int width; // Logical
+    private final int height;
+    private final double scale;
+    private final int tilePixels; // Device pixels per tile side
+    private final int pixelWidth;
+    private final int pixelHeight;
+    private final int columns;
+    private final int rows;
+    private final BufferedImage[] tiles;
+    private final int[][] tileData; // Pixels of each allocated tile
+    // Per device column/row: tile column, x within the tile, first tile of the row, offset of the row within a tile.
+    // Flood fill reads pixels one at a time, and a table lookup is much cheaper than dividing by a non-constant size
+    private final int[] columnOf;
+    private final int[] xInTile;
+    private final int[] rowTile;
+    private final int[] rowOffset;
+    private final BitSet screenDirty = new BitSet();
+    private final BitSet exportDirty = new BitSet();
+    private BufferedImage lastExport; // Image export() last brought up to date
+    private int allocated;
+
+    public TiledRaster(int width, int height, double scale) {
+        this.width = width;
+        this.height = height;
+        this.scale = scale;
+        this.tilePixels = (int) Math.round(TILE_SIZE * scale);
+        this.pixelWidth = (int) Math.ceil(width * scale);
+        this.pixelHeight = (int) Math.ceil(height * scale);
+        this.columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = new BufferedImage[columns * rows];
+        this.tileData = new int[columns * rows][];
+        this.columnOf = new int[pixelWidth];
+        this.xInTile = new int[pixelWidth];
+        for (int x = 0; x < pixelWidth; x++) {
+            columnOf[x] = x / tilePixels;
+            xInTile[x] = x % tilePixels;
+        }
+        this.rowTile = new int[pixelHeight];
+        this.rowOffset = new int[pixelHeight];
+        for (int y = 0; y < pixelHeight; y++) {
+            rowTile[y] = (y / tilePixels) * columns;
+            rowOffset[y] = (y % tilePixels) * tilePixels;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    public int getAllocatedTiles() {
+        return allocated;
+    }
+
+    public int getTileCount() {
+        return tiles.length;
+    }
+
+    public long getAllocatedBytes() {
+        return (long) allocated * tilePixels * tilePixels * 4;
+    }
+
+    /**
+     * Draw into every tile the bounds overlap, allocating them as needed
+     * @param bounds logical area the painter can touch
+     */
+    public void draw(Rectangle bounds, Consumer<Graphics2D> painter) {
+        try (Batch batch = open(null)) {
+            batch.draw(bounds, painter);
+        }
+    }
+
+    /**
+     * Several draws that share one Graphics2D per tile
+     * @param clip logical area to confine drawing to, or null
+     */
+    public Batch open(Rectangle clip) {
+        return new Batch(clip);
+    }
+
+    public class Batch implements AutoCloseable {
+        private final Rectangle deviceClip;
+        private final Graphics2D[] graphics = new Graphics2D[tiles.length];
+
+        private Batch(Rectangle clip) {
+            this.deviceClip = clip == null ? null : toDevice(clip);
+        }
+
+        public void draw(Rectangle bounds, Consumer<Graphics2D> painter) {
+            Rectangle area = deviceClip == null ? toDevice(bounds) : toDevice(bounds).intersection(deviceClip);
+            forEachTile(area, tile -> {
+                if (graphics[tile] == null) {
+                    graphics[tile] = tileGraphics(tile, deviceClip);
+                }
+                painter.accept(graphics[tile]);
+                markDirty(tile);
+            });
+        }
+
+        @Override
+        public void close() {
+            for (Graphics2D g2d : graphics) {
+                if (g2d != null) {
+                    g2d.dispose();
+                }
+            }
+        }
+    }
+
+    /**
+     * Antialiased graphics for a tile, in logical coordinates, clipped to deviceClip if not null
+     */
+    private Graphics2D tileGraphics(int tile, Rectangle deviceClip) {
+        Graphics2D g2d = StrokeRenderer.createGraphics(allocate(tile));
+        g2d.translate(-(tile % columns) * tilePixels, -(tile / columns) * tilePixels);
+        if (deviceClip != null) {
+            g2d.setClip(deviceClip); // Set in device pixels, so a clear and the redraw after it cover exactly the same pixels
+        }
+        g2d.scale(scale, scale);
+        return g2d;
+    }
+
+    /**
+     * Make a logical area white again; tiles it covers completely are freed
+     */
+    public void clear(Rectangle area) {
+        Rectangle device = toDevice(area);
+        forEachTile(device, tile -> {
+            if (tiles[tile] == null) {
+                return;
+            }
+            Rectangle tileArea = tileDeviceBounds(tile);
+            if (device.contains(tileArea)) {
+                free(tile);
+            } else {
+                Rectangle part = device.intersection(tileArea);
+                int[] data = tileData[tile];
+                int x = part.x - tileArea.x;
+                for (int y = part.y - tileArea.y; y < part.y - tileArea.y + part.height; y++) {
+                    Arrays.fill(data, y * tilePixels + x, y * tilePixels + x + part.width, WHITE);
+                }
+            }
+            markDirty(tile);
+        });
+    }
+
+    public void clearAll() {
+        for (int tile = 0; tile < tiles.length; tile++) {
+            if (tiles[tile] != null) {
+                free(tile);
+                markDirty(tile);
+            }
+        }
+    }
+
+    /**
+     * Flood fill from a logical point (the centre of its device pixel)
+     * @return the logical area changed, or null if nothing changed
+     */
+    public Rectangle fill(int x, int y, int rgb) {
+        Rectangle filled = StrokeRenderer.fill(this, (int) ((x + 0.5) * scale), (int) ((y + 0.5) * scale), rgb);
+        return filled == null ? null : toLogical(filled);
+    }
+
+    /**
+     * Colour (0xRRGGBB) at a logical point
+     */
+    public int getRGB(int x, int y) {
+        return getPixel((int) ((x + 0.5) * scale), (int) ((y + 0.5) * scale));
+    }
+
+    @Override
+    public int getPixelWidth() {
+        return pixelWidth;
+    }
+
+    @Override
+    public int getPixelHeight() {
+        return pixelHeight;
+    }
+
+    @Override
+    public int getPixel(int x, int y) {
+        int[] data = tileData[rowTile[y] + columnOf[x]];
+        return data == null ? WHITE : data[rowOffset[y] + xInTile[x]] & 0xFFFFFF;
+    }
+
+    @Override
+    public void fillRun(int y, int fromX, int toX, int rgb) {
+        int row = rowTile[y];
+        int offset = rowOffset[y];
+        while (fromX <= toX) {
+            int tile = row + columnOf[fromX];
+            int tileX = xInTile[fromX];
+            int count = Math.min(toX - fromX + 1, tilePixels - tileX);
+            allocate(tile);
+            Arrays.fill(tileData[tile], offset + tileX, offset + tileX + count, rgb);
+            markDirty(tile);
+            fromX += count;
+        }
+    }
+
+    /**
+     * Copy of the pixels of every allocated tile (null for white ones), for restore()
+     */
+    public int[][] copyTiles() {
+        int[][] copy = new int[tiles.length][];
+        for (int tile = 0; tile < tiles.length; tile++) {
+            if (tileData[tile] != null) {
+                copy[tile] = tileData[tile].clone();
+            }
+        }
+        return copy;
+    }
+
+    public void restore(int[][] saved) {
+        for (int tile = 0; tile < tiles.length; tile++) {
+            if (saved[tile] == null) {
+                if (tiles[tile] != null) {
+                    free(tile);
+                    markDirty(tile);
+                }
+            } else {
+                allocate(tile);
+                System.arraycopy(saved[tile], 0, tileData[tile], 0, saved[tile].length);
+                markDirty(tile);
+            }
+        }
+    }
+
+    /**
+     * Paint the allocated tiles inside clip (logical); white tiles are left to the component's background
+     */
+    public void paint(Graphics g, Rectangle clip) {
+        forEachTile(toDevice(clip), tile -> {
+            if (tiles[tile] != null) {
+                int x = (tile % columns) * TILE_SIZE;
+                int y = (tile / columns) * TILE_SIZE;
+                g.drawImage(tiles[tile], x, y, x + TILE_SIZE, y + TILE_SIZE, 0, 0, tilePixels, tilePixels, null);
+            }
+        });
+    }
+
+    /**
+     * Logical areas of the tiles changed since the last call
+     */
+    public List<Rectangle> takeScreenDirty() {
+        List<Rectangle> areas = new ArrayList<>(screenDirty.cardinality());
+        for (int tile = screenDirty.nextSetBit(0); tile >= 0; tile = screenDirty.nextSetBit(tile + 1)) {
+            areas.add(new Rectangle((tile % columns) * TILE_SIZE, (tile / columns) * TILE_SIZE, TILE_SIZE, TILE_SIZE));
+        }
+        screenDirty.clear();
+        return areas;
+    }
+
+    /**
+     * The drawing as a logical-size TYPE_INT_RGB image. If reuse is the image
+     * the previous export returned, only tiles changed since are copied.
+     * @param reuse image to copy into, or null
+     */
+    public BufferedImage export(BufferedImage reuse) {
+        if (reuse == null || reuse.getWidth() != width || reuse.getHeight() != height) {
+            reuse = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        if (reuse != lastExport) {
+            exportDirty.set(0, tiles.length);
+        }
+        int[] target = ((DataBufferInt) reuse.getRaster().getDataBuffer()).getData();
+        Graphics2D scaled = null;
+        for (int tile = exportDirty.nextSetBit(0); tile >= 0; tile = exportDirty.nextSetBit(tile + 1)) {
+            int x = (tile % columns) * TILE_SIZE;
+            int y = (tile / columns) * TILE_SIZE;
+            int w = Math.min(TILE_SIZE, width - x);
+            int h = Math.min(TILE_SIZE, height - y);
+            if (tiles[tile] == null) {
+                for (int row = y; row < y + h; row++) {
+                    Arrays.fill(target, row * width + x, row * width + x + w, WHITE);
+                }
+            } else if (tilePixels == TILE_SIZE) {
+                for (int row = 0; row < h; row++) {
+                    System.arraycopy(tileData[tile], row * TILE_SIZE, target, (y + row) * width + x, w);
+                }
+            } else {
+                if (scaled == null) {
+                    scaled = reuse.createGraphics();
+                    scaled.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                }
+                scaled.drawImage(tiles[tile], x, y, x + TILE_SIZE, y + TILE_SIZE, 0, 0, tilePixels, tilePixels, null);
+            }
+        }
+        if (scaled != null) {
+            scaled.dispose();
+        }
+        exportDirty.clear();
+        lastExport = reuse;
+        return reuse;
+    }
+
+    private BufferedImage allocate(int tile) {
+        if (tiles[tile] == null) {
+            BufferedImage image = new BufferedImage(tilePixels, tilePixels, BufferedImage.TYPE_INT_RGB);
+            tileData[tile] = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            Arrays.fill(tileData[tile], WHITE);
+            tiles[tile] = image;
+            allocated++;
+        }
+        return tiles[tile];
+    }
+
+    private void free(int tile) {
+        tiles[tile] = null;
+        tileData[tile] = null;
+        allocated--;
+    }
+
+    private void markDirty(int tile) {
+        screenDirty.set(tile);
+        exportDirty.set(tile);
+    }
+
+    private Rectangle tileDeviceBounds(int tile) {
+        return new Rectangle((tile % columns) * tilePixels, (tile / columns) * tilePixels, tilePixels, tilePixels);
+    }
+
+    /**
+     * Device pixels a logical area touches
+     */
+    private Rectangle toDevice(Rectangle area) {
+        int x1 = (int) Math.floor(area.x * scale);
+        int y1 = (int) Math.floor(area.y * scale);
+        int x2 = (int) Math.ceil((area.x + area.width) * scale);
+        int y2 = (int) Math.ceil((area.y + area.height) * scale);
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    private Rectangle toLogical(Rectangle device) {
+        int x1 = (int) Math.floor(device.x / scale);
+        int y1 = (int) Math.floor(device.y / scale);
+        int x2 = (int) Math.ceil((device.x + device.width) / scale);
+        int y2 = (int) Math.ceil((device.y + device.height) / scale);
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    private interface TileVisitor {
+        void visit(int tile);
+    }
+
+    /**
+     * Visit the tiles a device-pixel area overlaps
+     */
+    private void forEachTile(Rectangle device, TileVisitor visitor) {
+        if (device.isEmpty()) {
+            return;
+        }
+        int firstColumn = Math.max(0, device.x / tilePixels);
+        int lastColumn = Math.min(columns - 1, (device.x + device.width - 1) / tilePixels);
+        int firstRow = Math.max(0, device.y / tilePixels);
+        int lastRow = Math.min(rows - 1, (device.y + device.height - 1) / tilePixels);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                visitor.visit(row * columns + column);
+            }
+        }
+    }
+}
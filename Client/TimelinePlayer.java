@@ -0,0 +1,261 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Renders a StrokeTimeline as it looked at any moment, for replays and for
+ * watching a game live.
+ *
+ * Every so many added strokes the player keeps a raster keyframe: the
+ * pixels at that point and the strokes they show. Seeking renders from the
+ * latest usable keyframe and draws only the strokes added since. A keyframe
+ * costs a full canvas of pixels, so they share a memory budget
+ * (client.replayKeyframeMb, default 32 MB): when one more wouldn't fit,
+ * the interval doubles and every other keyframe is dropped. A long drawing
+ * keeps keyframes spread over its whole length, a few strokes more apart; a
+ * canvas too big for the budget gets none and is drawn from scratch. As in
+ * DrawingCanvas' checkpoints, a keyframe is usable only if every stroke in
+ * it is still shown and every stroke shown since was added after it; after
+ * an undo that breaks that, the next keyframe is usable again. A stroke
+ * still being drawn at the chosen moment is drawn up to the point the
+ * player's pen had reached (paths) or not at all yet (shapes and fills).
+ *
+ * The timeline may keep growing (spectating); call sync() after adding
+ * events so they are indexed and keyframed. Not thread-safe: use it on one
+ * thread, normally the EDT.
+ */
+public class TimelinePlayer {
+    private static final int KEYFRAME_INTERVAL = 16; // Strokes added between keyframes, until the budget is reached
+    private static final long KEYFRAME_BUDGET_BYTES = Long.getLong("client.replayKeyframeMb", 32) << 20;
+    private static final int WHITE = 0xFFFFFF;
+
+    /**
+     * Pixels after the first eventCount events, with the strokes they show
+     */
+    private static class Keyframe {
+        final int eventCount;
+        final BitSet visible;
+        final int[] pixels;
+
+        Keyframe(int eventCount, BitSet visible, int[] pixels) {
+            this.eventCount = eventCount;
+            this.visible = visible;
+            this.pixels = pixels;
+        }
+    }
+
+    private final StrokeTimeline timeline;
+    private final List<Keyframe> keyframes = new ArrayList<>(); // By eventCount
+    private final BitSet visible = new BitSet(); // After the events indexed so far
+    private int indexed; // Events seen by sync()
+    private int[] addsBefore = new int[64]; // ADD events among the first i events; an ADD's stroke id is addsBefore[its index]
+    private final int maxKeyframes; // As many as fit in the budget
+    private int keyframeInterval = KEYFRAME_INTERVAL; // A keyframe every this many added strokes
+    private BufferedImage scratch; // Where keyframes are rendered
+
+    public TimelinePlayer(StrokeTimeline timeline) {
+        this(timeline, KEYFRAME_BUDGET_BYTES);
+    }
+
+    /**
+     * @param keyframeBudgetBytes memory the keyframes may take up together
+     */
+    TimelinePlayer(StrokeTimeline timeline, long keyframeBudgetBytes) {
+        this.timeline = timeline;
+        long keyframeBytes = 4L * Math.max(1, timeline.getWidth()) * Math.max(1, timeline.getHeight());
+        this.maxKeyframes = (int) Math.min(StrokeCodec.MAX_STROKES, keyframeBudgetBytes / keyframeBytes);
+        sync();
+    }
+
+    public StrokeTimeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Milliseconds from the first to the end of the last event
+     */
+    public int getDuration() {
+        return timeline.getDuration();
+    }
+
+    public int getKeyframeCount() {
+        return keyframes.size();
+    }
+
+    /**
+     * Index events added to the timeline since the last call, taking keyframes as due
+     */
+    public void sync() {
+        while (indexed < timeline.size()) {
+            StrokeTimeline.Event event = timeline.get(indexed);
+            apply(visible, indexed);
+            if (indexed + 2 > addsBefore.length) {
+                addsBefore = Arrays.copyOf(addsBefore, addsBefore.length * 2);
+            }
+            addsBefore[indexed + 1] = addsBefore[indexed] + (event.type == StrokeTimeline.ADD ? 1 : 0);
+            indexed++;
+            if (event.type == StrokeTimeline.ADD && maxKeyframes > 0 && addsBefore[indexed] % keyframeInterval == 0) {
+                if (scratch == null) {
+                    scratch = newImage();
+                }
+                render(scratch, indexed, (BitSet) visible.clone(), Integer.MAX_VALUE);
+                keyframes.add(new Keyframe(indexed, (BitSet) visible.clone(), pixels(scratch).clone()));
+                if (keyframes.size() > maxKeyframes) {
+                    // Over budget: keep every other keyframe, at twice the spacing
+                    keyframeInterval *= 2;
+                    keyframes.removeIf(keyframe -> addsBefore[keyframe.eventCount] % keyframeInterval != 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * An image of the timeline's size that render() can draw into
+     */
+    public BufferedImage newImage() {
+        return new BufferedImage(Math.max(1, timeline.getWidth()), Math.max(1, timeline.getHeight()),
+                BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Draw the drawing as it was at a moment
+     * @param image from newImage()
+     * @param millis time since the timeline started
+     */
+    public void renderAt(BufferedImage image, long millis) {
+        // Events that have started by then; only the last of them can still be in progress
+        int low = 0, high = indexed;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timeline.get(mid).time <= millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        render(image, low, visibleAfter(low), millis);
+    }
+
+    /**
+     * Strokes shown after the first count events
+     */
+    private BitSet visibleAfter(int count) {
+        BitSet shown = new BitSet();
+        int from = 0;
+        for (int k = keyframes.size() - 1; k >= 0; k--) {
+            if (keyframes.get(k).eventCount <= count) {
+                shown = (BitSet) keyframes.get(k).visible.clone();
+                from = keyframes.get(k).eventCount;
+                break;
+            }
+        }
+        for (int i = from; i < count; i++) {
+            apply(shown, i);
+        }
+        return shown;
+    }
+
+    /**
+     * Render the shown strokes of the first count events onto image, from the best keyframe
+     * @param millis strokes not finished by then are drawn partly (paths) or left out
+     */
+    private void render(BufferedImage image, int count, BitSet shown, long millis) {
+        int[] pixels = pixels(image);
+        // A stroke in progress must not come from a keyframe that has it complete
+        int complete = count;
+        if (count > 0 && timeline.get(count - 1).end() > millis) {
+            complete = count - 1;
+        }
+        Keyframe base = usableKeyframe(complete, shown);
+        int firstId;
+        if (base != null) {
+            System.arraycopy(base.pixels, 0, pixels, 0, pixels.length);
+            firstId = base.visible.length();
+        } else {
+            Arrays.fill(pixels, WHITE);
+            firstId = 0;
+        }
+
+        int strokesStarted = addsBefore[count];
+        int inProgress = complete < count ? strokesStarted - 1 : -1;
+        Graphics2D g2d = StrokeRenderer.createGraphics(image);
+        for (int id = shown.nextSetBit(firstId); id >= 0 && id < strokesStarted; id = shown.nextSetBit(id + 1)) {
+            Stroke stroke = timeline.getStroke(id);
+            if (id == inProgress) {
+                StrokeTimeline.Event event = timeline.get(count - 1);
+                stroke = partial(stroke, (double) (millis - event.time) / Math.max(1, event.duration));
+                if (stroke == null) {
+                    continue;
+                }
+            }
+            if (stroke.getKind() == Stroke.FILL) {
+                StrokeRenderer.fill(image, stroke);
+            } else {
+                StrokeRenderer.draw(g2d, stroke);
+            }
+        }
+        g2d.dispose();
+    }
+
+    /**
+     * The keyframe needing the fewest strokes drawn on top, among those within the first count events
+     */
+    private Keyframe usableKeyframe(int count, BitSet shown) {
+        for (int k = keyframes.size() - 1; k >= 0; k--) {
+            Keyframe keyframe = keyframes.get(k);
+            if (keyframe.eventCount > count) {
+                continue;
+            }
+            BitSet hidden = (BitSet) keyframe.visible.clone();
+            hidden.andNot(shown);
+            if (!hidden.isEmpty()) {
+                continue; // Shows a stroke that has since been erased or undone
+            }
+            BitSet added = (BitSet) shown.clone();
+            added.andNot(keyframe.visible);
+            int first = added.nextSetBit(0);
+            if (first != -1 && first < keyframe.visible.length()) {
+                continue; // A stroke that belongs underneath came back
+            }
+            return keyframe; // Later keyframes cover more strokes
+        }
+        return null;
+    }
+
+    /**
+     * The part of a stroke drawn after the given fraction of its duration, or null if none of it shows yet
+     */
+    private static Stroke partial(Stroke stroke, double fraction) {
+        if (stroke.getKind() != Stroke.PATH) {
+            return null; // Shapes and fills appear when released
+        }
+        int points = Math.max(1, (int) Math.ceil(stroke.getPointCount() * Math.min(1, fraction)));
+        Stroke part = new Stroke(stroke.getColor(), stroke.getWidth());
+        for (int i = 0; i < points; i++) {
+            part.add(stroke.getX(i), stroke.getY(i));
+        }
+        return part;
+    }
+
+    /**
+     * Apply the index-th event to a set of shown strokes (its ADD count must be indexed)
+     */
+    private void apply(BitSet visible, int index) {
+        StrokeTimeline.Event event = timeline.get(index);
+        if (event.type == StrokeTimeline.ADD) {
+            visible.set(addsBefore[index]);
+        } else {
+            for (int id : event.strokeIds) {
+                visible.set(id, event.type == StrokeTimeline.SHOW);
+            }
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,147 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Window that plays a drawing's timeline: a replay with play/pause, a seek
+ * bar and a speed choice, or a live view of another player's game.
+ *
+ * A Swing timer advances the play head by the elapsed wall time times the
+ * speed and renders that moment through TimelinePlayer. Live, the play head
+ * follows the strokes as they arrive, so each one is drawn at the pace it
+ * was drawn; if it falls more than MAX_LIVE_LAG_MS behind it jumps ahead.
+ */
+public class TimelineViewer extends JFrame {
+    private static final long serialVersionUID = 1L;
+    private static final int FRAME_MILLIS = 1000 / 30;
+    private static final long MAX_LIVE_LAG_MS = 3000;
+    private static final double[] SPEEDS = {0.5, 1, 2, 4, 8};
+
+    private final boolean live;
+    private TimelinePlayer player;
+    private BufferedImage image;
+    private double position; // Play head, milliseconds into the timeline
+    private double speed = 1;
+    private boolean playing = true;
+    private long lastTick = System.nanoTime();
+    private boolean seeking; // The slider is being moved by the timer, not the user
+    private boolean grew; // Events arrived since the last frame
+    private final JPanel view;
+    private final JSlider seekBar = new JSlider(0, 0, 0);
+    private final JButton playButton = new JButton("Pause");
+    private final JLabel timeLabel = new JLabel();
+    private final Timer timer;
+
+    /**
+     * @param live follow a timeline that is still growing, rather than replaying a finished one
+     */
+    public TimelineViewer(String title, TimelinePlayer player, boolean live) {
+        super(title);
+        this.live = live;
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        view = new JPanel() {
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                g.drawImage(image, 0, 0, null);
+            }
+        };
+        view.setBackground(Color.WHITE);
+        add(view, BorderLayout.CENTER);
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 4));
+        JComboBox<String> speedBox = new JComboBox<>();
+        for (double s : SPEEDS) {
+            speedBox.addItem((s == Math.rint(s) ? String.valueOf((int) s) : String.valueOf(s)) + "x");
+        }
+        speedBox.setSelectedIndex(1);
+        speedBox.addActionListener(e -> speed = SPEEDS[speedBox.getSelectedIndex()]);
+        if (!live) {
+            playButton.addActionListener(e -> {
+                if (!playing && position >= player.getDuration()) {
+                    position = 0; // Play again from the start
+                }
+                playing = !playing;
+                playButton.setText(playing ? "Pause" : "Play");
+            });
+            seekBar.addChangeListener(e -> {
+                if (!seeking) {
+                    position = seekBar.getValue();
+                    renderFrame();
+                }
+            });
+            controls.add(playButton);
+            controls.add(new JLabel("Speed:"));
+            controls.add(speedBox);
+            controls.add(seekBar);
+        }
+        controls.add(timeLabel);
+        add(controls, BorderLayout.SOUTH);
+
+        setPlayer(player);
+        timer = new Timer(FRAME_MILLIS, e -> tick());
+        timer.start();
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                timer.stop();
+            }
+        });
+    }
+
+    /**
+     * Show another timeline (a new game of the watched player), starting at its current end if live
+     */
+    public void setPlayer(TimelinePlayer player) {
+        this.player = player;
+        this.image = player.newImage();
+        this.position = live ? player.getDuration() : 0;
+        view.setPreferredSize(new Dimension(image.getWidth(), image.getHeight()));
+        pack();
+        renderFrame();
+    }
+
+    /**
+     * Events were added to the timeline being watched
+     */
+    public void timelineGrew() {
+        player.sync();
+        grew = true;
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        double elapsed = (now - lastTick) / 1e6;
+        lastTick = now;
+        int duration = player.getDuration();
+        if (live) {
+            double before = position;
+            position = Math.min(Math.max(position + elapsed, duration - MAX_LIVE_LAG_MS), duration);
+            if (position == before && !grew) {
+                return; // Caught up and nothing new
+            }
+            grew = false;
+        } else if (playing) {
+            position = Math.min(position + elapsed * speed, duration);
+            if (position >= duration) {
+                playing = false;
+                playButton.setText("Play");
+            }
+        } else {
+            return;
+        }
+        renderFrame();
+    }
+
+    private void renderFrame() {
+        player.renderAt(image, (long) position);
+        int duration = player.getDuration();
+        seeking = true;
+        seekBar.setMaximum(duration);
+        seekBar.setValue((int) position);
+        seeking = false;
+        timeLabel.setText(String.format("%.1f / %.1f s", position / 1000, duration / 1000.0));
+        view.repaint();
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of reusable byte arrays in power-of-two size classes (4 KB and up).
+ *
+ * Each size class keeps at most a few MB of idle buffers, so the pool
+ * itself stays bounded. Requests larger than the biggest class get a
+ * plain, unpooled array.
+ */
+public class BufferPool {
+    public static final BufferPool SHARED = new BufferPool(4 * 1024 * 1024, 8 * 1024 * 1024);
+
+    private static final int MIN_SHIFT = 12; // 4 KB
+
+    private final int maxBufferSize;
+    private final ConcurrentLinkedQueue<byte[]>[] classes;
+    private final AtomicInteger[] idleCounts;
+    private final int[] maxIdle;
+
+    /**
+     * @param maxBufferSize largest pooled buffer (rounded up to a power of two)
+     * @param maxIdleBytesPerClass idle bytes kept per size class
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"}) // Generic array creation; each element is a ConcurrentLinkedQueue<byte[]>
+    public BufferPool(int maxBufferSize, int maxIdleBytesPerClass) {
+        int classCount = shiftFor(maxBufferSize) - MIN_SHIFT + 1;
+        this.maxBufferSize = 1 << shiftFor(maxBufferSize);
+        this.classes = new ConcurrentLinkedQueue[classCount];
+        this.idleCounts = new AtomicInteger[classCount];
+        this.maxIdle = new int[classCount];
+        for (int i = 0; i < classCount; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+            idleCounts[i] = new AtomicInteger();
+            maxIdle[i] = Math.max(2, maxIdleBytesPerClass >> (MIN_SHIFT + i));
+        }
+    }
+
+    /**
+     * Get a buffer of at least the given size
+     */
+    public byte[] acquire(int minSize) {
+        if (minSize > maxBufferSize) {
+            return new byte[minSize];
+        }
+        int index = shiftFor(minSize) - MIN_SHIFT;
+        byte[] buffer = classes[index].poll();
+        if (buffer != null) {
+            idleCounts[index].decrementAndGet();
+            return buffer;
+        }
+        return new byte[1 << (index + MIN_SHIFT)];
+    }
+
+    /**
+     * Return a buffer obtained from acquire(); the caller must not use it afterwards
+     */
+    public void release(byte[] buffer) {
+        int length = buffer.length;
+        if (length > maxBufferSize || Integer.bitCount(length) != 1 || length < (1 << MIN_SHIFT)) {
+            return; // Not one of ours
+        }
+        int index = shiftFor(length) - MIN_SHIFT;
+        if (idleCounts[index].incrementAndGet() <= maxIdle[index]) {
+            classes[index].offer(buffer);
+        } else {
+            idleCounts[index].decrementAndGet();
+        }
+    }
+
+    /**
+     * Smallest shift (>= MIN_SHIFT) such that 1 << shift >= size
+     */
+    private static int shiftFor(int size) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1);
+        return Math.max(MIN_SHIFT, shift);
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.function.LongConsumer;
+
+/**
+ * Wire format shared by the client and the server: every message is one
+ * frame made of a 4-byte big-endian length followed by that many bytes of
+ * UTF-8 text.
+ *
+ * Unlike ObjectOutputStream/ObjectInputStream there is no per-stream handle
+ * table, so a long session doesn't keep every message it ever sent alive,
+ * and the length is checked against a hard limit before anything is
+ * allocated. Frames are read into buffers borrowed from a BufferPool;
+ * readFrame() hands out the buffer itself, so a large payload (a drawing)
+ * can be decoded from it without first becoming a String of the whole frame.
+ *
+ * System property: protocol.maxFrameBytes (default 4 MB)
+ */
+public class FrameCodec {
+    public static final int MAX_FRAME_BYTES = Integer.getInteger("protocol.maxFrameBytes", 4 * 1024 * 1024);
+
+    /**
+     * Thrown when the peer announces a frame larger than the limit
+     */
+    public static class FrameTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int frameSize;
+
+        FrameTooLargeException(int frameSize, int limit) {
+            super("Frame of " + frameSize + " bytes exceeds limit of " + limit);
+            this.frameSize = frameSize;
+        }
+    }
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final int maxFrameBytes;
+    private final BufferPool bufferPool;
+    private volatile int bufferedBytes; // Size of the inbound buffer currently borrowed
+    private LongConsumer memoryListener = delta -> { };
+
+    public FrameCodec(InputStream in, OutputStream out) {
+        this(in, out, MAX_FRAME_BYTES, BufferPool.SHARED);
+    }
+
+    public FrameCodec(InputStream in, OutputStream out, int maxFrameBytes, BufferPool bufferPool) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 8192));
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 8192));
+        this.maxFrameBytes = maxFrameBytes;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Receive +bytes when an inbound buffer is borrowed and -bytes when it is returned,
+     * for per-session memory accounting
+     */
+    public void setMemoryListener(LongConsumer memoryListener) {
+        this.memoryListener = memoryListener;
+    }
+
+    /**
+     * A received frame, still in its pooled buffer; close() gives the buffer back
+     */
+    public final class Frame implements AutoCloseable {
+        private byte[] buffer;
+        private final int length;
+
+        private Frame(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * @param prefix ASCII, e.g. a message type such as "DRAWING:"
+         */
+        public boolean startsWith(String prefix) {
+            if (prefix.length() > length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (buffer[i] != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Position of an ASCII character between from (inclusive) and to (exclusive), or -1
+         */
+        public int indexOf(char c, int from, int to) {
+            for (int i = from; i < Math.min(to, length); i++) {
+                if (buffer[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public String text() {
+            return text(0, length);
+        }
+
+        public String text(int from, int to) {
+            return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Decode the base64 text from position from to the end of the frame
+         * @throws IllegalArgumentException if it isn't valid base64
+         */
+        public byte[] decodeBase64(int from) {
+            ByteBuffer decoded = Base64.getDecoder().decode(ByteBuffer.wrap(buffer, from, length - from));
+            byte[] data = decoded.array();
+            return decoded.remaining() == data.length ? data : Arrays.copyOf(data, decoded.remaining());
+        }
+
+        @Override
+        public void close() {
+            if (buffer != null) {
+                bufferedBytes = 0;
+                memoryListener.accept(-buffer.length);
+                bufferPool.release(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * Read the next message, blocking until it has fully arrived
+     * @throws EOFException if the peer closed the connection
+     * @throws FrameTooLargeException if the frame is over the limit (nothing is allocated for it)
+     */
+    public String readMessage() throws IOException {
+        try (Frame frame = readFrame()) {
+            return frame.text();
+        }
+    }
+
+    /**
+     * Read the next frame into a pooled buffer, blocking until it has fully arrived; the caller must close it
+     * @throws EOFException if the peer closed the connection
+     * @throws FrameTooLargeException if the frame is over the limit (nothing is allocated for it)
+     */
+    public Frame readFrame() throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxFrameBytes) {
+            throw new FrameTooLargeException(length, maxFrameBytes);
+        }
+        Frame frame = new Frame(bufferPool.acquire(length), length);
+        bufferedBytes = frame.buffer.length;
+        memoryListener.accept(frame.buffer.length);
+        try {
+            in.readFully(frame.buffer, 0, length);
+        } catch (IOException e) {
+            frame.close();
+            throw e;
+        }
+        return frame;
+    }
+
+    /**
+     * Write one message into the output buffer; call flush() to send it
+     */
+    public void writeMessage(String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxFrameBytes) {
+            throw new FrameTooLargeException(bytes.length, maxFrameBytes);
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Write one message that is already UTF-8 encoded (e.g. a pooled buffer), skipping the String round trip
+     */
+    public void writeFrame(byte[] bytes, int offset, int length) throws IOException {
+        if (length > maxFrameBytes) {
+            throw new FrameTooLargeException(length, maxFrameBytes);
+        }
+        out.writeInt(length);
+        out.write(bytes, offset, length);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Bytes of inbound buffer this connection is holding right now
+     */
+    public int getBufferedBytes() {
+        return bufferedBytes;
+    }
+}
@@ -0,0 +1,66 @@
+import java.io.OutputStream;
+
+/**
+ * Growable output stream over buffers borrowed from a BufferPool, for
+ * encoding PNG and Base64 without a fresh array per message. The bytes
+ * written are buffer[0..count); the buffer stays valid until release().
+ */
+public class PooledOutputStream extends OutputStream {
+    private final BufferPool pool;
+    private byte[] buffer;
+    private int count;
+
+    public PooledOutputStream(BufferPool pool, int initialSize) {
+        this.pool = pool;
+        this.buffer = pool.acquire(initialSize);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > buffer.length) {
+            byte[] larger = pool.acquire(Math.max(needed, buffer.length * 2));
+            System.arraycopy(buffer, 0, larger, 0, count);
+            pool.release(buffer);
+            buffer = larger;
+        }
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Forget what was written, keeping the buffer
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * Give the buffer back to the pool; the stream must not be used afterwards
+     */
+    public void release() {
+        pool.release(buffer);
+    }
+
+    @Override
+    public void close() {
+        // The buffer stays valid until release()
+    }
+}
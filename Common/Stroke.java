@@ -0,0 +1,105 @@
+import java.util.Arrays;
+
+/**
+ * One drawing operation: a freehand path, a shape or a bucket fill, with an
+ * RGB colour, a brush width and its points.
+ *
+ * PATH uses all its points. LINE, RECTANGLE and ELLIPSE use two points, the
+ * start and end of the drag (the rectangle/ellipse fit the box they span).
+ * FILL uses one point, the seed of the flood fill, and has no width.
+ *
+ * Points are kept as a flat int array (x0, y0, x1, y1, ...) rather than a
+ * list of Point objects, so a long stroke costs 8 bytes per point and
+ * copies/encodes without boxing. A stroke grows while it is being drawn;
+ * treat it as read-only once finished.
+ */
+public class Stroke {
+    public static final int PATH = 0;
+    public static final int LINE = 1;
+    public static final int RECTANGLE = 2;
+    public static final int ELLIPSE = 3;
+    public static final int FILL = 4;
+
+    private final int kind;
+    private final int color; // 0xRRGGBB
+    private final int width;
+    private int[] coords;
+    private int pointCount;
+
+    public Stroke(int color, int width) {
+        this(PATH, color, width, new int[32], 0);
+    }
+
+    public Stroke(int kind, int color, int width) {
+        this(kind, color, width, new int[kind == PATH ? 32 : 4], 0);
+    }
+
+    /**
+     * @param coords x/y pairs; the array is used as is, not copied
+     */
+    public Stroke(int kind, int color, int width, int[] coords, int pointCount) {
+        if (kind < PATH || kind > FILL) {
+            throw new IllegalArgumentException("Unknown stroke kind " + kind);
+        }
+        this.kind = kind;
+        this.color = color & 0xFFFFFF;
+        this.width = width;
+        this.coords = coords;
+        this.pointCount = pointCount;
+    }
+
+    public void add(int x, int y) {
+        if (pointCount * 2 + 2 > coords.length) {
+            coords = Arrays.copyOf(coords, coords.length * 2);
+        }
+        coords[pointCount * 2] = x;
+        coords[pointCount * 2 + 1] = y;
+        pointCount++;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    public int getColor() {
+        return color;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public int getX(int index) {
+        return coords[index * 2];
+    }
+
+    public int getY(int index) {
+        return coords[index * 2 + 1];
+    }
+
+    /**
+     * Copy with the points Ramer-Douglas-Peucker simplifies away removed (paths only;
+     * other kinds are returned as they are)
+     * @param tolerance largest allowed distance (pixels) of a dropped point from the simplified line
+     */
+    public Stroke simplified(double tolerance) {
+        if (kind != PATH) {
+            return this;
+        }
+        boolean[] keep = StrokeSimplifier.simplify(coords, pointCount, tolerance);
+        int[] kept = new int[pointCount * 2];
+        int count = 0;
+        for (int i = 0; i < pointCount; i++) {
+            if (keep[i]) {
+                kept[count * 2] = coords[i * 2];
+                kept[count * 2 + 1] = coords[i * 2 + 1];
+                count++;
+            }
+        }
+        return new Stroke(PATH, color, width, Arrays.copyOf(kept, count * 2), count);
+    }
+}
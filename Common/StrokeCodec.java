@@ -0,0 +1,207 @@
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a drawing as strokes, for network transfer,
+ * archive storage and replay.
+ *
+ * Layout (all integers are unsigned LEB128 varints unless noted):
+ * <pre>
+ *   version (byte, 2) | width | height
+ *   paletteSize | paletteSize x RGB (3 bytes)
+ *   strokeCount
+ *   per stroke: kind | paletteIndex | width | pointCount
+ *               x0, y0 (zig-zag) then dx, dy from the previous point (zig-zag)
+ * </pre>
+ * Consecutive mouse samples are a few pixels apart, so most deltas fit in
+ * one byte; a drawing rarely uses more than a handful of colours, so each
+ * stroke names its colour with a one-byte palette index. Version 1 data
+ * (no kind; every stroke a PATH) still decodes.
+ */
+public final class StrokeCodec {
+    public static final int VERSION = 2;
+    // Limits checked while decoding untrusted input, before anything is allocated
+    public static final int MAX_STROKES = 10_000;
+    public static final int MAX_POINTS = 1_000_000;
+    public static final int MAX_STROKE_WIDTH = 1024; // The client's brush goes up to 20
+
+    /**
+     * A decoded drawing
+     */
+    public static class Drawing {
+        public final int width;
+        public final int height;
+        public final List<Stroke> strokes;
+
+        public Drawing(int width, int height, List<Stroke> strokes) {
+            this.width = width;
+            this.height = height;
+            this.strokes = strokes;
+        }
+    }
+
+    private StrokeCodec() {
+    }
+
+    public static byte[] encode(int width, int height, List<Stroke> strokes) {
+        Map<Integer, Integer> palette = new LinkedHashMap<>();
+        for (Stroke stroke : strokes) {
+            palette.putIfAbsent(stroke.getColor(), palette.size());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + strokes.size() * 16);
+        out.write(VERSION);
+        writeVarint(out, width);
+        writeVarint(out, height);
+        writeVarint(out, palette.size());
+        for (int color : palette.keySet()) {
+            out.write(color >> 16);
+            out.write(color >> 8);
+            out.write(color);
+        }
+        writeVarint(out, strokes.size());
+        for (Stroke stroke : strokes) {
+            writeVarint(out, stroke.getKind());
+            writeVarint(out, palette.get(stroke.getColor()));
+            writeVarint(out, stroke.getWidth());
+            int count = stroke.getPointCount();
+            writeVarint(out, count);
+            int x = 0, y = 0;
+            for (int i = 0; i < count; i++) {
+                writeVarint(out, zigzag(stroke.getX(i) - x));
+                writeVarint(out, zigzag(stroke.getY(i) - y));
+                x = stroke.getX(i);
+                y = stroke.getY(i);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data is malformed, truncated or over the limits
+     */
+    public static Drawing decode(byte[] data) {
+        Reader in = new Reader(data);
+        int version = in.readByte();
+        if (version != 1 && version != VERSION) {
+            throw new IllegalArgumentException("Unsupported stroke data version " + version);
+        }
+        int width = in.readVarint();
+        int height = in.readVarint();
+        int paletteSize = in.readCount(3);
+        int[] palette = new int[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            palette[i] = (in.readByte() << 16) | (in.readByte() << 8) | in.readByte();
+        }
+        int strokeCount = in.readCount(3);
+        if (strokeCount > MAX_STROKES) {
+            throw new IllegalArgumentException("Too many strokes: " + strokeCount);
+        }
+        List<Stroke> strokes = new ArrayList<>(strokeCount);
+        long totalPoints = 0;
+        for (int s = 0; s < strokeCount; s++) {
+            int kind = version == 1 ? Stroke.PATH : in.readVarint();
+            if (kind < Stroke.PATH || kind > Stroke.FILL) {
+                throw new IllegalArgumentException("Unknown stroke kind " + kind);
+            }
+            int colorIndex = in.readVarint();
+            if (colorIndex >= paletteSize) {
+                throw new IllegalArgumentException("Palette index out of range: " + colorIndex);
+            }
+            int strokeWidth = in.readVarint();
+            int count = in.readCount(2);
+            checkStroke(kind, strokeWidth, count);
+            totalPoints += count;
+            if (totalPoints > MAX_POINTS) {
+                throw new IllegalArgumentException("Too many points");
+            }
+            int[] coords = new int[count * 2];
+            int x = 0, y = 0;
+            for (int i = 0; i < count; i++) {
+                x += unzigzag(in.readVarint());
+                y += unzigzag(in.readVarint());
+                coords[i * 2] = x;
+                coords[i * 2 + 1] = y;
+            }
+            strokes.add(new Stroke(kind, palette[colorIndex], strokeWidth, coords, count));
+        }
+        return new Drawing(width, height, Collections.unmodifiableList(strokes));
+    }
+
+    /**
+     * Reject a stroke StrokeRenderer couldn't draw: a negative or huge width, a path without
+     * points, a shape without exactly its two corners or a fill without exactly its seed
+     * @throws IllegalArgumentException if the stroke is invalid
+     */
+    static void checkStroke(int kind, int width, int pointCount) {
+        if (width < 0 || width > MAX_STROKE_WIDTH) {
+            throw new IllegalArgumentException("Invalid stroke width " + width);
+        }
+        int required = kind == Stroke.PATH ? -1 : kind == Stroke.FILL ? 1 : 2;
+        if (required == -1 ? pointCount < 1 : pointCount != required) {
+            throw new IllegalArgumentException("Invalid point count " + pointCount + " for stroke kind " + kind);
+        }
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Bounds-checked cursor over the encoded bytes
+     */
+    static class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Truncated stroke data");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        /**
+         * Read an element count, rejecting counts the remaining bytes can't possibly hold
+         */
+        int readCount(int minBytesPerElement) {
+            int count = readVarint();
+            if (count < 0 || (long) count * minBytesPerElement > data.length - position) {
+                throw new IllegalArgumentException("Invalid count " + count);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renders strokes onto a TYPE_INT_RGB image. The canvas (live and when
+ * redrawing), the server's StrokeRasterizer, the load-test tools and
+ * anything replaying encoded drawings all go through here, so the same strokes always give the same pixels.
+ *
+ * Paths and shapes are drawn with Graphics2D. Fills are a scanline flood
+ * fill straight on the pixels (an image's int[], or any PixelSurface such
+ * as the canvas' tiled store): each step fills a whole
+ * horizontal run and queues one seed per run of matching pixels in the rows
+ * above and below, so the stack stays small and every pixel is read a
+ * bounded number of times.
+ */
+public final class StrokeRenderer {
+    private static final double ELLIPSE_FLATNESS = 0.25; // Max distance (px) of the polygon from the true ellipse
+
+    /**
+     * Pixels a flood fill can run over, in device pixels
+     */
+    public interface PixelSurface {
+        int getPixelWidth();
+
+        int getPixelHeight();
+
+        /**
+         * @return 0xRRGGBB
+         */
+        int getPixel(int x, int y);
+
+        /**
+         * Set pixels fromX..toX (inclusive) of row y
+         */
+        void fillRun(int y, int fromX, int toX, int rgb);
+    }
+
+    private StrokeRenderer() {
+    }
+
+    /**
+     * White image with every stroke drawn in order
+     */
+    public static BufferedImage render(int width, int height, List<Stroke> strokes) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        render(image, width, height, 1.0, strokes);
+        return image;
+    }
+
+    /**
+     * Draw the strokes, scaled, onto white in the top-left width x height pixels
+     * of a reused TYPE_INT_RGB image; the pixels outside that area are left as they were
+     * @param scale device pixels per drawing pixel
+     */
+    public static void render(BufferedImage image, int width, int height, double scale, List<Stroke> strokes) {
+        Graphics2D g2d = createGraphics(image);
+        g2d.setClip(0, 0, width, height);
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, width, height);
+        g2d.scale(scale, scale);
+        PixelSurface surface = null;
+        for (Stroke stroke : strokes) {
+            if (stroke.getKind() == Stroke.FILL) {
+                if (surface == null) {
+                    surface = new ImageSurface(image, width, height);
+                }
+                // Seed at the device pixel under the centre of the drawing pixel, as TiledRaster does
+                fill(surface, (int) Math.floor((stroke.getX(0) + 0.5) * scale),
+                        (int) Math.floor((stroke.getY(0) + 0.5) * scale), stroke.getColor());
+            } else {
+                draw(g2d, stroke);
+            }
+        }
+        g2d.dispose();
+    }
+
+    public static Graphics2D createGraphics(BufferedImage image) {
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        return g2d;
+    }
+
+    /**
+     * Draw a path or shape (not a fill)
+     */
+    public static void draw(Graphics2D g2d, Stroke stroke) {
+        if (stroke.getKind() == Stroke.PATH) {
+            drawSegments(g2d, stroke, 1);
+            return;
+        }
+        g2d.setColor(new Color(stroke.getColor()));
+        g2d.setStroke(new BasicStroke(stroke.getWidth(), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g2d.draw(outline(stroke));
+    }
+
+    /**
+     * Draw the segments of a path that end at points from..count-1, for drawing a path while it grows
+     */
+    public static void drawSegments(Graphics2D g2d, Stroke path, int from) {
+        g2d.setColor(new Color(path.getColor()));
+        g2d.setStroke(new BasicStroke(path.getWidth(), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        for (int i = Math.max(1, from); i < path.getPointCount(); i++) {
+            g2d.drawLine(path.getX(i - 1), path.getY(i - 1), path.getX(i), path.getY(i));
+        }
+    }
+
+    /**
+     * Geometry of a LINE, RECTANGLE or ELLIPSE, before the brush width is applied
+     */
+    public static Shape outline(Stroke stroke) {
+        int x1 = stroke.getX(0), y1 = stroke.getY(0);
+        int x2 = stroke.getX(1), y2 = stroke.getY(1);
+        switch (stroke.getKind()) {
+            case Stroke.LINE:
+                return new Line2D.Float(x1, y1, x2, y2);
+            case Stroke.RECTANGLE:
+                return new Rectangle(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+            case Stroke.ELLIPSE:
+                // Flattened here rather than by the rasterizer, which splits curves differently
+                // under a clip; straight segments give the same pixels in a clipped redraw
+                Ellipse2D ellipse = new Ellipse2D.Float(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+                Path2D.Float polygon = new Path2D.Float();
+                polygon.append(ellipse.getPathIterator(null, ELLIPSE_FLATNESS), false);
+                return polygon;
+            default:
+                throw new IllegalArgumentException("Not a shape: kind " + stroke.getKind());
+        }
+    }
+
+    /**
+     * Flood fill from the stroke's seed point with its colour
+     * @return the pixels changed, or null if the seed is outside the image or already that colour
+     */
+    public static Rectangle fill(BufferedImage image, Stroke fill) {
+        return fill(image, fill.getX(0), fill.getY(0), fill.getColor());
+    }
+
+    /**
+     * Scanline flood fill of the 4-connected region of pixels with the seed's exact colour
+     * @param image a TYPE_INT_RGB image
+     * @return the pixels changed, or null if nothing changed
+     */
+    public static Rectangle fill(BufferedImage image, int seedX, int seedY, int rgb) {
+        return fill(new ImageSurface(image), seedX, seedY, rgb);
+    }
+
+    /**
+     * Scanline flood fill of the 4-connected region of pixels with the seed's exact colour
+     * @return the pixels changed, or null if the seed is outside the surface or already that colour
+     */
+    public static Rectangle fill(PixelSurface surface, int seedX, int seedY, int rgb) {
+        int width = surface.getPixelWidth();
+        int height = surface.getPixelHeight();
+        if (seedX < 0 || seedY < 0 || seedX >= width || seedY >= height) {
+            return null;
+        }
+        rgb &= 0xFFFFFF;
+        int target = surface.getPixel(seedX, seedY);
+        if (target == rgb) {
+            return null;
+        }
+
+        int minX = seedX, maxX = seedX, minY = seedY, maxY = seedY;
+        int[] stack = new int[64]; // (x, y) seed pairs
+        int top = 0;
+        stack[top++] = seedX;
+        stack[top++] = seedY;
+        while (top > 0) {
+            int y = stack[--top];
+            int x = stack[--top];
+            if (surface.getPixel(x, y) != target) {
+                continue; // Filled through another seed since it was queued
+            }
+            int left = x;
+            while (left > 0 && surface.getPixel(left - 1, y) == target) {
+                left--;
+            }
+            int right = x;
+            while (right < width - 1 && surface.getPixel(right + 1, y) == target) {
+                right++;
+            }
+            surface.fillRun(y, left, right, rgb);
+            minX = Math.min(minX, left);
+            maxX = Math.max(maxX, right);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+
+            // One seed per run of target pixels directly above and below the span
+            for (int ny = y - 1; ny <= y + 1; ny += 2) {
+                if (ny < 0 || ny >= height) {
+                    continue;
+                }
+                boolean inRun = false;
+                for (int nx = left; nx <= right; nx++) {
+                    boolean matches = surface.getPixel(nx, ny) == target;
+                    if (matches && !inRun) {
+                        if (top + 2 > stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                        }
+                        stack[top++] = nx;
+                        stack[top++] = ny;
+                    }
+                    inRun = matches;
+                }
+            }
+        }
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * The int[] behind a TYPE_INT_RGB image, or its top-left corner
+     */
+    private static class ImageSurface implements PixelSurface {
+        private final int width;
+        private final int height;
+        private final int stride;
+        private final int[] pixels;
+
+        ImageSurface(BufferedImage image) {
+            this(image, image.getWidth(), image.getHeight());
+        }
+
+        ImageSurface(BufferedImage image, int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.stride = image.getWidth();
+            this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+
+        @Override
+        public int getPixelWidth() {
+            return width;
+        }
+
+        @Override
+        public int getPixelHeight() {
+            return height;
+        }
+
+        @Override
+        public int getPixel(int x, int y) {
+            return pixels[y * stride + x] & 0xFFFFFF;
+        }
+
+        @Override
+        public void fillRun(int y, int fromX, int toX, int rgb) {
+            Arrays.fill(pixels, y * stride + fromX, y * stride + toX + 1, rgb);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.Arrays;
+
+/**
+ * Ramer-Douglas-Peucker polyline simplification.
+ *
+ * Mouse samples along a straight or gently curving line are almost all
+ * redundant; RDP keeps only the points that deviate from the line between
+ * their kept neighbours by more than the tolerance. Iterative (explicit
+ * stack) so very long strokes can't overflow the call stack.
+ *
+ * System property: stroke.tolerance (default 1.0 pixel)
+ */
+public final class StrokeSimplifier {
+    public static final double DEFAULT_TOLERANCE = Double.parseDouble(System.getProperty("stroke.tolerance", "1.0"));
+
+    private StrokeSimplifier() {
+    }
+
+    /**
+     * @param coords     x/y pairs
+     * @param pointCount number of points in coords
+     * @return which points to keep; the first and last are always kept
+     */
+    public static boolean[] simplify(int[] coords, int pointCount, double tolerance) {
+        boolean[] keep = new boolean[pointCount];
+        if (pointCount <= 2) {
+            Arrays.fill(keep, true);
+            return keep;
+        }
+        keep[0] = true;
+        keep[pointCount - 1] = true;
+        double toleranceSq = tolerance * tolerance;
+
+        // Ranges still to examine, as (first, last) index pairs
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = pointCount - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int farthest = -1;
+            double farthestSq = toleranceSq;
+            for (int i = first + 1; i < last; i++) {
+                double d = distanceSq(coords, i, first, last);
+                if (d > farthestSq) {
+                    farthestSq = d;
+                    farthest = i;
+                }
+            }
+            if (farthest != -1) {
+                keep[farthest] = true;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+        return keep;
+    }
+
+    /**
+     * Squared distance of point i from the segment first-last
+     */
+    private static double distanceSq(int[] coords, int i, int first, int last) {
+        double x = coords[i * 2], y = coords[i * 2 + 1];
+        double x1 = coords[first * 2], y1 = coords[first * 2 + 1];
+        double x2 = coords[last * 2], y2 = coords[last * 2 + 1];
+        double dx = x2 - x1, dy = y2 - y1;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSq));
+        double px = x1 + t * dx - x, py = y1 + t * dy - y;
+        return px * px + py * py;
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A drawing as it happened: every stroke with the time it was started and
+ * how long it took, and every erase, undo and redo, in order. It is what
+ * spectators are sent live and what replays play back; TimelinePlayer
+ * renders it at any point in time.
+ *
+ * Strokes are numbered in the order they were added. HIDE takes strokes off
+ * the canvas (eraser, undo of a stroke, Clear) and SHOW puts them back (undo
+ * of an erase, redo). Times are milliseconds since the timeline started and
+ * never go backwards.
+ *
+ * Layout (unsigned LEB128 varints, as in StrokeCodec, unless noted):
+ * <pre>
+ *   version (byte, 1) | width | height | eventCount
+ *   per event: type | time
+ *     ADD:        duration | kind | RGB (3 bytes) | width | pointCount
+ *                 | x0, y0 (zig-zag) then dx, dy from the previous point (zig-zag)
+ *     HIDE, SHOW: idCount | ids
+ * </pre>
+ * A live stream is a series of such timelines, each holding the events
+ * since the previous one (see encode(int)); append() joins them up again.
+ */
+public final class StrokeTimeline {
+    public static final int VERSION = 1;
+    public static final int ADD = 0;
+    public static final int HIDE = 1;
+    public static final int SHOW = 2;
+
+    /**
+     * One step of the drawing
+     */
+    public static class Event {
+        public final int type;
+        public final int time; // Milliseconds since the timeline started
+        public final int duration; // ADD: milliseconds the stroke took to draw
+        public final Stroke stroke; // ADD only
+        public final int[] strokeIds; // HIDE and SHOW only
+
+        private Event(int type, int time, int duration, Stroke stroke, int[] strokeIds) {
+            this.type = type;
+            this.time = time;
+            this.duration = duration;
+            this.stroke = stroke;
+            this.strokeIds = strokeIds;
+        }
+
+        public static Event add(int time, int duration, Stroke stroke) {
+            return new Event(ADD, time, duration, stroke, null);
+        }
+
+        public static Event hide(int time, int[] strokeIds) {
+            return new Event(HIDE, time, 0, null, strokeIds);
+        }
+
+        public static Event show(int time, int[] strokeIds) {
+            return new Event(SHOW, time, 0, null, strokeIds);
+        }
+
+        /**
+         * Time the event is over: when an ADD's stroke is finished
+         */
+        public int end() {
+            return time + duration;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final List<Event> events = new ArrayList<>();
+    private final List<Stroke> strokes = new ArrayList<>(); // By id
+    private int lastTime;
+
+    public StrokeTimeline(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    public Event get(int index) {
+        return events.get(index);
+    }
+
+    public List<Event> getEvents() {
+        return Collections.unmodifiableList(events);
+    }
+
+    /**
+     * Stroke by id, i.e. the index-th ADD
+     */
+    public Stroke getStroke(int id) {
+        return strokes.get(id);
+    }
+
+    public int getStrokeCount() {
+        return strokes.size();
+    }
+
+    /**
+     * Time the last event is over
+     */
+    public int getDuration() {
+        return events.isEmpty() ? 0 : Math.max(lastTime, events.get(events.size() - 1).end());
+    }
+
+    /**
+     * Add the next event
+     * @throws IllegalArgumentException if it goes back in time, names a stroke that doesn't exist
+     *                                  or goes over StrokeCodec's limits
+     */
+    public void add(Event event) {
+        if (event.type != ADD) {
+            for (int id : event.strokeIds) {
+                if (id < 0 || id >= strokes.size()) {
+                    throw new IllegalArgumentException("No stroke " + id);
+                }
+            }
+        }
+        addUnchecked(event);
+    }
+
+    /**
+     * Add all events of a timeline that continues this one
+     */
+    public void append(StrokeTimeline next) {
+        for (Event event : next.events) {
+            add(event);
+        }
+    }
+
+    public byte[] encode() {
+        return encode(0);
+    }
+
+    /**
+     * Events from index from onwards, as a timeline of their own (for streaming)
+     */
+    public byte[] encode(int from) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + (events.size() - from) * 24);
+        out.write(VERSION);
+        StrokeCodec.writeVarint(out, width);
+        StrokeCodec.writeVarint(out, height);
+        StrokeCodec.writeVarint(out, events.size() - from);
+        for (Event event : events.subList(from, events.size())) {
+            StrokeCodec.writeVarint(out, event.type);
+            StrokeCodec.writeVarint(out, event.time);
+            if (event.type == ADD) {
+                Stroke stroke = event.stroke;
+                StrokeCodec.writeVarint(out, event.duration);
+                StrokeCodec.writeVarint(out, stroke.getKind());
+                out.write(stroke.getColor() >> 16);
+                out.write(stroke.getColor() >> 8);
+                out.write(stroke.getColor());
+                StrokeCodec.writeVarint(out, stroke.getWidth());
+                int count = stroke.getPointCount();
+                StrokeCodec.writeVarint(out, count);
+                int x = 0, y = 0;
+                for (int i = 0; i < count; i++) {
+                    StrokeCodec.writeVarint(out, StrokeCodec.zigzag(stroke.getX(i) - x));
+                    StrokeCodec.writeVarint(out, StrokeCodec.zigzag(stroke.getY(i) - y));
+                    x = stroke.getX(i);
+                    y = stroke.getY(i);
+                }
+            } else {
+                StrokeCodec.writeVarint(out, event.strokeIds.length);
+                for (int id : event.strokeIds) {
+                    StrokeCodec.writeVarint(out, id);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode a timeline, or a piece of a stream. Stroke ids aren't checked here (a piece
+     * names strokes from earlier pieces); add() and append() check them.
+     * @throws IllegalArgumentException if the data is malformed, truncated or over StrokeCodec's limits
+     */
+    public static StrokeTimeline decode(byte[] data) {
+        StrokeCodec.Reader in = new StrokeCodec.Reader(data);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported timeline version " + version);
+        }
+        StrokeTimeline timeline = new StrokeTimeline(in.readVarint(), in.readVarint());
+        int eventCount = in.readCount(2);
+        long totalPoints = 0;
+        for (int e = 0; e < eventCount; e++) {
+            int type = in.readVarint();
+            int time = in.readVarint();
+            if (type == ADD) {
+                int duration = in.readVarint();
+                int kind = in.readVarint();
+                if (kind < Stroke.PATH || kind > Stroke.FILL) {
+                    throw new IllegalArgumentException("Unknown stroke kind " + kind);
+                }
+                int color = (in.readByte() << 16) | (in.readByte() << 8) | in.readByte();
+                int strokeWidth = in.readVarint();
+                int count = in.readCount(2);
+                StrokeCodec.checkStroke(kind, strokeWidth, count);
+                totalPoints += count;
+                if (totalPoints > StrokeCodec.MAX_POINTS) {
+                    throw new IllegalArgumentException("Too many points");
+                }
+                int[] coords = new int[count * 2];
+                int x = 0, y = 0;
+                for (int i = 0; i < count; i++) {
+                    x += StrokeCodec.unzigzag(in.readVarint());
+                    y += StrokeCodec.unzigzag(in.readVarint());
+                    coords[i * 2] = x;
+                    coords[i * 2 + 1] = y;
+                }
+                timeline.addUnchecked(Event.add(time, duration, new Stroke(kind, color, strokeWidth, coords, count)));
+            } else if (type == HIDE || type == SHOW) {
+                int[] ids = new int[in.readCount(1)];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = in.readVarint();
+                }
+                timeline.addUnchecked(type == HIDE ? Event.hide(time, ids) : Event.show(time, ids));
+            } else {
+                throw new IllegalArgumentException("Unknown timeline event " + type);
+            }
+        }
+        return timeline;
+    }
+
+    private void addUnchecked(Event event) {
+        if (event.time < lastTime || event.duration < 0) {
+            throw new IllegalArgumentException("Event at " + event.time + " ms is before " + lastTime + " ms");
+        }
+        if (event.type == ADD) {
+            if (strokes.size() >= StrokeCodec.MAX_STROKES) {
+                throw new IllegalArgumentException("Too many strokes");
+            }
+            strokes.add(event.stroke);
+        }
+        events.add(event);
+        lastTime = event.time;
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.*;
+import java.net.Socket;
+import java.util.Random;
+
+/**
+ * Headless player that speaks the same protocol as ClientMain (FrameCodec frames):
+ * username handshake, DRAWING: submissions, GAMEEND: and NEWGAME (or MATCH).
+ *
+ * A bot plays games the way a person would: it "thinks" for a while after
+ * each prompt or wrong answer, submits a drawing, and after a win or the
+ * fifth round reports the game result and asks for a new game, or with
+ * match set to be matched into a room with other players.
+ */
+public class BotClient implements Runnable {
+    private static final int ROUNDS_PER_GAME = 5;
+
+    private final String host;
+    private final int port;
+    private final String username;
+    private final long meanThinkMillis;
+    private final SyntheticDrawings drawings;
+    private final LoadStats stats;
+    private final long stopAt;
+    private final boolean match;
+    private final Random random;
+
+    private Socket socket;
+    private FrameCodec connection;
+    private int currentRound;
+    private long submittedAt;
+
+    public BotClient(String host, int port, String username, long meanThinkMillis,
+                     SyntheticDrawings drawings, LoadStats stats, long stopAt, boolean match, long seed) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.meanThinkMillis = meanThinkMillis;
+        this.drawings = drawings;
+        this.stats = stats;
+        this.stopAt = stopAt;
+        this.match = match;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public void run() {
+        try {
+            socket = new Socket(host, port);
+            connection = new FrameCodec(socket.getInputStream(), socket.getOutputStream());
+            send(username);
+            stats.connected.incrementAndGet();
+
+            while (System.currentTimeMillis() < stopAt) {
+                handleMessage(connection.readMessage());
+            }
+        } catch (IOException e) {
+            if (connection == null) {
+                stats.connectFailures.incrementAndGet();
+            } else if (System.currentTimeMillis() < stopAt) {
+                stats.disconnects.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (connection != null) {
+                stats.connected.decrementAndGet();
+            }
+            stop();
+        }
+    }
+
+    /**
+     * Close the connection, which also unblocks the reading thread
+     */
+    public void stop() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void handleMessage(String message) throws IOException, InterruptedException {
+        if (message.equals("PING")) {
+            send("PONG");
+        } else if (message.startsWith("PROMPT:")) {
+            currentRound = 0;
+            submitAfterThinking();
+        } else if (message.startsWith("RESULT:")) {
+            stats.recordLatency((System.nanoTime() - submittedAt) / 1000);
+            stats.results.incrementAndGet();
+            if (message.contains("Error occurred") || message.contains("API error")
+                    || message.contains("rate limit")) {
+                stats.errorResults.incrementAndGet();
+            }
+
+            boolean won = message.endsWith("|WON:true");
+            if (won || currentRound >= ROUNDS_PER_GAME - 1) {
+                send("GAMEEND:" + (won ? "1" : "0"));
+                stats.gamesFinished.incrementAndGet();
+                thinkFor(meanThinkMillis / 4);
+                send(match ? "MATCH" : "NEWGAME");
+            } else {
+                currentRound++;
+                submitAfterThinking();
+            }
+        }
+        // STATS, PONG, MATCHED, ROOM and anything else are ignored; a matched game starts with its PROMPT
+    }
+
+    private void submitAfterThinking() throws IOException, InterruptedException {
+        // Exponentially distributed think time around the configured mean
+        thinkFor((long) (-Math.log(1 - random.nextDouble()) * meanThinkMillis));
+        submittedAt = System.nanoTime();
+        send("DRAWING:" + drawings.pick(random));
+        stats.submissions.incrementAndGet();
+    }
+
+    private void thinkFor(long millis) throws InterruptedException {
+        long remaining = stopAt - System.currentTimeMillis();
+        if (millis > 0) {
+            Thread.sleep(Math.min(millis, Math.max(0, remaining)));
+        }
+    }
+
+    private void send(String message) throws IOException {
+        connection.writeMessage(message);
+        connection.flush();
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Load test driver: runs many BotClients against a game server and reports
+ * throughput, submit-to-RESULT latency percentiles and the server's resource
+ * usage (scraped from its /metrics endpoint before and after the run).
+ *
+ * Usage:
+ *   java LoadGenerator [--host localhost] [--port 8888] [--bots 100] [--duration 60]
+ *                      [--think-ms 2000] [--ramp-ms 10] [--strokes 20] [--metrics-url URL]
+ *                      [--match 0]
+ *
+ * --match is the share of bots (0 to 1) that ask to be matched into a room
+ * for each new game instead of playing alone.
+ *
+ * Pair it with StubJudgeServer so the test doesn't hit the real Gemini API.
+ */
+public class LoadGenerator {
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", "8888"));
+        int bots = Integer.parseInt(options.getOrDefault("bots", "100"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration", "60"));
+        long thinkMillis = Long.parseLong(options.getOrDefault("think-ms", "2000"));
+        long rampMillis = Long.parseLong(options.getOrDefault("ramp-ms", "10"));
+        int strokes = Integer.parseInt(options.getOrDefault("strokes", "20"));
+        String metricsUrl = options.getOrDefault("metrics-url", "http://" + host + ":9100/metrics");
+        double matchShare = Double.parseDouble(options.getOrDefault("match", "0"));
+
+        System.out.println("Generating synthetic drawings...");
+        SyntheticDrawings drawings = new SyntheticDrawings(32, strokes, 42);
+        LoadStats stats = new LoadStats();
+
+        Map<String, Double> serverBefore = scrapeMetrics(metricsUrl);
+        long startNanos = System.nanoTime();
+        long stopAt = System.currentTimeMillis() + durationSeconds * 1000L + bots * rampMillis;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < bots; i++) {
+            boolean match = i < Math.round(bots * matchShare);
+            BotClient bot = new BotClient(host, port, "bot-" + i, thinkMillis, drawings, stats, stopAt, match, i);
+            // Small stacks so thousands of bots fit in one JVM
+            Thread thread = new Thread(null, bot, "bot-" + i, 256 * 1024);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+            if (rampMillis > 0) {
+                Thread.sleep(rampMillis);
+            }
+        }
+
+        while (System.currentTimeMillis() < stopAt) {
+            Thread.sleep(5000);
+            System.out.printf("connected=%d submissions=%d results=%d errors=%d%n",
+                    stats.connected.get(), stats.submissions.get(), stats.results.get(), stats.errorResults.get());
+        }
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        Map<String, Double> serverAfter = scrapeMetrics(metricsUrl);
+
+        long[] latencies = stats.sortedLatencies();
+        System.out.println();
+        System.out.println("=== Load test results ===");
+        System.out.printf("bots=%d duration=%.1fs think=%dms%n", bots, elapsedSeconds, thinkMillis);
+        System.out.printf("connect failures=%d, unexpected disconnects=%d%n",
+                stats.connectFailures.get(), stats.disconnects.get());
+        System.out.printf("submissions=%d results=%d error results=%d games=%d%n",
+                stats.submissions.get(), stats.results.get(), stats.errorResults.get(), stats.gamesFinished.get());
+        System.out.printf("throughput=%.1f results/s%n", stats.results.get() / elapsedSeconds);
+        System.out.printf("latency ms: p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f%n",
+                LoadStats.percentile(latencies, 50) / 1000.0,
+                LoadStats.percentile(latencies, 90) / 1000.0,
+                LoadStats.percentile(latencies, 99) / 1000.0,
+                LoadStats.percentile(latencies, 99.9) / 1000.0,
+                LoadStats.percentile(latencies, 100) / 1000.0);
+
+        if (serverBefore.isEmpty() || serverAfter.isEmpty()) {
+            System.out.println("server metrics unavailable at " + metricsUrl);
+        } else {
+            double cpuSeconds = serverAfter.getOrDefault("process_cpu_seconds_total", 0.0)
+                    - serverBefore.getOrDefault("process_cpu_seconds_total", 0.0);
+            System.out.printf("server: cpu=%.1f%% of one core, heap=%.1f MB, threads=%.0f%n",
+                    100 * cpuSeconds / elapsedSeconds,
+                    serverAfter.getOrDefault("process_heap_used_bytes", 0.0) / (1024 * 1024),
+                    serverAfter.getOrDefault("process_threads", 0.0));
+            if (matchShare > 0) {
+                // Cumulative since the server started, not just this run
+                String wait = "pictionary_matchmaking_wait_seconds";
+                System.out.printf("matchmaking: rooms=%.0f widened=%.0f timeouts=%.0f, wait s: p50=%.2f p90=%.2f p99=%.2f%n",
+                        serverAfter.getOrDefault("pictionary_matchmaking_rooms_total", 0.0),
+                        serverAfter.getOrDefault("pictionary_matchmaking_widened_total", 0.0),
+                        serverAfter.getOrDefault("pictionary_matchmaking_timeouts_total", 0.0),
+                        serverAfter.getOrDefault(wait + "{quantile=\"0.5\"}", 0.0),
+                        serverAfter.getOrDefault(wait + "{quantile=\"0.9\"}", 0.0),
+                        serverAfter.getOrDefault(wait + "{quantile=\"0.99\"}", 0.0));
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Read the unlabelled samples, and the quantiles of summaries, from a Prometheus text endpoint
+     */
+    private static Map<String, Double> scrapeMetrics(String url) {
+        Map<String, Double> values = new HashMap<>();
+        try {
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+            HttpResponse<InputStream> response = client.send(
+                    HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(5)).build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            String body = new String(response.body().readAllBytes());
+            for (String line : body.split("\n")) {
+                if (line.startsWith("#") || (line.contains("{") && !line.startsWith("pictionary_matchmaking_wait_seconds{"))) {
+                    continue;
+                }
+                int space = line.lastIndexOf(' ');
+                if (space > 0) {
+                    values.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1)));
+                }
+            }
+        } catch (Exception e) {
+            // Metrics are optional; the report just leaves them out
+        }
+        return values;
+    }
+
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}
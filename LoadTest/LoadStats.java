@@ -0,0 +1,45 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency samples shared by all bots of a load test run
+ */
+public class LoadStats {
+    public final AtomicLong connected = new AtomicLong();
+    public final AtomicLong connectFailures = new AtomicLong();
+    public final AtomicLong disconnects = new AtomicLong();
+    public final AtomicLong submissions = new AtomicLong();
+    public final AtomicLong results = new AtomicLong();
+    public final AtomicLong errorResults = new AtomicLong();
+    public final AtomicLong gamesFinished = new AtomicLong();
+
+    private long[] latencies = new long[1 << 16];
+    private int latencyCount;
+
+    /**
+     * Record submit-to-RESULT latency in microseconds
+     */
+    public synchronized void recordLatency(long micros) {
+        if (latencyCount == latencies.length) {
+            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+        }
+        latencies[latencyCount++] = micros;
+    }
+
+    /**
+     * Sorted copy of the latency samples recorded so far
+     */
+    public synchronized long[] sortedLatencies() {
+        long[] copy = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    public static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
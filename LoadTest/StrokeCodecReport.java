@@ -0,0 +1,98 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reports how much StrokeSimplifier and StrokeCodec save on a corpus of
+ * drawings, compared with raw int coordinates and with the Base64 PNG the
+ * client sends today. It also reports how many pixels simplification
+ * changes when the strokes are rendered.
+ *
+ * Usage:
+ *   java StrokeCodecReport [--drawings 50] [--strokes 20] [--tolerance 1.0] [--seed 7]
+ */
+public class StrokeCodecReport {
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = LoadGenerator.parseArgs(args);
+        int drawings = Integer.parseInt(options.getOrDefault("drawings", "50"));
+        int strokes = Integer.parseInt(options.getOrDefault("strokes", "20"));
+        double tolerance = Double.parseDouble(options.getOrDefault("tolerance", String.valueOf(StrokeSimplifier.DEFAULT_TOLERANCE)));
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "7")));
+        int width = 800, height = 600;
+
+        long rawPoints = 0, keptPoints = 0;
+        long rawBytes = 0, encodedRawBytes = 0, encodedBytes = 0, gzippedBytes = 0, pngBase64Bytes = 0;
+        long changedPixels = 0, totalPixels = 0;
+        for (int d = 0; d < drawings; d++) {
+            List<Stroke> raw = SyntheticDrawings.mouseStrokes(width, height, strokes, random);
+            List<Stroke> simplified = new ArrayList<>();
+            for (Stroke stroke : raw) {
+                rawPoints += stroke.getPointCount();
+                Stroke kept = stroke.simplified(tolerance);
+                keptPoints += kept.getPointCount();
+                simplified.add(kept);
+            }
+            rawBytes += (long) 8 * countPoints(raw);
+            encodedRawBytes += StrokeCodec.encode(width, height, raw).length;
+            byte[] encoded = StrokeCodec.encode(width, height, simplified);
+            encodedBytes += encoded.length;
+            gzippedBytes += gzip(encoded).length;
+
+            // Round trip must be lossless
+            StrokeCodec.Drawing decoded = StrokeCodec.decode(encoded);
+            if (countPoints(decoded.strokes) != countPoints(simplified)) {
+                throw new IllegalStateException("Round trip changed the drawing");
+            }
+
+            BufferedImage rawImage = SyntheticDrawings.render(width, height, raw);
+            BufferedImage simplifiedImage = SyntheticDrawings.render(width, height, decoded.strokes);
+            pngBase64Bytes += SyntheticDrawings.toBase64(rawImage).length();
+            changedPixels += countDifferentPixels(rawImage, simplifiedImage);
+            totalPixels += (long) width * height;
+        }
+
+        System.out.printf("%d drawings x %d strokes, tolerance %.2f px%n", drawings, strokes, tolerance);
+        System.out.printf("points:            %,d raw -> %,d kept (%.1f%%)%n", rawPoints, keptPoints, 100.0 * keptPoints / rawPoints);
+        System.out.printf("raw int[] x/y:     %,10d bytes  (%.2f B/raw point)%n", rawBytes, (double) rawBytes / rawPoints);
+        System.out.printf("codec, raw points: %,10d bytes  (%.1fx smaller)%n", encodedRawBytes, (double) rawBytes / encodedRawBytes);
+        System.out.printf("codec, simplified: %,10d bytes  (%.1fx smaller, %.2f B/kept point)%n",
+                encodedBytes, (double) rawBytes / encodedBytes, (double) encodedBytes / keptPoints);
+        System.out.printf("  + gzip:          %,10d bytes  (%.1fx smaller)%n", gzippedBytes, (double) rawBytes / gzippedBytes);
+        System.out.printf("PNG + Base64:      %,10d bytes  (%.0fx the simplified encoding)%n",
+                pngBase64Bytes, (double) pngBase64Bytes / encodedBytes);
+        System.out.printf("pixels changed by simplification: %.3f%%%n", 100.0 * changedPixels / totalPixels);
+    }
+
+    private static long countPoints(List<Stroke> strokes) {
+        long points = 0;
+        for (Stroke stroke : strokes) {
+            points += stroke.getPointCount();
+        }
+        return points;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long countDifferentPixels(BufferedImage a, BufferedImage b) {
+        long different = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) {
+                    different++;
+                }
+            }
+        }
+        return different;
+    }
+}
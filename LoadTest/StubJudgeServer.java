@@ -0,0 +1,176 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the Gemini generateContent endpoint, for load tests.
+ *
+ * Answers with a Gemini-shaped response after a log-normally distributed
+ * delay, and fails a configurable share of requests with 429 or 500.
+ * Responses are delayed on a scheduler rather than a sleeping thread, so
+ * thousands of requests can be pending at once. With --keystore it serves
+ * HTTPS (HTTP/1.1 only; the JDK server has no HTTP/2), for checking the
+ * judge client's TLS connection reuse; the periodic status line counts
+ * the connections (client addresses) it has seen. --confidence adds a
+ * confidence to each answer (a fixed value, or random), for trying
+ * CascadeJudge with one stub per stage.
+ *
+ * Usage:
+ *   java StubJudgeServer [--port 8089] [--latency-ms 800] [--sigma 0.5]
+ *                        [--error-rate 0.0] [--rate-limit-rate 0.0]
+ *                        [--object random|<name>] [--confidence none|random|<0..1>]
+ *                        [--keystore stub.p12 --keystore-password changeit]
+ *
+ * Then start the server with
+ *   -Dgemini.url=http://127.0.0.1:8089/v1beta/models/gemini-2.5-flash:generateContent
+ * (https://localhost:8089/... and -Djavax.net.ssl.trustStore=stub.p12 with --keystore)
+ */
+public class StubJudgeServer {
+    private static final String[] ANSWERS = {"cat", "dog", "house", "tree", "car", "sun", "fish", "unknown"};
+
+    private final double medianLatencyMillis;
+    private final double sigma;
+    private final double errorRate;
+    private final double rateLimitRate;
+    private final String fixedObject;
+    private final String confidence; // null, "random" or a number
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+    private final AtomicLong requests = new AtomicLong();
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+
+    public StubJudgeServer(double medianLatencyMillis, double sigma, double errorRate,
+                           double rateLimitRate, String fixedObject, String confidence) {
+        this.medianLatencyMillis = medianLatencyMillis;
+        this.sigma = sigma;
+        this.errorRate = errorRate;
+        this.rateLimitRate = rateLimitRate;
+        this.fixedObject = fixedObject;
+        this.confidence = confidence;
+    }
+
+    public void start(int port) throws IOException {
+        start(port, null);
+    }
+
+    /**
+     * @param tls serve HTTPS with this context, or null for plain HTTP
+     */
+    public void start(int port, SSLContext tls) throws IOException {
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        HttpServer server;
+        if (tls != null) {
+            HttpsServer https = HttpsServer.create(address, 1024);
+            https.setHttpsConfigurator(new HttpsConfigurator(tls));
+            server = https;
+        } else {
+            server = HttpServer.create(address, 1024);
+        }
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        System.out.println("Stub judge listening on " + (tls != null ? "https" : "http") + "://127.0.0.1:" + port
+                + " (median " + medianLatencyMillis + " ms, sigma " + sigma
+                + ", errors " + errorRate + ", 429s " + rateLimitRate + ")");
+        scheduler.scheduleAtFixedRate(() -> System.out.println("requests=" + requests.get() + " connections=" + connections.size()),
+                10, 10, TimeUnit.SECONDS);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        // Drain the request body like a real server would
+        try (InputStream body = exchange.getRequestBody()) {
+            body.transferTo(OutputStream.nullOutputStream());
+        }
+        requests.incrementAndGet();
+        connections.add(exchange.getRemoteAddress());
+
+        Random random = ThreadLocalRandom.current();
+        long delay = (long) (medianLatencyMillis * Math.exp(sigma * random.nextGaussian()));
+        double roll = random.nextDouble();
+        int status;
+        String response;
+        if (roll < rateLimitRate) {
+            status = 429;
+            response = "{\"error\":{\"code\":429,\"message\":\"Resource has been exhausted\",\"status\":\"RESOURCE_EXHAUSTED\"}}";
+        } else if (roll < rateLimitRate + errorRate) {
+            status = 500;
+            response = "{\"error\":{\"code\":500,\"message\":\"Internal error\",\"status\":\"INTERNAL\"}}";
+        } else {
+            status = 200;
+            String object = fixedObject != null ? fixedObject : ANSWERS[random.nextInt(ANSWERS.length)];
+            String text = "{\\\"object\\\": \\\"" + object + "\\\", \\\"comment\\\": \\\"A stub judge says this looks like a "
+                    + object + ".\\\"" + (confidence == null ? ""
+                    : ", \\\"confidence\\\": " + ("random".equals(confidence) ? String.format(Locale.ROOT, "%.2f", random.nextDouble()) : confidence))
+                    + "}";
+            response = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}],\"role\":\"model\"},"
+                    + "\"finishReason\":\"STOP\"}]}";
+        }
+
+        scheduler.schedule(() -> {
+            try {
+                byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(status, bytes.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(bytes);
+                }
+            } catch (IOException e) {
+                exchange.close();
+            }
+        }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Server TLS context from a PKCS12 key store, e.g. one made with
+     * keytool -genkeypair -keyalg RSA -alias stub -dname CN=localhost -ext SAN=dns:localhost,ip:127.0.0.1
+     *         -keystore stub.p12 -storetype PKCS12 -storepass changeit
+     */
+    static SSLContext serverTls(String keyStorePath, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keyStorePath)) {
+            keyStore.load(in, password);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    public static void main(String[] args) throws IOException, GeneralSecurityException {
+        Map<String, String> options = LoadGenerator.parseArgs(args);
+        String object = options.getOrDefault("object", "random");
+        String keyStore = options.get("keystore");
+        SSLContext tls = keyStore == null ? null
+                : serverTls(keyStore, options.getOrDefault("keystore-password", "changeit").toCharArray());
+        new StubJudgeServer(
+                Double.parseDouble(options.getOrDefault("latency-ms", "800")),
+                Double.parseDouble(options.getOrDefault("sigma", "0.5")),
+                Double.parseDouble(options.getOrDefault("error-rate", "0.0")),
+                Double.parseDouble(options.getOrDefault("rate-limit-rate", "0.0")),
+                "random".equals(object) ? null : object,
+                "none".equals(options.getOrDefault("confidence", "none")) ? null : options.get("confidence"))
+                .start(Integer.parseInt(options.getOrDefault("port", "8089")), tls);
+    }
+}
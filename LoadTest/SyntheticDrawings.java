@@ -0,0 +1,116 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates random scribbles encoded the same way as DrawingCanvas.getImageAsBase64()
+ * (800x600 TYPE_INT_RGB PNG, Base64). A pool is generated up front so drawing
+ * generation doesn't eat the CPU the load test is trying to measure.
+ */
+public class SyntheticDrawings {
+    private final String[] pool;
+
+    /**
+     * @param poolSize number of distinct drawings to generate
+     * @param strokes  strokes per drawing (drawing complexity)
+     * @param seed     random seed so runs are repeatable
+     */
+    public SyntheticDrawings(int poolSize, int strokes, long seed) {
+        Random random = new Random(seed);
+        pool = new String[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            pool[i] = toBase64(render(800, 600, strokes, 20, random));
+        }
+    }
+
+    public String pick(Random random) {
+        return pool[random.nextInt(pool.length)];
+    }
+
+    /**
+     * Draw random polyline strokes with the colours and brush sizes the client offers
+     */
+    public static BufferedImage render(int width, int height, int strokes, int pointsPerStroke, Random random) {
+        Color[] colors = {Color.BLACK, Color.RED, Color.BLUE};
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, width, height);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        for (int s = 0; s < strokes; s++) {
+            g2d.setColor(colors[random.nextInt(colors.length)]);
+            g2d.setStroke(new BasicStroke(1 + random.nextInt(20), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            for (int p = 0; p < pointsPerStroke; p++) {
+                int nx = Math.max(0, Math.min(width - 1, x + random.nextInt(61) - 30));
+                int ny = Math.max(0, Math.min(height - 1, y + random.nextInt(61) - 30));
+                g2d.drawLine(x, y, nx, ny);
+                x = nx;
+                y = ny;
+            }
+        }
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * Stroke data shaped like real mouse input: each stroke is a few straight
+     * or curved pieces sampled every 1-3 px, as a fast-polling mouse reports
+     * them, with the colours and brush sizes the client offers. Used as the
+     * corpus for StrokeCodecReport.
+     */
+    public static List<Stroke> mouseStrokes(int width, int height, int strokes, Random random) {
+        int[] colors = {0x000000, 0xFF0000, 0x0000FF};
+        List<Stroke> result = new ArrayList<>(strokes);
+        for (int s = 0; s < strokes; s++) {
+            Stroke stroke = new Stroke(colors[random.nextInt(colors.length)], 1 + random.nextInt(20));
+            double x = 50 + random.nextInt(width - 100);
+            double y = 50 + random.nextInt(height - 100);
+            double heading = random.nextDouble() * 2 * Math.PI;
+            stroke.add((int) x, (int) y);
+            int pieces = 1 + random.nextInt(4);
+            for (int piece = 0; piece < pieces; piece++) {
+                double length = 20 + random.nextInt(200);
+                // Straight half of the time, otherwise a steady turn
+                double turnPerPx = random.nextBoolean() ? 0 : (random.nextDouble() - 0.5) * 0.05;
+                for (double travelled = 0; travelled < length; ) {
+                    double step = 1 + random.nextDouble() * 2;
+                    travelled += step;
+                    heading += turnPerPx * step;
+                    x = Math.max(0, Math.min(width - 1, x + Math.cos(heading) * step));
+                    y = Math.max(0, Math.min(height - 1, y + Math.sin(heading) * step));
+                    int ix = (int) Math.round(x), iy = (int) Math.round(y);
+                    int last = stroke.getPointCount() - 1;
+                    if (ix != stroke.getX(last) || iy != stroke.getY(last)) {
+                        stroke.add(ix, iy);
+                    }
+                }
+                heading += (random.nextDouble() - 0.5) * Math.PI; // Corner between pieces
+            }
+            result.add(stroke);
+        }
+        return result;
+    }
+
+    /**
+     * Render strokes the way DrawingCanvas does
+     */
+    public static BufferedImage render(int width, int height, List<Stroke> strokes) {
+        return StrokeRenderer.render(width, height, strokes);
+    }
+
+    public static String toBase64(BufferedImage image) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            javax.imageio.ImageIO.write(image, "PNG", baos);
+            return Base64.getEncoder().encodeToString(baos.toByteArray());
+        } catch (Exception e) {
+            throw new IllegalStateException("PNG encoding failed", e);
+        }
+    }
+}
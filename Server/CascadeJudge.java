@@ -0,0 +1,157 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Judge that asks cheap judges first and escalates only the drawings they
+ * are unsure about.
+ *
+ * Each stage's verdict carries a "confidence" between 0 and 1 (GeminiAPI
+ * asks the model for one; LocalJudge is certain only about an empty
+ * canvas). The first verdict whose confidence reaches the threshold is the
+ * answer. A missing or unreadable confidence counts as 0, and an "unknown"
+ * object from a stage that cannot be trusted with it (a cheap model that
+ * may simply not recognise the drawing) is escalated too. A stage that
+ * fails passes the drawing on; if the last stage fails the call throws, so
+ * JudgeService's breaker and degraded mode see the outage.
+ *
+ * Calls, accepted and escalated verdicts, errors, latency and an estimated
+ * cost are counted per stage in ServerMetrics.
+ *
+ * System properties: judge.cascade.threshold (default 0.8),
+ * judge.cascade.local (ask LocalJudge first, default true),
+ * judge.cascade.cheapCostMicros (70) and judge.cascade.strongCostMicros
+ * (400): estimated cost of one call in millionths of a dollar.
+ */
+public class CascadeJudge implements Judge {
+    /**
+     * One judge in the cascade
+     */
+    public static class Stage {
+        final String name;
+        final Judge judge;
+        final long costMicroDollars;
+        final boolean trustsUnknown; // A confident "unknown" from this stage is an answer
+        final ServerMetrics.StageMetrics metrics;
+
+        public Stage(String name, Judge judge, long costMicroDollars, boolean trustsUnknown) {
+            this.name = name;
+            this.judge = judge;
+            this.costMicroDollars = costMicroDollars;
+            this.trustsUnknown = trustsUnknown;
+            this.metrics = ServerMetrics.get().cascadeStage(name);
+        }
+    }
+
+    private final List<Stage> stages;
+    private final double threshold;
+
+    /**
+     * Cascade of [LocalJudge,] cheap, strong, configured from the judge.cascade.* system properties
+     */
+    public CascadeJudge(Judge cheap, Judge strong) {
+        this(defaultStages(cheap, strong), Double.parseDouble(System.getProperty("judge.cascade.threshold", "0.8")));
+    }
+
+    public CascadeJudge(List<Stage> stages, double threshold) {
+        if (stages.isEmpty()) {
+            throw new IllegalArgumentException("A cascade needs at least one stage");
+        }
+        this.stages = List.copyOf(stages);
+        this.threshold = threshold;
+        Log.info("cascade_judge_started", "stages", stages.size(), "threshold", threshold);
+    }
+
+    private static List<Stage> defaultStages(Judge cheap, Judge strong) {
+        List<Stage> stages = new ArrayList<>();
+        if (Boolean.parseBoolean(System.getProperty("judge.cascade.local", "true"))) {
+            stages.add(new Stage("local", new LocalJudge(), 0, true));
+        }
+        stages.add(new Stage("cheap", cheap, Long.getLong("judge.cascade.cheapCostMicros", 70), false));
+        stages.add(new Stage("strong", strong, Long.getLong("judge.cascade.strongCostMicros", 400), true));
+        return stages;
+    }
+
+    @Override
+    public String analyzeDrawing(String imageBase64, String prompt) throws Exception {
+        int last = stages.size() - 1;
+        for (int i = 0; i < last; i++) {
+            Stage stage = stages.get(i);
+            try {
+                String verdict = call(stage, imageBase64, prompt);
+                if (accepts(stage, verdict)) {
+                    stage.metrics.accepted.increment();
+                    return verdict;
+                }
+                Log.debug("cascade_escalated", "stage", stage.name, "confidence", confidence(verdict));
+            } catch (Exception e) {
+                Log.warn("cascade_stage_failed", "stage", stage.name, "error", e.toString());
+            }
+            stage.metrics.escalated.increment();
+        }
+        Stage strongest = stages.get(last);
+        String verdict = call(strongest, imageBase64, prompt);
+        strongest.metrics.accepted.increment();
+        return verdict;
+    }
+
+    /**
+     * Ask one stage, counting the call, its latency and its cost (failed calls cost nothing)
+     */
+    private static String call(Stage stage, String imageBase64, String prompt) throws Exception {
+        stage.metrics.calls.increment();
+        long start = System.nanoTime();
+        try {
+            String verdict = stage.judge.analyzeDrawing(imageBase64, prompt);
+            stage.metrics.costMicroDollars.add(stage.costMicroDollars);
+            return verdict;
+        } catch (Exception e) {
+            stage.metrics.errors.increment();
+            throw e;
+        } finally {
+            stage.metrics.latencyMicros.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    private boolean accepts(Stage stage, String verdict) {
+        return confidence(verdict) >= threshold && (stage.trustsUnknown || !"unknown".equals(object(verdict)));
+    }
+
+    /**
+     * The verdict's "confidence" number, 0 if it has none
+     */
+    static double confidence(String verdict) {
+        int key = verdict.indexOf("\"confidence\"");
+        if (key == -1) {
+            return 0;
+        }
+        int start = verdict.indexOf(':', key + 12) + 1;
+        if (start == 0) {
+            return 0;
+        }
+        while (start < verdict.length() && (verdict.charAt(start) == ' ' || verdict.charAt(start) == '"')) {
+            start++;
+        }
+        int end = start;
+        while (end < verdict.length() && "0123456789.eE+-".indexOf(verdict.charAt(end)) != -1) {
+            end++;
+        }
+        try {
+            double value = Double.parseDouble(verdict.substring(start, end));
+            return Double.isNaN(value) ? 0 : Math.max(0, Math.min(1, value));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String object(String verdict) {
+        int objectIdx = verdict.indexOf("\"object\"");
+        if (objectIdx != -1) {
+            int objectValStart = verdict.indexOf("\"", objectIdx + 8) + 1;
+            int objectValEnd = verdict.indexOf("\"", objectValStart);
+            if (objectValEnd != -1) {
+                return verdict.substring(objectValStart, objectValEnd).toLowerCase().trim();
+            }
+        }
+        return "unknown";
+    }
+}
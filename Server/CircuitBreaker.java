@@ -0,0 +1,189 @@
+/**
+ * Circuit breaker for calls to a remote dependency (the judge API).
+ *
+ * CLOSED: calls go through and their outcomes fill a window of the last
+ * windowSize calls. Once the window holds at least minCalls outcomes and
+ * either the share of failures or the share of slow calls (slower than
+ * slowCallMillis, even if they succeeded) reaches its threshold, the
+ * breaker opens.
+ *
+ * OPEN: allowRequest() says no, so callers fail fast instead of waiting
+ * for a connect or request timeout. After openMillis the next caller moves
+ * the breaker to HALF_OPEN.
+ *
+ * HALF_OPEN: up to halfOpenTrials trial calls are let through. If they all
+ * succeed (and are not slow) the breaker closes with an empty window; the
+ * first failure opens it again.
+ *
+ * Every caller that was allowed through must report exactly one outcome
+ * with onSuccess() or onFailure(). Transitions are logged and counted in
+ * ServerMetrics. Thread-safe.
+ *
+ * System properties (defaults in brackets): judge.breaker.window [20],
+ * judge.breaker.minCalls [10], judge.breaker.failurePercent [50],
+ * judge.breaker.slowMs [10000], judge.breaker.slowPercent [80],
+ * judge.breaker.openMs [30000], judge.breaker.halfOpenTrials [3]
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int minCalls;
+    private final int failurePercent;
+    private final long slowCallMicros;
+    private final int slowPercent;
+    private final long openNanos;
+    private final int halfOpenTrials;
+    private final ServerMetrics metrics = ServerMetrics.get();
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private final byte[] window; // Outcome flags of the last calls, as a ring
+    private int windowCount;
+    private int windowNext;
+    private int failures; // Failed calls in the window
+    private int slowCalls; // Slow calls in the window
+    private long openedAt;
+    private int trialsStarted;
+    private int trialsSucceeded;
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    /**
+     * Breaker configured from the judge.breaker.* system properties
+     */
+    public CircuitBreaker(String name) {
+        this(name, Integer.getInteger("judge.breaker.window", 20), Integer.getInteger("judge.breaker.minCalls", 10),
+                Integer.getInteger("judge.breaker.failurePercent", 50), Long.getLong("judge.breaker.slowMs", 10_000),
+                Integer.getInteger("judge.breaker.slowPercent", 80), Long.getLong("judge.breaker.openMs", 30_000),
+                Integer.getInteger("judge.breaker.halfOpenTrials", 3));
+    }
+
+    public CircuitBreaker(String name, int windowSize, int minCalls, int failurePercent, long slowCallMillis,
+                          int slowPercent, long openMillis, int halfOpenTrials) {
+        if (windowSize < 1 || minCalls < 1 || minCalls > windowSize || halfOpenTrials < 1) {
+            throw new IllegalArgumentException("Invalid circuit breaker settings");
+        }
+        this.name = name;
+        this.window = new byte[windowSize];
+        this.minCalls = minCalls;
+        this.failurePercent = failurePercent;
+        this.slowCallMicros = slowCallMillis * 1000;
+        this.slowPercent = slowPercent;
+        this.openNanos = openMillis * 1_000_000;
+        this.halfOpenTrials = halfOpenTrials;
+        metrics.judgeBreakerState.set(State.CLOSED.ordinal());
+    }
+
+    /**
+     * @return true if the call may go ahead; the caller must then report its outcome
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+            transition(State.HALF_OPEN);
+            trialsStarted = 0;
+            trialsSucceeded = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialsStarted >= halfOpenTrials) {
+                return false;
+            }
+            trialsStarted++;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess(long latencyMicros) {
+        record(latencyMicros >= slowCallMicros ? SLOW : 0);
+    }
+
+    public synchronized void onFailure(long latencyMicros) {
+        record((byte) (FAILED | (latencyMicros >= slowCallMicros ? SLOW : 0)));
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Nanoseconds until an open breaker lets a trial call through (0 if it is not open)
+     */
+    public synchronized long remainingOpenNanos() {
+        return state == State.OPEN ? Math.max(0, openNanos - (System.nanoTime() - openedAt)) : 0;
+    }
+
+    private void record(byte outcome) {
+        switch (state) {
+            case HALF_OPEN:
+                if (outcome != 0) {
+                    open();
+                } else if (++trialsSucceeded >= halfOpenTrials) {
+                    clearWindow();
+                    transition(State.CLOSED);
+                }
+                break;
+            case CLOSED:
+                if (windowCount == window.length) {
+                    forget(window[windowNext]);
+                } else {
+                    windowCount++;
+                }
+                window[windowNext] = outcome;
+                windowNext = (windowNext + 1) % window.length;
+                if ((outcome & FAILED) != 0) {
+                    failures++;
+                }
+                if ((outcome & SLOW) != 0) {
+                    slowCalls++;
+                }
+                if (windowCount >= minCalls && (failures * 100 >= failurePercent * windowCount
+                        || slowCalls * 100 >= slowPercent * windowCount)) {
+                    open();
+                }
+                break;
+            default:
+                // A call let through before the breaker opened; the breaker already gave up on them
+                break;
+        }
+    }
+
+    private void forget(byte outcome) {
+        if ((outcome & FAILED) != 0) {
+            failures--;
+        }
+        if ((outcome & SLOW) != 0) {
+            slowCalls--;
+        }
+    }
+
+    private void open() {
+        if (state == State.HALF_OPEN) {
+            Log.warn("circuit_opened", "breaker", name, "reason", "trial_failed");
+        } else {
+            Log.warn("circuit_opened", "breaker", name, "failures", failures, "slow", slowCalls, "calls", windowCount);
+        }
+        openedAt = System.nanoTime();
+        clearWindow();
+        transition(State.OPEN);
+    }
+
+    private void clearWindow() {
+        windowCount = 0;
+        windowNext = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    private void transition(State next) {
+        Log.info("circuit_state", "breaker", name, "from", state, "to", next);
+        state = next;
+        metrics.judgeBreakerState.set(next.ordinal());
+        metrics.judgeBreakerTransitions[next.ordinal()].increment();
+    }
+}
@@ -1,20 +1,55 @@
 import java.io.*;
 import java.net.Socket;
+import java.util.Base64;
 import java.util.Random;
+import java.util.StringJoiner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Thread to handle a single client connection
  */
 public class ClientHandler implements Runnable {
     private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private OutboundQueue outbound;
+    private FrameCodec connection;
     private String username;
-    private GeminiAPI geminiAPI;
-    private DatabaseManager databaseManager;
+    private JudgeService judge;
+    private JudgingQueue judgingQueue;
+    private StatsStore statsStore;
+    private NodeDrain nodeDrain;
+    private Matchmaker matchmaker;
+    private SpectatorHub spectatorHub;
+    private volatile String watching; // Player whose game this connection is watching, or null
+    private DrawingArchive drawingArchive;
+    private StrokeRasterizer strokeRasterizer;
+    private SessionTable sessionTable;
+    private GameSession session; // Game state; survives this connection for a grace period
     private Random random;
-    private String currentObject; // Store current object name
-    private boolean gameWon = false; // Track if current game was won (guessed correctly)
+    private final ServerMetrics metrics = ServerMetrics.get();
+    private final String sessionId = "s" + Long.toString(SESSION_IDS.incrementAndGet(), 36); // Log correlation id
+    private final AtomicLong memoryBytes = new AtomicLong(); // Inbound buffers + queued outbound messages
+    private final AtomicLong peakMemoryBytes = new AtomicLong();
+    
+    private static final AtomicLong SESSION_IDS = new AtomicLong();
+    
+    // Liveness settings (milliseconds)
+    private static final long HANDSHAKE_TIMEOUT = Long.getLong("liveness.handshakeMs", 10_000);
+    private static final long HEARTBEAT_INTERVAL = Long.getLong("liveness.heartbeatMs", 15_000);
+    private static final long IDLE_TIMEOUT = Long.getLong("liveness.idleTimeoutMs", 45_000);
+    
+    private static final int MAX_META_LENGTH = 64; // Submission details before the drawing data
+    private static final int LEADERBOARD_SIZE = 10;
+    
+    private TimerWheel timerWheel;
+    private TimerWheel.Timeout livenessTimeout;
+    private volatile long lastInboundMillis = System.currentTimeMillis();
+    private volatile boolean reaped = false; // Closed by the liveness check rather than the client
+    
+    // Matchmaking: MATCH sends a PING and the PONG's round trip picks the latency bucket
+    private volatile boolean matchRequested = false;
+    private volatile long matchPingNanos;
+    private volatile Matchmaker.Ticket matchTicket;
     
     // Object list - only store object names, "Draw a/an" will be added automatically
     private static final String[] OBJECTS = {
@@ -82,134 +117,591 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    public ClientHandler(Socket socket, GeminiAPI geminiAPI, DatabaseManager databaseManager) {
+    public ClientHandler(Socket socket, JudgeService judge, JudgingQueue judgingQueue, StatsStore statsStore,
+                         DrawingArchive drawingArchive, StrokeRasterizer strokeRasterizer,
+                         TimerWheel timerWheel, SessionTable sessionTable, NodeDrain nodeDrain, Matchmaker matchmaker,
+                         SpectatorHub spectatorHub) {
         this.socket = socket;
-        this.geminiAPI = geminiAPI;
-        this.databaseManager = databaseManager;
+        this.timerWheel = timerWheel;
+        this.sessionTable = sessionTable;
+        this.judge = judge;
+        this.judgingQueue = judgingQueue;
+        this.statsStore = statsStore;
+        this.nodeDrain = nodeDrain;
+        this.matchmaker = matchmaker;
+        this.spectatorHub = spectatorHub;
+        this.drawingArchive = drawingArchive;
+        this.strokeRasterizer = strokeRasterizer;
         this.random = new Random();
     }
     
     @Override
     public void run() {
+        metrics.connectedClients.incrementAndGet();
+        Log.setSession(sessionId);
         try {
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in = new ObjectInputStream(socket.getInputStream());
+            connection = new FrameCodec(socket.getInputStream(), socket.getOutputStream());
+            connection.setMemoryListener(this::accountMemory);
+            outbound = new OutboundQueue(socket, connection, sessionId, this::accountMemory);
             
-            // Receive username
-            Object obj = in.readObject();
-            if (obj instanceof String) {
-                username = (String) obj;
-                System.out.println("Client connected: " + username);
+            // Receive username or RESUME:<token>:<lastSeq>:<username>; clients that don't send one in time are disconnected
+            TimerWheel.Timeout handshakeDeadline = timerWheel.schedule(() -> reap("handshake"), HANDSHAKE_TIMEOUT);
+            String hello = connection.readMessage();
+            handshakeDeadline.cancel();
+            lastInboundMillis = System.currentTimeMillis();
+            livenessTimeout = timerWheel.schedule(this::checkLiveness, HEARTBEAT_INTERVAL);
+            
+            String stats;
+            if (!(hello.startsWith("RESUME:") && resumeSession(hello))) {
+                username = hello.startsWith("RESUME:") ? resumeUsername(hello) : hello;
+                session = sessionTable.create(username);
+                session.attach(outbound, socket, 0, "SESSION:" + session.getToken());
+                Log.info("client_connected", "user", username, "remote", socket.getRemoteSocketAddress());
                 
                 // Send initial statistics
-                String stats = databaseManager.getUserStats(username);
+                stats = statsStore.getUserStats(username);
                 sendMessage("STATS:" + stats);
-            } else {
-                username = "Unknown";
+                
+                // Send first prompt
+                startGame(randomObject(), null);
             }
             
-            // Send first prompt
-            currentObject = OBJECTS[random.nextInt(OBJECTS.length)];
-            gameWon = false; // Reset game win status for new game
-            String prompt = generatePrompt(currentObject);
-            sendMessage("PROMPT:" + prompt);
-            System.out.println("Sent prompt to " + username + ": " + prompt);
-            
             // Handle client messages
             while (true) {
-                obj = in.readObject();
+                String message;
+                try (FrameCodec.Frame frame = connection.readFrame()) {
+                    lastInboundMillis = System.currentTimeMillis();
+                    if (frame.startsWith("DRAWING:") || frame.startsWith("STROKES:")) {
+                        // Decoded from the pooled buffer; the frame never becomes one big String
+                        metrics.recordMessage(frame.startsWith("DRAWING:") ? "DRAWING" : "STROKES");
+                        receiveDrawing(frame);
+                        continue;
+                    }
+                    message = frame.text();
+                }
+                metrics.recordMessage(messageType(message));
                 
-                if (obj instanceof String) {
-                    String message = (String) obj;
-                    
-                    if (message.equals("NEWGAME")) {
-                        // Client requested a new game
-                        // Start new game (score will be updated when GAMEEND is received)
-                        currentObject = OBJECTS[random.nextInt(OBJECTS.length)];
-                        gameWon = false; // Reset for new game
-                        prompt = generatePrompt(currentObject);
-                        sendMessage("PROMPT:" + prompt);
-                        
-                        System.out.println("Sent new prompt to " + username + ": " + prompt);
-                    } else if (message.startsWith("GAMEEND:")) {
-                        // Game ended - update database with final score
-                        String scoreStr = message.substring(8);
-                        boolean won = "1".equals(scoreStr);
-                        databaseManager.updateUserScore(username, won);
-                        
-                        // Send updated statistics
-                        String stats = databaseManager.getUserStats(username);
-                        sendMessage("STATS:" + stats);
-                        
-                        System.out.println("Game ended for " + username + ": " + (won ? "Won (1 point)" : "Lost (0 points)"));
-                    } else if (message.startsWith("DRAWING:")) {
-                        // Received drawing data
-                        String imageBase64 = message.substring(8);
-                        prompt = generatePrompt(currentObject);
-                        handleDrawing(imageBase64, prompt);
+                if (message.equals("PING")) {
+                    outbound.send("PONG");
+                } else if (message.equals("PONG")) {
+                    // Heartbeat answer; receiving it already refreshed lastInboundMillis
+                    if (matchRequested) {
+                        joinMatchmaking((System.nanoTime() - matchPingNanos) / 1000);
+                    }
+                } else if ((message.equals("NEWGAME") || message.equals("MATCH")) && nodeDrain.isDraining()) {
+                    // Between games is the place to move: the client reconnects through the
+                    // gateway and starts its next game on another node
+                    Log.info("client_moved", "user", username, "reason", "node_draining");
+                    break;
+                } else if (message.equals("NEWGAME")) {
+                    // Client requested a new game
+                    // Start new game (score will be updated when GAMEEND is received)
+                    leaveMatchmaking();
+                    startGame(randomObject(), null);
+                } else if (message.equals("MATCH")) {
+                    // Play the next game in a room with players of similar skill and latency
+                    if (!matchRequested && matchTicket == null) {
+                        matchRequested = true;
+                        matchPingNanos = System.nanoTime();
+                        outbound.send("PING");
+                    }
+                } else if (message.equals("UNMATCH")) {
+                    if (leaveMatchmaking()) {
+                        sendMessage("NOMATCH");
                     }
+                } else if (message.startsWith("LIVE:")) {
+                    // The drawing so far, as it happens, for anyone watching
+                    spectatorHub.publish(username, message.substring(5));
+                } else if (message.startsWith("WATCH:")) {
+                    stopWatching();
+                    String player = message.substring(6);
+                    if (spectatorHub.watch(player, outbound)) {
+                        watching = player;
+                    } else {
+                        outbound.send("NOSPECTATE:" + player); // Not a game message, like the stream itself
+                    }
+                } else if (message.equals("UNWATCH")) {
+                    stopWatching();
+                } else if (message.equals("LEADERBOARD")) {
+                    // Shared by all nodes through the stats store
+                    StringJoiner top = new StringJoiner(",", "LEADERBOARD:", "");
+                    statsStore.getLeaderboard(LEADERBOARD_SIZE).forEach((name, score) -> top.add(name + "=" + score));
+                    sendMessage(top.toString());
+                } else if (message.startsWith("GAMEEND:")) {
+                    // Game ended - update database with final score
+                    String scoreStr = message.substring(8);
+                    boolean won;
+                    synchronized (session) {
+                        if (!session.gameInProgress) {
+                            // Already recorded; the client ends a game before asking for the next one
+                            Log.info("game_end_ignored", "user", username, "game", session.gameNumber);
+                            continue;
+                        }
+                        // gameWon is only ever set for session.gameNumber (reset by startGame), and also
+                        // covers a win credited by a late verdict the client never saw as a RESULT
+                        won = "1".equals(scoreStr) || session.gameWon;
+                        session.gameInProgress = false;
+                        session.lastEndedGame = session.gameNumber;
+                        session.lastEndedWon = won;
+                    }
+                    statsStore.updateUserScore(username, won);
+                    
+                    // Send updated statistics
+                    stats = statsStore.getUserStats(username);
+                    sendMessage("STATS:" + stats);
+                    
+                    Log.info("game_ended", "user", username, "won", won);
                 }
             }
             
         } catch (EOFException e) {
-            System.out.println("Client " + username + " disconnected");
+            Log.info("client_disconnected", "user", username);
+        } catch (FrameCodec.FrameTooLargeException e) {
+            metrics.oversizedFrames.increment();
+            Log.warn("frame_too_large", "user", username, "bytes", e.frameSize, "limit", FrameCodec.MAX_FRAME_BYTES);
+        } catch (IOException e) {
+            if (reaped) {
+                Log.info("client_disconnected", "user", username, "reason", "reaped");
+            } else {
+                Log.error("client_error", e, "user", username);
+            }
         } catch (Exception e) {
-            System.err.println("Error handling client " + username + ": " + e.getMessage());
-            e.printStackTrace();
+            Log.error("client_error", e, "user", username);
         } finally {
+            metrics.connectedClients.decrementAndGet();
+            leaveMatchmaking();
+            stopWatching();
+            if (livenessTimeout != null) {
+                livenessTimeout.cancel();
+            }
+            if (session != null) {
+                // Keep the game around so the client can resume it
+                sessionTable.detach(session, outbound);
+            }
+            if (outbound != null) {
+                outbound.close();
+            }
+            metrics.sessionPeakMemoryBytes.record(peakMemoryBytes.get());
             try {
                 if (socket != null) {
                     socket.close();
                 }
             } catch (IOException e) {
-                e.printStackTrace();
+                Log.warn("socket_close_failed", "user", username, "error", e.getMessage());
             }
+            Log.clearSession();
         }
     }
     
-    private void handleDrawing(String imageBase64, String prompt) {
-        // Handle AI judgment in background thread to avoid blocking
-        new Thread(() -> {
+    private String randomObject() {
+        return OBJECTS[random.nextInt(OBJECTS.length)];
+    }
+    
+    /**
+     * Start a game of the given object and send its prompt
+     * @param room the players drawing the same object, or null for a game of one's own
+     */
+    private void startGame(String object, Matchmaker.Room room) {
+        String prompt = generatePrompt(object);
+        synchronized (session) {
+            session.gameNumber++;
+            session.currentObject = object;
+            session.room = room;
+            session.gameWon = false; // Reset for new game
+            session.drawingsSubmitted = 0;
+            session.gameInProgress = true;
+            spectatorHub.newGame(username, session.getToken(), prompt);
+            // Sent under the lock so a room's PROMPT can't overtake the MATCHED before it
+            sendMessage("PROMPT:" + prompt);
+        }
+        Log.debug("prompt_sent", "user", username, "prompt", prompt);
+    }
+    
+    private void stopWatching() {
+        String player = watching;
+        if (player != null) {
+            watching = null;
+            spectatorHub.unwatch(player, outbound);
+        }
+    }
+    
+    /**
+     * Queue for a room once the round trip to the client is known
+     */
+    private void joinMatchmaking(long rttMicros) {
+        matchRequested = false;
+        int games = statsStore.getUserGames(username);
+        int score = statsStore.getUserScore(username);
+        matchTicket = matchmaker.enqueue(session, games, score, rttMicros, room -> {
+            matchTicket = null;
+            synchronized (session) {
+                sendMessage("MATCHED:" + room.id + ":" + room.roster());
+                startGame(room.object, room);
+            }
+        }, () -> {
+            matchTicket = null;
+            synchronized (session) {
+                sendMessage("NOMATCH");
+                startGame(randomObject(), null);
+            }
+        });
+        Log.info("match_requested", "user", username, "rtt_us", rttMicros);
+    }
+    
+    /**
+     * Leave the matchmaking queue, if in it
+     * @return true if a ticket was cancelled
+     */
+    private boolean leaveMatchmaking() {
+        matchRequested = false;
+        Matchmaker.Ticket ticket = matchTicket;
+        matchTicket = null;
+        return ticket != null && matchmaker.cancel(ticket);
+    }
+    
+    /**
+     * Reattach to the session named in a RESUME handshake and replay what the client missed
+     * @return false if the session can't be resumed; the caller starts a new one
+     */
+    private boolean resumeSession(String hello) {
+        String[] parts = hello.split(":", 4);
+        if (parts.length < 4) {
+            return false;
+        }
+        long clientSeq;
+        try {
+            clientSeq = Long.parseLong(parts[2]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        GameSession candidate = sessionTable.find(parts[1], parts[3]);
+        if (candidate == null || !candidate.attach(outbound, socket, clientSeq, "RESUMED:" + parts[1])) {
+            metrics.resumeFailures.increment();
+            Log.info("resume_failed", "user", parts[3], "known", candidate != null);
+            return false;
+        }
+        session = candidate;
+        username = session.getUsername();
+        sessionTable.resumed(session);
+        metrics.sessionsResumed.increment();
+        Log.info("session_resumed", "user", username, "remote", socket.getRemoteSocketAddress(), "last_seq", clientSeq);
+        resubmitRestoredDrawings();
+        return true;
+    }
+    
+    private static String resumeUsername(String hello) {
+        String[] parts = hello.split(":", 4);
+        return parts.length == 4 ? parts[3] : hello;
+    }
+    
+    /**
+     * DRAWING:[meta:]<base64 PNG> or STROKES:[meta:]<base64 StrokeCodec data>, where the optional
+     * meta is e.g. "auto=1,round=3,left=0" (base64 never contains ':'). Only the payload is copied
+     * out of the frame: the base64 text, which the judge and the session keep, and for strokes
+     * the decoded bytes.
+     */
+    private void receiveDrawing(FrameCodec.Frame frame) {
+        int start = 8;
+        String meta = "";
+        int colon = frame.indexOf(':', start, start + MAX_META_LENGTH + 1);
+        if (colon != -1) {
+            meta = frame.text(start, colon);
+            start = colon + 1;
+        }
+        if (frame.startsWith("STROKES:")) {
+            // Checked here, rendered on the judging thread
+            handleStrokes(frame, start, meta);
+        } else {
+            String imageBase64 = frame.text(start, frame.length());
+            // Keep a copy for replay, moderation and training (written asynchronously)
+            drawingArchive.archiveBase64(imageBase64);
+            handleDrawing(DrawingArchive.KIND_PNG, imageBase64, () -> imageBase64, meta);
+        }
+    }
+    
+    /**
+     * @param start where the base64 stroke data begins in the frame
+     */
+    private void handleStrokes(FrameCodec.Frame frame, int start, String meta) {
+        byte[] data;
+        StrokeCodec.Drawing drawing;
+        try {
+            data = frame.decodeBase64(start);
+            drawing = StrokeCodec.decode(data);
+        } catch (IllegalArgumentException e) {
+            Log.warn("invalid_strokes", "user", username, "error", e.getMessage());
+            sendMessage("RESULT:{\"object\":\"unknown\",\"comment\":\"Your drawing could not be read. Please try again.\"}");
+            return;
+        }
+        drawingArchive.archive(DrawingArchive.KIND_STROKES, data);
+        handleDrawing(DrawingArchive.KIND_STROKES, frame.text(start, frame.length()),
+                () -> strokeRasterizer.rasterizeBase64(drawing), meta);
+    }
+    
+    /**
+     * Queue a drawing for judging, ordered by how soon its player needs the verdict
+     * @param kind DrawingArchive.KIND_PNG or KIND_STROKES
+     * @param dataBase64 the drawing as received, kept with the session until its verdict
+     * @param image produces the base64 PNG for the judge; called on the judging thread
+     * @param meta submission details from the client ("" if it sent none)
+     */
+    private void handleDrawing(byte kind, String dataBase64, Callable<String> image, String meta) {
+        GameSession.PendingDrawing drawing;
+        synchronized (session) {
+            // A matched game can start on the matchmaker's thread; tag the drawing with one consistent game
+            session.drawingsSubmitted++;
+            drawing = new GameSession.PendingDrawing(session.gameNumber, session.currentObject, kind, dataBase64, meta);
+        }
+        metrics.drawingSizeBytes.record(dataBase64.length());
+        judgeDrawing(drawing, image);
+    }
+    
+    /**
+     * Judge the drawings a restored session was owed verdicts for when the server stopped
+     */
+    private void resubmitRestoredDrawings() {
+        for (GameSession.PendingDrawing drawing : session.takeRestoredDrawings()) {
+            Log.info("drawing_resubmitted", "user", username, "game", drawing.game, "deferred", drawing.deferred);
+            judgeDrawing(drawing, drawing.kind == DrawingArchive.KIND_STROKES
+                    ? () -> strokeRasterizer.rasterizeBase64(StrokeCodec.decode(Base64.getDecoder().decode(drawing.dataBase64)))
+                    : () -> drawing.dataBase64);
+        }
+    }
+    
+    /**
+     * Queue a pending drawing and send its verdict: a RESULT, or for a drawing the player
+     * was already told would be scored later, a late verdict
+     */
+    private void judgeDrawing(GameSession.PendingDrawing drawing, Callable<String> image) {
+        long receivedAt = System.nanoTime();
+        String object = drawing.object;
+        int game = drawing.game;
+        String prompt = generatePrompt(object);
+        JudgingQueue.Priority priority = "1".equals(metaValue(drawing.meta, "auto"))
+                ? JudgingQueue.Priority.AUTO : JudgingQueue.Priority.MANUAL;
+        long leftMillis;
+        try {
+            leftMillis = Long.parseLong(metaValue(drawing.meta, "left")) * 1000;
+        } catch (NumberFormatException e) {
+            leftMillis = 0;
+        }
+        
+        session.addPending(drawing);
+        metrics.judgingQueueDepth.incrementAndGet();
+        boolean queued = judgingQueue.submit(username, priority, leftMillis, () -> {
+            Log.setSession(sessionId);
             try {
-                // Call Gemini API
-                String aiResponse = geminiAPI.analyzeDrawing(imageBase64, prompt);
-                
-                // Parse AI response to check if correct
-                String identifiedObject = "unknown";
-                int objectIdx = aiResponse.indexOf("\"object\"");
-                if (objectIdx != -1) {
-                    int objectValStart = aiResponse.indexOf("\"", objectIdx + 8) + 1;
-                    int objectValEnd = aiResponse.indexOf("\"", objectValStart);
-                    if (objectValEnd != -1) {
-                        identifiedObject = aiResponse.substring(objectValStart, objectValEnd).toLowerCase().trim();
+                // Gemini behind a circuit breaker; a degraded verdict if it is unavailable
+                String aiResponse = judge.analyzeDrawing(image.call(), prompt,
+                        verdict -> handleLateVerdict(verdict, drawing));
+                if (drawing.deferred) {
+                    // Deferred before a restart: the player has moved on and only hears the late verdict
+                    if (!aiResponse.equals(JudgeService.PENDING_VERDICT)) {
+                        handleLateVerdict(aiResponse, drawing);
                     }
+                    return;
                 }
+                if (aiResponse.equals(JudgeService.PENDING_VERDICT)) {
+                    drawing.deferred = true; // Stays pending until the late verdict
+                }
+                String identifiedObject = identifiedObject(aiResponse);
                 
                 // Check if correct
-                boolean isCorrect = identifiedObject.equals(currentObject.toLowerCase());
-                
-                // Mark game as won if correct (database will be updated when game ends)
-                if (isCorrect) {
-                    gameWon = true;
+                boolean isCorrect = identifiedObject.equals(object.toLowerCase());
+
+                boolean sameGame;
+                synchronized (session) {
+                    // A New Game may have started while this was queued; the verdict must not win that one
+                    sameGame = session.gameNumber == game;
+                    if (sameGame) {
+                        // Mark game as won if correct (database will be updated when game ends)
+                        if (isCorrect) {
+                            session.gameWon = true;
+                        }
+                        // Send result to client (include win status); logged for replay if the client is away
+                        sendMessage("RESULT:" + aiResponse + "|WON:" + session.gameWon);
+                    }
+                }
+                if (!sameGame) {
+                    if (!drawing.deferred) {
+                        handleLateVerdict(aiResponse, drawing); // Scored against the game it was drawn in
+                    }
+                    return;
+                }
+
+                // Roommates drawing the same object hear how this player is doing
+                Matchmaker.Room room = session.room;
+                if (room != null && session.gameNumber == game) {
+                    for (GameSession member : room.members) {
+                        if (member != session) {
+                            member.send("ROOM:" + username + ":" + isCorrect);
+                        }
+                    }
                 }
-                
-                // Send result to client (include win status)
-                sendMessage("RESULT:" + aiResponse + "|WON:" + gameWon);
                 
             } catch (Exception e) {
-                sendMessage("RESULT:{\"object\":\"unknown\",\"comment\":\"Error occurred. Please try again.\"}");
+                Log.error("judging_failed", e, "user", username);
+                if (!drawing.deferred) {
+                    sendMessage("RESULT:{\"object\":\"unknown\",\"comment\":\"Error occurred. Please try again.\"}");
+                }
+            } finally {
+                if (!drawing.deferred) {
+                    session.removePending(drawing);
+                }
+                metrics.judgingQueueDepth.decrementAndGet();
+                metrics.roundLatencyMicros.record((System.nanoTime() - receivedAt) / 1000);
+                Log.clearSession();
             }
-        }).start();
+        });
+        if (!queued) {
+            session.removePending(drawing);
+            metrics.judgingQueueDepth.decrementAndGet();
+            Log.warn("drawing_rejected", "user", username, "reason", "too_many_queued", "deferred", drawing.deferred);
+            if (!drawing.deferred) {
+                synchronized (session) {
+                    if (session.gameNumber == drawing.game) {
+                        session.drawingsSubmitted--;
+                    }
+                }
+                sendMessage("RESULT:{\"object\":\"unknown\",\"comment\":\"Your earlier drawings are still being judged. Please wait for them.\"}");
+            }
+        }
     }
     
-    private void sendMessage(String message) {
+    /**
+     * Value of key in "k1=v1,k2=v2" submission details, or "" if absent
+     */
+    private static String metaValue(String meta, String key) {
+        for (String field : meta.split(",")) {
+            if (field.startsWith(key) && field.length() > key.length() && field.charAt(key.length()) == '=') {
+                return field.substring(key.length() + 1);
+            }
+        }
+        return "";
+    }
+    
+    /**
+     * Score a drawing the judge saw only after it came back (JudgeService LATER mode).
+     * A correct verdict wins the game it was drawn in if that game is still under way,
+     * or turns it into a win if it was the last game to end and was recorded as lost.
+     */
+    private void handleLateVerdict(String aiResponse, GameSession.PendingDrawing drawing) {
+        session.removePending(drawing);
+        String object = drawing.object;
+        int game = drawing.game;
+        boolean credited = false;
+        boolean alreadyRecorded = false;
+        if (identifiedObject(aiResponse).equals(object.toLowerCase())) {
+            synchronized (session) {
+                if (session.gameNumber == game && session.gameInProgress && !session.gameWon) {
+                    session.gameWon = true; // Recorded by the GAMEEND that ends it
+                    credited = true;
+                } else if (session.lastEndedGame == game && !session.lastEndedWon) {
+                    session.lastEndedWon = true;
+                    credited = true;
+                    alreadyRecorded = true;
+                }
+            }
+        }
+        Log.info("late_verdict", "user", username, "object", object, "credited", credited);
+        if (alreadyRecorded) {
+            statsStore.addWin(username);
+        }
+        sendMessage("SCORED:" + aiResponse + "|WON:" + credited);
+        if (alreadyRecorded) {
+            sendMessage("STATS:" + statsStore.getUserStats(username));
+        }
+    }
+    
+    /**
+     * Object named in a verdict, lowercased; "unknown" if there is none
+     */
+    private static String identifiedObject(String aiResponse) {
+        int objectIdx = aiResponse.indexOf("\"object\"");
+        if (objectIdx != -1) {
+            int objectValStart = aiResponse.indexOf("\"", objectIdx + 8) + 1;
+            int objectValEnd = aiResponse.indexOf("\"", objectValStart);
+            if (objectValEnd != -1) {
+                return aiResponse.substring(objectValStart, objectValEnd).toLowerCase().trim();
+            }
+        }
+        return "unknown";
+    }
+    
+    /**
+     * Message type used as the metrics label, e.g. "DRAWING" for "DRAWING:..."
+     */
+    private static String messageType(String message) {
+        int colon = message.indexOf(':');
+        String type = colon == -1 ? message : message.substring(0, colon);
+        switch (type) {
+            case "NEWGAME":
+            case "GAMEEND":
+            case "DRAWING":
+            case "STROKES":
+            case "PING":
+            case "PONG":
+            case "LEADERBOARD":
+            case "MATCH":
+            case "UNMATCH":
+            case "LIVE":
+            case "WATCH":
+            case "UNWATCH":
+                return type;
+            default:
+                return "OTHER";
+        }
+    }
+    
+    /**
+     * Periodic heartbeat check, run on the timer wheel: ping a quiet client,
+     * disconnect one that has been silent for too long
+     */
+    private void checkLiveness() {
+        long idle = System.currentTimeMillis() - lastInboundMillis;
+        if (idle >= IDLE_TIMEOUT) {
+            reap("idle");
+            return;
+        }
+        if (idle >= HEARTBEAT_INTERVAL) {
+            outbound.send("PING"); // Not part of the replayed game stream
+        }
+        livenessTimeout = timerWheel.schedule(this::checkLiveness, HEARTBEAT_INTERVAL);
+    }
+    
+    /**
+     * Close the connection from the timer wheel; the blocked read in run() then fails
+     */
+    private void reap(String reason) {
+        reaped = true;
+        if ("handshake".equals(reason)) {
+            metrics.reapedHandshake.increment();
+        } else {
+            metrics.reapedIdle.increment();
+        }
+        Log.info("session_reaped", "session", sessionId, "user", username, "reason", reason);
         try {
-            out.writeObject(message);
-            out.flush();
-        } catch (IOException e) {
-            System.err.println("Failed to send message: " + e.getMessage());
-            e.printStackTrace();
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+    
+    /**
+     * Track bytes held by this session and in total across sessions
+     */
+    private void accountMemory(long delta) {
+        long current = memoryBytes.addAndGet(delta);
+        metrics.sessionMemoryBytes.addAndGet(delta);
+        if (current > peakMemoryBytes.get()) {
+            peakMemoryBytes.accumulateAndGet(current, Math::max);
         }
     }
+    
+    /**
+     * Queue a game message for this client (logged for replay); safe to call from any thread
+     */
+    private void sendMessage(String message) {
+        session.send(message);
+    }
 }
 
@@ -0,0 +1,58 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring mapping keys (usernames) to nodes.
+ *
+ * Each node is placed on the ring at virtualNodes points; a key belongs to
+ * the first point at or after its own hash. Adding or removing a node only
+ * moves the keys of the ring segments it gains or loses (about 1/n of
+ * them), so every other player keeps landing on the node that holds their
+ * session. Immutable: build a new ring when the set of nodes changes.
+ */
+public class ConsistentHashRing<T> {
+    private final TreeMap<Long, T> points = new TreeMap<>();
+
+    public ConsistentHashRing(Collection<T> nodes, int virtualNodes) {
+        for (T node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * @return the node owning key, or null if the ring is empty
+     */
+    public T nodeFor(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, T> owner = points.ceilingEntry(hash(key));
+        return owner != null ? owner.getValue() : points.firstEntry().getValue();
+    }
+
+    public boolean isEmpty() {
+        return points.isEmpty();
+    }
+
+    /**
+     * First 8 bytes of the key's MD5: evenly spread, and the same in every gateway process
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xFF);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
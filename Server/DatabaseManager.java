@@ -1,11 +1,18 @@
 import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Database manager for SQLite database
  * Stores user statistics: username, total_games, total_score
+ *
+ * Several game nodes on one machine can share the file (-Ddb.url): it is
+ * opened in WAL mode and a write that finds it locked by another process
+ * waits up to db.busyTimeoutMs (default 5000) instead of failing.
  */
-public class DatabaseManager {
-    private static final String DB_URL = "jdbc:sqlite:game_database.db";
+public class DatabaseManager implements StatsStore {
+    private static final String DB_URL = System.getProperty("db.url", "jdbc:sqlite:game_database.db");
+    private static final int BUSY_TIMEOUT_MS = Integer.getInteger("db.busyTimeoutMs", 5_000);
     private Connection connection;
     
     public DatabaseManager() {
@@ -15,11 +22,14 @@ public class DatabaseManager {
     private void initializeDatabase() {
         try {
             connection = DriverManager.getConnection(DB_URL);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+                stmt.execute("PRAGMA journal_mode = WAL");
+            }
             createTables();
-            System.out.println("Database initialized successfully");
+            Log.info("database_initialized", "url", DB_URL);
         } catch (SQLException e) {
-            System.err.println("Database initialization failed: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("database_init_failed", e, "url", DB_URL);
         }
     }
     
@@ -31,10 +41,9 @@ public class DatabaseManager {
                 ")";
         try (Statement stmt = connection.createStatement()) {
             stmt.execute(createTableSQL);
-            System.out.println("Database table created/verified");
+            Log.debug("database_table_verified", "table", "users");
         } catch (SQLException e) {
-            System.err.println("Failed to create table: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("database_create_table_failed", e);
         }
     }
     
@@ -43,7 +52,9 @@ public class DatabaseManager {
      * @param username The username
      * @param correct Whether the user guessed correctly
      */
+    @Override
     public void updateUserScore(String username, boolean correct) {
+        long start = System.nanoTime();
         try {
             // Insert user if not exists
             String insertSQL = "INSERT OR IGNORE INTO users (username, total_games, total_score) VALUES (?, 0, 0)";
@@ -61,14 +72,38 @@ public class DatabaseManager {
                 pstmt.executeUpdate();
             }
         } catch (SQLException e) {
-            System.err.println("Failed to update user score: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("database_update_failed", e, "user", username);
+        } finally {
+            ServerMetrics.get().dbWriteLatencyMicros.record((System.nanoTime() - start) / 1000);
+        }
+    }
+    
+    @Override
+    public void addWin(String username) {
+        long start = System.nanoTime();
+        try {
+            // The game itself may still be on its way to the database
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "INSERT OR IGNORE INTO users (username, total_games, total_score) VALUES (?, 0, 0)")) {
+                pstmt.setString(1, username);
+                pstmt.executeUpdate();
+            }
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "UPDATE users SET total_score = total_score + 1 WHERE username = ?")) {
+                pstmt.setString(1, username);
+                pstmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            Log.error("database_update_failed", e, "user", username);
+        } finally {
+            ServerMetrics.get().dbWriteLatencyMicros.record((System.nanoTime() - start) / 1000);
         }
     }
     
     /**
      * Get user's total score
      */
+    @Override
     public int getUserScore(String username) {
         String sql = "SELECT total_score FROM users WHERE username = ?";
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
@@ -78,8 +113,7 @@ public class DatabaseManager {
                 return rs.getInt("total_score");
             }
         } catch (SQLException e) {
-            System.err.println("Failed to get user score: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("database_query_failed", e, "user", username, "column", "total_score");
         }
         return 0;
     }
@@ -87,6 +121,7 @@ public class DatabaseManager {
     /**
      * Get user's total games
      */
+    @Override
     public int getUserGames(String username) {
         String sql = "SELECT total_games FROM users WHERE username = ?";
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
@@ -96,28 +131,35 @@ public class DatabaseManager {
                 return rs.getInt("total_games");
             }
         } catch (SQLException e) {
-            System.err.println("Failed to get user games: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("database_query_failed", e, "user", username, "column", "total_games");
         }
         return 0;
     }
     
-    /**
-     * Get user statistics as a formatted string
-     */
-    public String getUserStats(String username) {
-        int games = getUserGames(username);
-        int score = getUserScore(username);
-        return "Games: " + games + " | Score: " + score;
+    @Override
+    public Map<String, Integer> getLeaderboard(int limit) {
+        Map<String, Integer> top = new LinkedHashMap<>();
+        String sql = "SELECT username, total_score FROM users ORDER BY total_score DESC, username LIMIT ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, limit);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                top.put(rs.getString("username"), rs.getInt("total_score"));
+            }
+        } catch (SQLException e) {
+            Log.error("database_query_failed", e, "query", "leaderboard");
+        }
+        return top;
     }
     
+    @Override
     public void close() {
         try {
             if (connection != null) {
                 connection.close();
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            Log.error("database_close_failed", e);
         }
     }
 }
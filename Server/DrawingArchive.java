@@ -0,0 +1,333 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+
+/**
+ * Content-addressed archive for submitted drawings.
+ *
+ * Every drawing is keyed by the SHA-256 hash of its bytes, so the same
+ * drawing submitted twice is only stored once. Records are appended to
+ * large segment files and located through a small index file. Writes are
+ * done by a single background thread so the judging path never waits on disk.
+ *
+ * Segment record layout: magic(int) kind(byte) length(int) hash(32 bytes) data
+ * Index record layout:   hash(32 bytes) kind(byte) segment(int) offset(long) length(int) time(long)
+ */
+public class DrawingArchive {
+    public static final byte KIND_PNG = 1;
+    public static final byte KIND_STROKES = 2;
+    public static final byte KIND_TIMELINE = 3; // StrokeTimeline of a whole game, for replay
+
+    private static final int RECORD_MAGIC = 0x44524157; // "DRAW"
+    private static final int RECORD_HEADER_SIZE = 4 + 1 + 4 + 32;
+    private static final int INDEX_RECORD_SIZE = 32 + 1 + 4 + 8 + 4 + 8;
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024; // Roll over to a new segment after 64 MB
+    private static final int MAX_PENDING_WRITES = 256;
+    private static final String DEFAULT_DIRECTORY = "drawing_archive";
+
+    /**
+     * Location of one archived drawing
+     */
+    public static class Entry {
+        public final String hash;
+        public final byte kind;
+        public final int segment;
+        public final long offset; // Offset of the data, after the record header
+        public final int length;
+        public final long timestamp;
+
+        Entry(String hash, byte kind, int segment, long offset, int length, long timestamp) {
+            this.hash = hash;
+            this.kind = kind;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final Path directory;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor writer;
+
+    // Only touched by the writer thread
+    private MessageDigest digest;
+    private FileChannel segmentChannel;
+    private int segmentId;
+    private DataOutputStream indexOut;
+
+    public DrawingArchive() {
+        this(Paths.get(DEFAULT_DIRECTORY));
+    }
+
+    public DrawingArchive(Path directory) {
+        this.directory = directory;
+        // Single writer thread with a bounded queue; when the disk can't keep up
+        // new drawings are dropped (and counted) instead of blocking the caller
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING_WRITES),
+                r -> {
+                    Thread t = new Thread(r, "drawing-archive-writer");
+                    t.setDaemon(true);
+                    return t;
+                },
+                (task, executor) -> {
+                    ServerMetrics.get().archiveDropped.increment();
+                    Log.warn("archive_write_dropped", "queued", executor.getQueue().size(),
+                            "shutdown", executor.isShutdown());
+                });
+        try {
+            Files.createDirectories(directory);
+            digest = MessageDigest.getInstance("SHA-256");
+            loadIndex();
+            openSegment();
+            indexOut = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile().toFile(), true)));
+            Log.info("archive_opened", "drawings", index.size(), "directory", directory);
+        } catch (Exception e) {
+            Log.error("archive_init_failed", e, "directory", directory);
+        }
+    }
+
+    /**
+     * Queue a base64 encoded PNG for archiving. Returns immediately;
+     * decoding, hashing and writing all happen on the writer thread.
+     */
+    public void archiveBase64(String imageBase64) {
+        writer.execute(() -> {
+            try {
+                store(KIND_PNG, Base64.getDecoder().decode(imageBase64));
+            } catch (IllegalArgumentException e) {
+                Log.warn("archive_invalid_drawing", "error", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Queue raw drawing bytes (PNG, encoded strokes or a timeline) for archiving
+     */
+    public void archive(byte kind, byte[] data) {
+        writer.execute(() -> store(kind, data));
+    }
+
+    /**
+     * Number of distinct drawings in the archive
+     */
+    public int size() {
+        return index.size();
+    }
+
+    public boolean contains(String hash) {
+        return index.containsKey(hash);
+    }
+
+    /**
+     * Read one drawing back by its hash, or null if it isn't archived
+     */
+    public byte[] read(String hash) throws IOException {
+        Entry entry = index.get(hash);
+        if (entry == null) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(segmentFile(entry.segment), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                    throw new EOFException("Truncated segment " + entry.segment);
+                }
+            }
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Export every archived drawing into a directory as individual files.
+     * Each segment is memory-mapped once and entries are copied straight
+     * out of the mapping.
+     * @return number of drawings exported
+     */
+    public int exportAll(Path outputDirectory) throws IOException {
+        Files.createDirectories(outputDirectory);
+        Map<Integer, List<Entry>> bySegment = new TreeMap<>();
+        for (Entry entry : index.values()) {
+            bySegment.computeIfAbsent(entry.segment, k -> new ArrayList<>()).add(entry);
+        }
+
+        int exported = 0;
+        byte[] copyBuffer = new byte[64 * 1024];
+        for (Map.Entry<Integer, List<Entry>> segment : bySegment.entrySet()) {
+            try (FileChannel channel = FileChannel.open(segmentFile(segment.getKey()), StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                for (Entry entry : segment.getValue()) {
+                    String extension = entry.kind == KIND_PNG ? ".png"
+                            : entry.kind == KIND_TIMELINE ? ".timeline" : ".strokes";
+                    try (OutputStream fileOut = Files.newOutputStream(outputDirectory.resolve(entry.hash + extension))) {
+                        ByteBuffer slice = mapped.duplicate();
+                        slice.position((int) entry.offset).limit((int) entry.offset + entry.length);
+                        while (slice.hasRemaining()) {
+                            int n = Math.min(copyBuffer.length, slice.remaining());
+                            slice.get(copyBuffer, 0, n);
+                            fileOut.write(copyBuffer, 0, n);
+                        }
+                    }
+                    exported++;
+                }
+            }
+        }
+        return exported;
+    }
+
+    /**
+     * Finish pending writes and close the files
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+            if (indexOut != null) {
+                indexOut.close();
+            }
+            if (segmentChannel != null) {
+                segmentChannel.close();
+            }
+        } catch (Exception e) {
+            Log.error("archive_close_failed", e);
+        }
+    }
+
+    /**
+     * Hex encoded SHA-256 of the given bytes
+     */
+    public static String hashOf(byte[] data) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void store(byte kind, byte[] data) {
+        if (segmentChannel == null) {
+            return;
+        }
+        try {
+            byte[] hashBytes = digest.digest(data);
+            String hash = toHex(hashBytes);
+            if (index.containsKey(hash)) {
+                return; // Already archived
+            }
+
+            if (segmentChannel.size() + RECORD_HEADER_SIZE + data.length > SEGMENT_SIZE
+                    && segmentChannel.size() > 0) {
+                segmentChannel.close();
+                segmentId++;
+                openSegment();
+            }
+
+            long recordStart = segmentChannel.size();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length);
+            record.putInt(RECORD_MAGIC).put(kind).putInt(data.length).put(hashBytes).put(data);
+            record.flip();
+            while (record.hasRemaining()) {
+                segmentChannel.write(record, recordStart + record.position());
+            }
+
+            // Data is on disk (not just in the page cache) before the index names it, so even after
+            // a power loss the index never points at missing bytes; this runs on the writer thread
+            segmentChannel.force(false);
+            Entry entry = new Entry(hash, kind, segmentId, recordStart + RECORD_HEADER_SIZE,
+                    data.length, System.currentTimeMillis());
+            indexOut.write(hashBytes);
+            indexOut.writeByte(entry.kind);
+            indexOut.writeInt(entry.segment);
+            indexOut.writeLong(entry.offset);
+            indexOut.writeInt(entry.length);
+            indexOut.writeLong(entry.timestamp);
+            indexOut.flush();
+            index.put(hash, entry);
+        } catch (IOException e) {
+            Log.error("archive_write_failed", e);
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        Path file = indexFile();
+        if (!Files.exists(file)) {
+            return;
+        }
+        byte[] hashBytes = new byte[32];
+        long records = Files.size(file) / INDEX_RECORD_SIZE;
+        if (Files.size(file) != records * INDEX_RECORD_SIZE) {
+            // A torn trailing record from a crash; cut it off so new records are appended aligned
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(records * INDEX_RECORD_SIZE);
+            }
+            Log.warn("archive_index_truncated", "records", records);
+        }
+        try (DataInputStream indexIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            for (long i = 0; i < records; i++) {
+                indexIn.readFully(hashBytes);
+                String hash = toHex(hashBytes);
+                Entry entry = new Entry(hash, indexIn.readByte(), indexIn.readInt(),
+                        indexIn.readLong(), indexIn.readInt(), indexIn.readLong());
+                index.put(hash, entry);
+                segmentId = Math.max(segmentId, entry.segment);
+            }
+        }
+    }
+
+    /**
+     * Export an archive from the command line:
+     * java DrawingArchive &lt;output directory&gt; [archive directory, default drawing_archive]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java DrawingArchive <output directory> [archive directory]");
+            System.exit(2);
+        }
+        Path source = Paths.get(args.length > 1 ? args[1] : DEFAULT_DIRECTORY);
+        if (!Files.exists(source.resolve("index.dat"))) {
+            System.err.println("No drawing archive in " + source);
+            System.exit(1);
+        }
+        DrawingArchive archive = new DrawingArchive(source);
+        try {
+            int exported = archive.exportAll(Paths.get(args[0]));
+            System.out.println("Exported " + exported + " drawings to " + args[0]);
+        } finally {
+            archive.close();
+            Log.flush();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segmentChannel = FileChannel.open(segmentFile(segmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private Path indexFile() {
+        return directory.resolve("index.dat");
+    }
+
+    private Path segmentFile(int id) {
+        return directory.resolve(String.format("segment-%05d.dat", id));
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Game state of one player that outlives a single TCP connection.
+ *
+ * Every game message sent to the player gets the next sequence number
+ * (PING/PONG and the handshake replies don't count) and is kept in a short
+ * replay log. The client counts the game messages it has received, so after
+ * a reconnect it can say how far it got and the missing tail is replayed
+ * before anything new is sent. A verdict that finishes while the player is
+ * disconnected simply lands in the log.
+ *
+ * System property: session.replayLog (default 32 messages)
+ */
+public class GameSession {
+    private static final int REPLAY_LOG_SIZE = Integer.getInteger("session.replayLog", 32);
+
+    /**
+     * A drawing the player is owed a verdict for: queued, being judged, or deferred by the judge
+     */
+    static class PendingDrawing {
+        final int game; // gameNumber it was drawn in
+        final String object;
+        final byte kind; // DrawingArchive.KIND_PNG or KIND_STROKES
+        final String dataBase64;
+        final String meta; // Submission details, "" if none
+        volatile boolean deferred; // The player was told it will be scored later
+
+        PendingDrawing(int game, String object, byte kind, String dataBase64, String meta) {
+            this.game = game;
+            this.object = object;
+            this.kind = kind;
+            this.dataBase64 = dataBase64;
+            this.meta = meta;
+        }
+    }
+
+    private final String token;
+    private final String username;
+
+    // Game state, written by the connection thread and the judging threads
+    volatile String currentObject;
+    volatile boolean gameWon;
+    volatile boolean gameInProgress;
+    volatile int drawingsSubmitted; // Drawings judged or being judged in the current game
+    volatile int gameNumber; // Games started in this session; ties a deferred verdict to its game
+    volatile int lastEndedGame; // gameNumber of the last game recorded in the database
+    volatile boolean lastEndedWon;
+    volatile Matchmaker.Room room; // Players drawing the same object in this game, null for a solo game
+
+    // Guarded by this
+    private final ArrayDeque<String> replayLog = new ArrayDeque<>();
+    private long lastSeq; // Sequence number of the newest logged message
+    private OutboundQueue outbound; // Null while no connection is attached
+    private Socket socket;
+    private boolean expired;
+    private final List<PendingDrawing> pendingDrawings = new ArrayList<>(); // Handed to the judge by this process
+    private List<PendingDrawing> restoredDrawings = new ArrayList<>(); // From a snapshot, until the player resumes
+    TimerWheel.Timeout expiry; // Grace period timer while detached
+
+    public GameSession(String token, String username) {
+        this.token = token;
+        this.username = username;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Log a game message and send it if a connection is attached
+     */
+    public synchronized void send(String message) {
+        lastSeq++;
+        replayLog.addLast(message);
+        if (replayLog.size() > REPLAY_LOG_SIZE) {
+            replayLog.removeFirst();
+        }
+        if (outbound != null) {
+            outbound.sendLogged(message);
+        }
+    }
+
+    /**
+     * Attach a new connection, replaying everything after clientSeq. A connection
+     * that is still attached (e.g. half-open after a network change) is closed.
+     * @return false if the session expired or the log no longer reaches back to clientSeq
+     */
+    synchronized boolean attach(OutboundQueue newOutbound, Socket newSocket, long clientSeq, String handshakeReply) {
+        long firstLogged = lastSeq - replayLog.size() + 1;
+        if (expired || clientSeq < firstLogged - 1 || clientSeq > lastSeq) {
+            return false;
+        }
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        outbound = newOutbound;
+        socket = newSocket;
+        outbound.send(handshakeReply);
+        long seq = firstLogged;
+        int replayed = 0;
+        for (String message : replayLog) {
+            if (seq++ > clientSeq) {
+                outbound.sendLogged(message);
+                replayed++;
+            }
+        }
+        ServerMetrics.get().messagesReplayed.add(replayed);
+        return true;
+    }
+
+    /**
+     * Detach the given connection if it is still the attached one
+     * @return true if the session is now without a connection
+     */
+    synchronized boolean detach(OutboundQueue oldOutbound) {
+        if (outbound != oldOutbound) {
+            return false; // Already taken over by a newer connection
+        }
+        outbound = null;
+        socket = null;
+        return true;
+    }
+
+    /**
+     * Mark the session expired unless a connection was attached in the meantime
+     */
+    synchronized boolean expire() {
+        if (outbound != null) {
+            return false;
+        }
+        expired = true;
+        return true;
+    }
+
+    synchronized void addPending(PendingDrawing drawing) {
+        // A deferred verdict for a game before the last recorded one can't score any more,
+        // and the judge may have given up on it; don't carry it around
+        pendingDrawings.removeIf(d -> d.deferred && d.game < lastEndedGame);
+        pendingDrawings.add(drawing);
+    }
+
+    synchronized void removePending(PendingDrawing drawing) {
+        pendingDrawings.remove(drawing);
+    }
+
+    /**
+     * Drawings restored from a snapshot that still need judging; each is returned once
+     */
+    synchronized List<PendingDrawing> takeRestoredDrawings() {
+        List<PendingDrawing> taken = restoredDrawings;
+        restoredDrawings = new ArrayList<>();
+        return taken;
+    }
+
+    /**
+     * Write the session for a StateSnapshot; the lock is held only while copying into memory
+     */
+    synchronized void writeSnapshot(DataOutputStream out) throws IOException {
+        StateSnapshot.writeString(out, token);
+        StateSnapshot.writeString(out, username);
+        StateSnapshot.writeString(out, currentObject);
+        out.writeByte((gameWon ? 1 : 0) | (gameInProgress ? 2 : 0) | (lastEndedWon ? 4 : 0));
+        out.writeInt(drawingsSubmitted);
+        out.writeInt(gameNumber);
+        out.writeInt(lastEndedGame);
+        out.writeLong(lastSeq);
+        out.writeInt(replayLog.size());
+        for (String message : replayLog) {
+            StateSnapshot.writeString(out, message);
+        }
+        out.writeInt(pendingDrawings.size() + restoredDrawings.size());
+        for (List<PendingDrawing> drawings : List.of(pendingDrawings, restoredDrawings)) {
+            for (PendingDrawing drawing : drawings) {
+                out.writeInt(drawing.game);
+                StateSnapshot.writeString(out, drawing.object);
+                out.writeByte(drawing.kind);
+                out.writeBoolean(drawing.deferred);
+                StateSnapshot.writeString(out, drawing.meta);
+                StateSnapshot.writeBytes(out, Base64.getDecoder().decode(drawing.dataBase64));
+            }
+        }
+    }
+
+    /**
+     * Read a session written by writeSnapshot(); it comes back without a connection
+     * @throws java.nio.BufferUnderflowException if the data is truncated
+     * @throws IllegalArgumentException if the session has no token or username
+     */
+    static GameSession readSnapshot(ByteBuffer in) {
+        String token = StateSnapshot.readString(in);
+        String username = StateSnapshot.readString(in);
+        if (token == null || username == null) {
+            throw new IllegalArgumentException("Session without a token or username");
+        }
+        GameSession session = new GameSession(token, username);
+        session.currentObject = StateSnapshot.readString(in);
+        int flags = in.get();
+        session.gameWon = (flags & 1) != 0;
+        session.gameInProgress = (flags & 2) != 0;
+        session.lastEndedWon = (flags & 4) != 0;
+        session.drawingsSubmitted = in.getInt();
+        session.gameNumber = in.getInt();
+        session.lastEndedGame = in.getInt();
+        session.lastSeq = in.getLong();
+        int logged = StateSnapshot.readCount(in);
+        for (int i = 0; i < logged; i++) {
+            session.replayLog.addLast(StateSnapshot.readString(in));
+        }
+        int pending = StateSnapshot.readCount(in);
+        for (int i = 0; i < pending; i++) {
+            int game = in.getInt();
+            String object = StateSnapshot.readString(in);
+            byte kind = in.get();
+            boolean deferred = in.get() != 0;
+            String meta = StateSnapshot.readString(in);
+            String data = Base64.getEncoder().encodeToString(StateSnapshot.readBytes(in));
+            PendingDrawing drawing = new PendingDrawing(game, object, kind, data, meta);
+            drawing.deferred = deferred;
+            session.restoredDrawings.add(drawing);
+        }
+        return session;
+    }
+}
@@ -0,0 +1,286 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stateless front door for several game nodes (ServerMain processes).
+ *
+ * Clients connect to the gateway exactly as to a single server. It reads
+ * the first frame (the username, or RESUME:&lt;token&gt;:&lt;seq&gt;:&lt;username&gt;),
+ * picks a node by consistent hashing on the username, forwards the frame
+ * and from then on only copies bytes both ways. A player therefore always
+ * reaches the node that holds their session, which is what makes RESUME
+ * work, and when a node joins or leaves only its share of players moves.
+ *
+ * Every healthIntervalMs the gateway asks each node's /health endpoint
+ * (see NodeDrain). Only nodes answering "ok" are on the ring: a draining
+ * or unreachable node gets no new connections, while connections already
+ * routed to it carry on until the node closes them. A node that refuses a
+ * connection is taken off the ring at once and the player goes to the next
+ * one. The gateway holds no game state, so several can run side by side.
+ *
+ * System properties:
+ *   gateway.port              listening port (default 8888)
+ *   gateway.nodes             host:gamePort:metricsPort,... (default 127.0.0.1:8891:9101)
+ *   gateway.virtualNodes      ring points per node (default 100)
+ *   gateway.healthIntervalMs  health check period (default 2000)
+ *   gateway.connectTimeoutMs  connect and health check timeout (default 2000)
+ *   liveness.handshakeMs      time a client has to send its first frame (default 10000)
+ */
+public class Gateway {
+    private static final int MAX_HELLO_BYTES = 1024;
+
+    enum State {
+        UP, DRAINING, DOWN
+    }
+
+    /**
+     * One game node
+     */
+    static class Node {
+        final String host;
+        final int port;
+        final URI health;
+        final AtomicLong connections = new AtomicLong(); // Open client connections routed here
+        volatile State state = State.DOWN;
+
+        Node(String host, int port, int metricsPort) {
+            this.host = host;
+            this.port = port;
+            this.health = URI.create("http://" + host + ":" + metricsPort + "/health");
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    private final int port;
+    private final List<Node> nodes;
+    private final int virtualNodes;
+    private final long healthIntervalMillis;
+    private final int connectTimeoutMillis;
+    private final long handshakeTimeoutMillis = Long.getLong("liveness.handshakeMs", 10_000);
+    private final HttpClient healthClient;
+    private final ExecutorService connectionThreads = Executors.newCachedThreadPool();
+    private volatile ConsistentHashRing<Node> ring = new ConsistentHashRing<>(List.of(), 0);
+
+    /**
+     * Gateway configured from the gateway.* system properties
+     */
+    public Gateway() {
+        this(Integer.getInteger("gateway.port", 8888), parseNodes(System.getProperty("gateway.nodes", "127.0.0.1:8891:9101")),
+                Integer.getInteger("gateway.virtualNodes", 100), Long.getLong("gateway.healthIntervalMs", 2_000),
+                Integer.getInteger("gateway.connectTimeoutMs", 2_000));
+    }
+
+    public Gateway(int port, List<Node> nodes, int virtualNodes, long healthIntervalMillis, int connectTimeoutMillis) {
+        this.port = port;
+        this.nodes = List.copyOf(nodes);
+        this.virtualNodes = virtualNodes;
+        this.healthIntervalMillis = healthIntervalMillis;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.healthClient = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(connectTimeoutMillis)).build();
+    }
+
+    /**
+     * host:gamePort:metricsPort,...
+     */
+    static List<Node> parseNodes(String spec) {
+        List<Node> nodes = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Expected host:gamePort:metricsPort, got " + entry);
+            }
+            nodes.add(new Node(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2])));
+        }
+        return nodes;
+    }
+
+    public void start() throws IOException {
+        checkHealth(); // Know which nodes are up before the first player arrives
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "gateway-health");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkHealth, healthIntervalMillis, healthIntervalMillis, TimeUnit.MILLISECONDS);
+
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            Log.info("gateway_started", "port", port, "nodes", nodes.size());
+            while (true) {
+                Socket client = serverSocket.accept();
+                connectionThreads.execute(() -> route(client));
+            }
+        }
+    }
+
+    /**
+     * Ask every node for its health and rebuild the ring if any node changed state
+     */
+    private void checkHealth() {
+        boolean changed = false;
+        for (Node node : nodes) {
+            State state;
+            try {
+                HttpResponse<String> response = healthClient.send(
+                        HttpRequest.newBuilder(node.health).timeout(Duration.ofMillis(connectTimeoutMillis)).GET().build(),
+                        HttpResponse.BodyHandlers.ofString());
+                state = response.statusCode() == 200 ? State.UP
+                        : "draining".equals(response.body().trim()) ? State.DRAINING : State.DOWN;
+            } catch (IOException e) {
+                state = State.DOWN;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (state != node.state) {
+                Log.info("gateway_node_state", "node", node, "from", node.state, "to", state,
+                        "connections", node.connections.get());
+                node.state = state;
+                changed = true;
+            }
+        }
+        if (changed) {
+            rebuildRing();
+        }
+    }
+
+    private synchronized void rebuildRing() {
+        List<Node> up = new ArrayList<>();
+        StringJoiner names = new StringJoiner(",");
+        for (Node node : nodes) {
+            if (node.state == State.UP) {
+                up.add(node);
+                names.add(node.toString());
+            }
+        }
+        ring = new ConsistentHashRing<>(up, virtualNodes);
+        Log.info("gateway_ring", "nodes", up.size(), "members", names.toString());
+    }
+
+    /**
+     * Read the client's first frame, connect it to its node and relay until either side closes
+     */
+    private void route(Socket client) {
+        Node node = null;
+        Socket upstream = null;
+        try {
+            client.setTcpNoDelay(true); // Frames are relayed as they arrive; don't let Nagle hold them back
+            client.setSoTimeout((int) handshakeTimeoutMillis);
+            // Unbuffered, so nothing after the first frame is read here and lost
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            int length = in.readInt();
+            if (length < 0 || length > MAX_HELLO_BYTES) {
+                Log.warn("gateway_bad_hello", "remote", client.getRemoteSocketAddress(), "bytes", length);
+                close(client);
+                return;
+            }
+            byte[] hello = new byte[length];
+            in.readFully(hello);
+            String username = usernameOf(new String(hello, StandardCharsets.UTF_8));
+            client.setSoTimeout(0);
+
+            // A node that refuses the connection leaves the ring, and the player gets the next one
+            while (upstream == null) {
+                node = ring.nodeFor(username);
+                if (node == null) {
+                    Log.warn("gateway_no_nodes", "user", username);
+                    close(client);
+                    return;
+                }
+                try {
+                    upstream = new Socket();
+                    upstream.setTcpNoDelay(true);
+                    upstream.connect(new InetSocketAddress(node.host, node.port), connectTimeoutMillis);
+                } catch (IOException e) {
+                    close(upstream);
+                    upstream = null;
+                    markDown(node, e);
+                }
+            }
+            DataOutputStream out = new DataOutputStream(upstream.getOutputStream());
+            out.writeInt(length);
+            out.write(hello);
+            out.flush();
+
+            node.connections.incrementAndGet();
+            Log.debug("gateway_routed", "user", username, "node", node);
+            Socket nodeSide = upstream;
+            connectionThreads.execute(() -> relay(nodeSide, client));
+            relay(client, nodeSide);
+            node.connections.decrementAndGet();
+        } catch (IOException e) {
+            Log.debug("gateway_connection_failed", "node", node, "error", e.toString());
+            close(client);
+            close(upstream);
+        }
+    }
+
+    private synchronized void markDown(Node node, IOException e) {
+        if (node.state != State.DOWN) {
+            Log.warn("gateway_node_state", "node", node, "from", node.state, "to", State.DOWN, "error", e.toString());
+            node.state = State.DOWN;
+            rebuildRing();
+        }
+    }
+
+    /**
+     * Copy bytes from one socket to the other until one of them closes, then close both
+     */
+    private static void relay(Socket from, Socket to) {
+        try {
+            from.getInputStream().transferTo(to.getOutputStream());
+        } catch (IOException ignored) {
+            // Either side went away; closing both below ends the other direction too
+        } finally {
+            close(from);
+            close(to);
+        }
+    }
+
+    /**
+     * Username in a handshake: the frame itself, or the last field of RESUME:<token>:<seq>:<username>
+     */
+    static String usernameOf(String hello) {
+        if (hello.startsWith("RESUME:")) {
+            String[] parts = hello.split(":", 4);
+            if (parts.length == 4) {
+                return parts[3];
+            }
+        }
+        return hello;
+    }
+
+    private static void close(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        new Gateway().start();
+    }
+}
@@ -1,50 +1,213 @@
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLSession;
 
 /**
  * Google Gemini API integration class
+ *
+ * Connection management: the client prefers HTTP/2, so every request to
+ * the API shares one multiplexed TLS connection. warmUp() opens it at server
+ * start, and while the server is idle a cheap probe every gemini.keepAliveMs
+ * stops it from being closed, so a drawing doesn't pay for DNS, TCP and TLS
+ * setup on its way to the judge. Responses over TLS are tracked by their
+ * SSL session to count new versus reused TLS sessions. HttpClient doesn't
+ * expose its connections, and a new connection that resumes a session looks
+ * the same as a reused one, so this is not a connection count; the stub's
+ * status line (LoadTest/StubJudgeServer) counts the TCP connections.
+ *
+ * System properties: gemini.url, gemini.httpVersion (2 or 1.1, default 2),
+ * gemini.clientThreads (HttpClient executor size; 0 for its default),
+ * gemini.warmUpMs (warm-up timeout, default 3000), gemini.keepAliveMs
+ * (idle time before a probe, default 45000; 0 disables probes)
  */
-public class GeminiAPI {
+public class GeminiAPI implements Judge {
     // API key hardcoded here
     private static final String API_KEY = "YOU_GEMINI_API";
-    private static final String API_URL = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash:generateContent?key=" + API_KEY;
+    // Can be pointed at a local stub (LoadTest/StubJudgeServer) with -Dgemini.url=...
+    private static final String API_URL = System.getProperty("gemini.url", modelUrl("gemini-2.5-flash"));
+    private static final boolean PREFER_HTTP2 = !"1.1".equals(System.getProperty("gemini.httpVersion", "2"));
+    private static final int CLIENT_THREADS = Integer.getInteger("gemini.clientThreads", 0);
+    private static final long WARM_UP_MS = Long.getLong("gemini.warmUpMs", 3_000);
+    private static final long KEEP_ALIVE_MS = Long.getLong("gemini.keepAliveMs", 45_000);
+    private static final int MAX_TRACKED_SESSIONS = 256;
     
     private HttpClient httpClient;
+    private final URI apiUri;
+    private final URI origin; // scheme://host:port/ of the API, for warm-up and keep-alive probes
+    private final ServerMetrics metrics = ServerMetrics.get();
+    private volatile long lastRequestNanos = System.nanoTime();
+    private ScheduledExecutorService keepAlive;
+    // SSL sessions seen recently; guarded by itself
+    private final Set<String> knownSessions = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_TRACKED_SESSIONS;
+        }
+    });
     
     public GeminiAPI() {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
+        this(API_URL);
+    }
+    
+    /**
+     * Client for another model or endpoint (e.g. a cheaper model in CascadeJudge, or a stub)
+     */
+    public GeminiAPI(String url) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(PREFER_HTTP2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10));
+        if (CLIENT_THREADS > 0) {
+            AtomicInteger threads = new AtomicInteger();
+            builder.executor(Executors.newFixedThreadPool(CLIENT_THREADS, r -> {
+                Thread t = new Thread(r, "gemini-http-" + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }));
+        }
+        this.httpClient = builder.build();
+        this.apiUri = URI.create(url);
+        this.origin = URI.create(apiUri.getScheme() + "://" + apiUri.getRawAuthority() + "/");
+    }
+    
+    /**
+     * generateContent URL of a Gemini model, with the API key
+     */
+    public static String modelUrl(String model) {
+        return "https://generativelanguage.googleapis.com/v1beta/models/" + model + ":generateContent?key=" + API_KEY;
+    }
+    
+    /**
+     * Open the connection to the API before the first drawing needs it. Waits at most
+     * gemini.warmUpMs; a failure is only logged, and the first drawing connects as before.
+     */
+    public void warmUp() {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<Void> response = probe(Duration.ofMillis(WARM_UP_MS));
+            Log.info("gemini_warm_up", "millis", (System.nanoTime() - start) / 1_000_000,
+                    "version", response.version(), "status", response.statusCode());
+        } catch (Exception e) {
+            Log.warn("gemini_warm_up_failed", "millis", (System.nanoTime() - start) / 1_000_000, "error", e.toString());
+        }
+    }
+    
+    /**
+     * Probe the API whenever no request was made for gemini.keepAliveMs, so the
+     * connection isn't closed as idle between games
+     */
+    public void startKeepAlive() {
+        if (KEEP_ALIVE_MS <= 0 || keepAlive != null) {
+            return;
+        }
+        keepAlive = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "gemini-keep-alive");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1_000, KEEP_ALIVE_MS / 3);
+        keepAlive.scheduleWithFixedDelay(() -> {
+            if (System.nanoTime() - lastRequestNanos < TimeUnit.MILLISECONDS.toNanos(KEEP_ALIVE_MS)) {
+                return;
+            }
+            try {
+                probe(Duration.ofSeconds(10));
+                metrics.geminiKeepAliveProbes.increment();
+            } catch (Exception e) {
+                Log.debug("gemini_keep_alive_failed", "error", e.toString());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    public void stopKeepAlive() {
+        if (keepAlive != null) {
+            keepAlive.shutdownNow();
+        }
+    }
+    
+    /**
+     * GET the API's root: any answer (even 404) means the connection is open
+     */
+    private HttpResponse<Void> probe(Duration timeout) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(origin).GET().timeout(timeout).build();
+        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        lastRequestNanos = System.nanoTime();
+        recordTlsSession(response);
+        return response;
+    }
+    
+    /**
+     * Count the response's SSL session as new or reused (TLS only), and HTTP/2 responses
+     */
+    private void recordTlsSession(HttpResponse<?> response) {
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            metrics.geminiHttp2Responses.increment();
+        }
+        if (response.sslSession().isEmpty()) {
+            return;
+        }
+        SSLSession ssl = response.sslSession().get();
+        String key = Base64.getEncoder().encodeToString(ssl.getId()) + ':' + ssl.getCreationTime();
+        boolean added;
+        synchronized (knownSessions) {
+            added = knownSessions.add(key);
+        }
+        (added ? metrics.geminiTlsSessionsNew : metrics.geminiTlsSessionsReused).increment();
     }
     
     /**
      * Analyze drawing and return AI judgment result
+     * @throws IOException if Gemini answers with an error status (including 429), so
+     *                     JudgeService's circuit breaker counts it as a failure
      */
+    @Override
     public String analyzeDrawing(String imageBase64, String prompt) throws Exception {
         // Build JSON request body
         String jsonBody = buildRequestJson(imageBase64, prompt);
         
         // Create HTTP request
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(API_URL))
+                .uri(apiUri)
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
                 .timeout(Duration.ofSeconds(30))
                 .build();
         
         // Send request and get response
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        long start = System.nanoTime();
+        HttpResponse<String> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (Exception e) {
+            metrics.geminiErrors.increment();
+            throw e;
+        } finally {
+            lastRequestNanos = System.nanoTime();
+            metrics.geminiLatencyMicros.record((System.nanoTime() - start) / 1000);
+        }
+        recordTlsSession(response);
         
         // Handle different response status codes
         if (response.statusCode() == 429) {
             // Rate limit exceeded
-            return "{\"object\":\"unknown\",\"comment\":\"API rate limit exceeded. Please wait a moment and try again.\"}";
+            metrics.geminiRateLimited.increment();
+            throw new IOException("Gemini rate limit exceeded (HTTP 429)");
         } else if (response.statusCode() != 200) {
             // Other API errors
-            return "{\"object\":\"unknown\",\"comment\":\"API error occurred. Please try again.\"}";
+            metrics.geminiErrors.increment();
+            throw new IOException("Gemini returned HTTP " + response.statusCode());
         }
         
         // Parse response
@@ -79,7 +242,8 @@ public class GeminiAPI {
                 "Identify which object from this list you see in the drawing. " +
                 "Respond ONLY with a valid JSON object in this exact format: " +
                 "{\"object\": \"the exact name from the list above (must match exactly, lowercase)\", " +
-                "\"comment\": \"a brief, humorous comment about the drawing (max 50 words)\"}. " +
+                "\"comment\": \"a brief, humorous comment about the drawing (max 50 words)\", " +
+                "\"confidence\": a number from 0 to 1 for how sure you are of the object}. " +
                 "The object name MUST be one of the items from the list above. " +
                 "If the drawing is unclear or doesn't match any item in the list, use \"unknown\" as the object name. " +
                 "Make the comment witty and concise.";
@@ -0,0 +1,53 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * StatsStore kept in memory, for tests and nodes that don't need the
+ * numbers to outlive them (-Dstats.store=memory). Nodes in separate
+ * processes do not share it.
+ */
+public class InMemoryStatsStore implements StatsStore {
+    private final Map<String, int[]> users = new HashMap<>(); // Username -> {games, score}; guarded by this
+
+    @Override
+    public synchronized void updateUserScore(String username, boolean correct) {
+        int[] stats = users.computeIfAbsent(username, u -> new int[2]);
+        stats[0]++;
+        if (correct) {
+            stats[1]++;
+        }
+    }
+
+    @Override
+    public synchronized void addWin(String username) {
+        users.computeIfAbsent(username, u -> new int[2])[1]++;
+    }
+
+    @Override
+    public synchronized int getUserScore(String username) {
+        int[] stats = users.get(username);
+        return stats == null ? 0 : stats[1];
+    }
+
+    @Override
+    public synchronized int getUserGames(String username) {
+        int[] stats = users.get(username);
+        return stats == null ? 0 : stats[0];
+    }
+
+    @Override
+    public synchronized Map<String, Integer> getLeaderboard(int limit) {
+        Map<String, Integer> top = new LinkedHashMap<>();
+        users.entrySet().stream()
+                .sorted((a, b) -> a.getValue()[1] != b.getValue()[1]
+                        ? Integer.compare(b.getValue()[1], a.getValue()[1]) : a.getKey().compareTo(b.getKey()))
+                .limit(limit)
+                .forEach(e -> top.put(e.getKey(), e.getValue()[1]));
+        return top;
+    }
+
+    @Override
+    public void close() {
+    }
+}
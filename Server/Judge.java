@@ -0,0 +1,13 @@
+/**
+ * Something that looks at a drawing and says what it shows.
+ *
+ * The verdict is a JSON object {"object": "...", "comment": "..."} where
+ * object is one of ClientHandler.getPossibleObjects() or "unknown", and
+ * may carry a "confidence" between 0 and 1 (see CascadeJudge).
+ * Implementations throw when they could not produce a real verdict (network
+ * failure, error status), so callers such as JudgeService can tell a wrong
+ * guess from an outage.
+ */
+public interface Judge {
+    String analyzeDrawing(String imageBase64, String prompt) throws Exception;
+}
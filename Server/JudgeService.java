@@ -0,0 +1,231 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Judging with a circuit breaker around the real judge (GeminiAPI) and a
+ * degraded mode for when it is failing.
+ *
+ * While the breaker is closed every drawing goes to the real judge. When a
+ * call fails, or the breaker is open and rejects it up front, the drawing is
+ * handled by the configured degraded mode instead:
+ * <ul>
+ *   <li>LOCAL: LocalJudge answers at once (never a win).</li>
+ *   <li>CACHE: the real judge's earlier verdict for the identical image, if
+ *       there is one (a player resubmitting after an error, a blank
+ *       canvas); otherwise LOCAL.</li>
+ *   <li>LATER: a cached verdict if there is one; otherwise the player is told
+ *       the drawing will be scored later and it is queued. A background
+ *       thread judges queued drawings once the breaker lets calls through
+ *       again and hands each verdict to the caller's callback.</li>
+ * </ul>
+ *
+ * System properties: judge.degradedMode (local, cache or later; default
+ * cache), judge.cacheSize (verdicts kept, default 10000),
+ * judge.deferredMax (queued drawings, default 1000),
+ * judge.deferredMaxAgeMs (default 600000), plus the judge.breaker.*
+ * settings of CircuitBreaker.
+ */
+public class JudgeService {
+    public enum DegradedMode {
+        LOCAL, CACHE, LATER
+    }
+
+    static final String PENDING_VERDICT = "{\"object\":\"unknown\",\"comment\":\"The AI judge is busy right now. "
+            + "This drawing will be scored as soon as it is back.\"}";
+    private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * A drawing waiting for the real judge
+     */
+    private static class Deferred {
+        final String imageBase64;
+        final String prompt;
+        final Consumer<String> lateVerdict;
+        final long queuedAt = System.nanoTime();
+
+        Deferred(String imageBase64, String prompt, Consumer<String> lateVerdict) {
+            this.imageBase64 = imageBase64;
+            this.prompt = prompt;
+            this.lateVerdict = lateVerdict;
+        }
+    }
+
+    private final Judge primary;
+    private final Judge local;
+    private final CircuitBreaker breaker;
+    private final DegradedMode mode;
+    private final Map<String, String> verdicts; // Image hash -> real verdict, LRU; guarded by itself
+    private final LinkedBlockingDeque<Deferred> deferred;
+    private final long deferredMaxAgeNanos;
+    private final ServerMetrics metrics = ServerMetrics.get();
+
+    /**
+     * Service configured from system properties
+     */
+    public JudgeService(Judge primary) {
+        this(primary, new LocalJudge(), new CircuitBreaker("judge"),
+                DegradedMode.valueOf(System.getProperty("judge.degradedMode", "cache").toUpperCase()),
+                Integer.getInteger("judge.cacheSize", 10_000), Integer.getInteger("judge.deferredMax", 1000),
+                Long.getLong("judge.deferredMaxAgeMs", 600_000));
+    }
+
+    public JudgeService(Judge primary, Judge local, CircuitBreaker breaker, DegradedMode mode,
+                        int cacheSize, int deferredMax, long deferredMaxAgeMillis) {
+        this.primary = primary;
+        this.local = local;
+        this.breaker = breaker;
+        this.mode = mode;
+        this.verdicts = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.deferred = new LinkedBlockingDeque<>(deferredMax);
+        this.deferredMaxAgeNanos = TimeUnit.MILLISECONDS.toNanos(deferredMaxAgeMillis);
+        metrics.registerGauge("pictionary_judge_deferred_pending", deferred::size);
+        if (mode == DegradedMode.LATER) {
+            Thread worker = new Thread(this::deferredLoop, "deferred-judging");
+            worker.setDaemon(true);
+            worker.start();
+        }
+        Log.info("judge_service_started", "degraded_mode", mode);
+    }
+
+    /**
+     * Judge a drawing, falling back to the degraded mode if the real judge is unavailable
+     * @param lateVerdict receives the real verdict of a drawing deferred in LATER mode
+     *                    (on the deferred-judging thread); null to never defer
+     * @return a verdict; never throws
+     */
+    public String analyzeDrawing(String imageBase64, String prompt, Consumer<String> lateVerdict) {
+        if (breaker.allowRequest()) {
+            String verdict = callPrimary(imageBase64, prompt);
+            if (verdict != null) {
+                return verdict;
+            }
+        } else {
+            metrics.judgeRejected.increment();
+        }
+        return degraded(imageBase64, prompt, lateVerdict);
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Copy of the cached verdicts by image hash, least recently used first (for StateSnapshot)
+     */
+    Map<String, String> cachedVerdicts() {
+        synchronized (verdicts) {
+            return new LinkedHashMap<>(verdicts);
+        }
+    }
+
+    /**
+     * Put back verdicts from cachedVerdicts(), e.g. after a restart
+     */
+    void restoreVerdicts(Map<String, String> restored) {
+        if (mode == DegradedMode.LOCAL) {
+            return; // Never consulted
+        }
+        synchronized (verdicts) {
+            verdicts.putAll(restored);
+        }
+    }
+
+    /**
+     * Call the real judge and report the outcome to the breaker
+     * @return the verdict, or null if the call failed
+     */
+    private String callPrimary(String imageBase64, String prompt) {
+        long start = System.nanoTime();
+        try {
+            String verdict = primary.analyzeDrawing(imageBase64, prompt);
+            breaker.onSuccess((System.nanoTime() - start) / 1000);
+            if (mode != DegradedMode.LOCAL) {
+                synchronized (verdicts) {
+                    verdicts.put(hash(imageBase64), verdict);
+                }
+            }
+            return verdict;
+        } catch (Exception e) {
+            breaker.onFailure((System.nanoTime() - start) / 1000);
+            Log.warn("judge_call_failed", "error", e.toString(), "breaker", breaker.getState());
+            return null;
+        }
+    }
+
+    private String degraded(String imageBase64, String prompt, Consumer<String> lateVerdict) {
+        if (mode != DegradedMode.LOCAL) {
+            String cached;
+            synchronized (verdicts) {
+                cached = verdicts.get(hash(imageBase64));
+            }
+            if (cached != null) {
+                metrics.judgeDegraded[DegradedMode.CACHE.ordinal()].increment();
+                return cached;
+            }
+        }
+        if (mode == DegradedMode.LATER && lateVerdict != null
+                && deferred.offerLast(new Deferred(imageBase64, prompt, lateVerdict))) {
+            metrics.judgeDegraded[DegradedMode.LATER.ordinal()].increment();
+            return PENDING_VERDICT;
+        }
+        metrics.judgeDegraded[DegradedMode.LOCAL.ordinal()].increment();
+        try {
+            return local.analyzeDrawing(imageBase64, prompt);
+        } catch (Exception e) {
+            Log.error("local_judge_failed", e);
+            return "{\"object\":\"unknown\",\"comment\":\"Error occurred. Please try again.\"}";
+        }
+    }
+
+    /**
+     * Judge deferred drawings, oldest first, whenever the breaker lets a call through
+     */
+    private void deferredLoop() {
+        while (true) {
+            try {
+                Deferred job = deferred.takeFirst();
+                if (System.nanoTime() - job.queuedAt > deferredMaxAgeNanos) {
+                    metrics.judgeDeferredDropped.increment();
+                    Log.info("deferred_drawing_expired", "age_ms", (System.nanoTime() - job.queuedAt) / 1_000_000);
+                    continue;
+                }
+                String verdict = breaker.allowRequest() ? callPrimary(job.imageBase64, job.prompt) : null;
+                if (verdict == null) {
+                    // Still unavailable: keep the job at the front and wait for the breaker
+                    if (!deferred.offerFirst(job)) {
+                        metrics.judgeDeferredDropped.increment();
+                    }
+                    TimeUnit.NANOSECONDS.sleep(Math.max(RETRY_NANOS, breaker.remainingOpenNanos()));
+                    continue;
+                }
+                metrics.judgeDeferredScored.increment();
+                job.lateVerdict.accept(verdict);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                Log.error("deferred_verdict_failed", e);
+            }
+        }
+    }
+
+    private static String hash(String imageBase64) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(imageBase64.getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Judging worker process, started by JudgeWorkerPool (or by hand).
+ *
+ * Connects to the pool on 127.0.0.1, judges the drawings it is sent with
+ * the same judge the server would use in-process (ServerMain.connectJudge())
+ * on up to judge.pool.concurrency threads, and answers heartbeats on the
+ * reading thread so a burst of slow calls doesn't look like a hang. It
+ * exits when told to STOP (after answering the drawings in hand) or when
+ * the connection to the server closes.
+ *
+ * Usage: java JudgeWorker &lt;pool port&gt; &lt;worker id&gt;
+ */
+public class JudgeWorker {
+    private static final long STOP_GRACE_SECONDS = 120;
+
+    private final String id;
+    private final FrameCodec codec; // Writes guarded by itself
+    private final Judge judge;
+    private final ExecutorService threads;
+    private final int concurrency;
+
+    JudgeWorker(String id, Socket socket, Judge judge, int concurrency) throws IOException {
+        this.id = id;
+        this.codec = new FrameCodec(socket.getInputStream(), socket.getOutputStream());
+        this.judge = judge;
+        this.concurrency = concurrency;
+        this.threads = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread t = new Thread(r, "judge-worker-" + id);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    void run() throws IOException, InterruptedException {
+        send("HELLO:" + id + ":" + concurrency);
+        Log.info("judge_worker_started", "worker", id, "concurrency", concurrency);
+        try {
+            while (true) {
+                String message = codec.readMessage();
+                if (message.startsWith("PING:")) {
+                    send("PONG:" + message.substring(5));
+                } else if (message.startsWith("JOB:")) {
+                    // JOB:<job>:<prompt>|<base64 PNG>
+                    int colon = message.indexOf(':', 4);
+                    int bar = message.indexOf('|', colon + 1);
+                    String job = message.substring(4, colon);
+                    String prompt = message.substring(colon + 1, bar);
+                    String imageBase64 = message.substring(bar + 1);
+                    threads.execute(() -> judge(job, imageBase64, prompt));
+                } else if (message.equals("STOP")) {
+                    Log.info("judge_worker_stopping", "worker", id);
+                    threads.shutdown();
+                    threads.awaitTermination(STOP_GRACE_SECONDS, TimeUnit.SECONDS);
+                    return;
+                }
+            }
+        } catch (EOFException e) {
+            Log.info("judge_worker_disconnected", "worker", id);
+        }
+    }
+
+    private void judge(String job, String imageBase64, String prompt) {
+        String reply;
+        try {
+            reply = "DONE:" + job + ":" + judge.analyzeDrawing(imageBase64, prompt);
+        } catch (Exception e) {
+            reply = "FAIL:" + job + ":" + e;
+        }
+        try {
+            send(reply);
+        } catch (IOException e) {
+            Log.warn("judge_worker_reply_failed", "worker", id, "job", job, "error", e.toString());
+        }
+    }
+
+    private void send(String message) throws IOException {
+        synchronized (codec) {
+            codec.writeMessage(message);
+            codec.flush();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 2) {
+            System.err.println("Usage: java JudgeWorker <pool port> <worker id>");
+            System.exit(2);
+        }
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]));
+        socket.setTcpNoDelay(true);
+        ServerMetrics.get().start(); // Periodic log dump of this worker's Gemini and cascade metrics
+        Judge judge = ServerMain.connectJudge();
+        new JudgeWorker(args[1], socket, judge, Integer.getInteger("judge.pool.concurrency", 16)).run();
+        socket.close();
+        System.exit(0);
+    }
+}
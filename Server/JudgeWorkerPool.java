@@ -0,0 +1,530 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Judge that hands drawings to separate JudgeWorker processes, so request
+ * building, the API call, response parsing (and with the cascade the
+ * local judge's PNG decode) neither compete with the socket threads for
+ * CPU nor fill this JVM's heap with large strings.
+ *
+ * Workers connect to a port on 127.0.0.1 and speak FrameCodec frames:
+ * <pre>
+ *   worker -> pool   HELLO:&lt;id&gt;:&lt;concurrency&gt;
+ *   pool -> worker   JOB:&lt;job&gt;:&lt;prompt&gt;|&lt;base64 PNG&gt;
+ *   worker -> pool   DONE:&lt;job&gt;:&lt;verdict&gt;  or  FAIL:&lt;job&gt;:&lt;error&gt;
+ *   pool -> worker   PING:&lt;n&gt;   answered with PONG:&lt;n&gt;
+ *   pool -> worker   STOP        (finish the jobs in hand, then exit)
+ * </pre>
+ *
+ * Dispatch: a new drawing goes to the queue of the least loaded worker. A
+ * worker with free capacity takes the oldest drawing from its own queue,
+ * or if that is empty steals the newest one from the longest queue, so a
+ * worker stuck on slow calls doesn't hold on to work others could do.
+ *
+ * Health: every heartbeatMs each worker is pinged; one that hasn't
+ * answered for three heartbeats, or whose connection drops, is dropped
+ * (and its process killed). Its drawings go back to the queue once; a
+ * drawing that loses a second worker fails like any judge error.
+ *
+ * Autoscaling: the pool starts minWorkers processes, adds one while more
+ * than scaleUpQueued drawings per worker are waiting (up to maxWorkers),
+ * and stops a worker that has been idle for scaleDownIdleMs while nothing
+ * is waiting (down to minWorkers).
+ *
+ * Workers are started with this JVM's -D options, so they build the same
+ * judge (ServerMain.connectJudge()), plus judge.pool.workerJvmArgs. Their
+ * Gemini and cascade metrics go to their own log dumps.
+ *
+ * System properties: judge.pool.port (default 0, any free port),
+ * judge.pool.minWorkers (1), judge.pool.maxWorkers (4),
+ * judge.pool.concurrency (drawings in hand per worker, 16),
+ * judge.pool.scaleUpQueued (8), judge.pool.scaleDownIdleMs (30000),
+ * judge.pool.heartbeatMs (2000), judge.pool.timeoutMs (60000),
+ * judge.pool.workerJvmArgs (e.g. "-Xmx256m", default none)
+ */
+public class JudgeWorkerPool implements Judge {
+    private static final int MAX_ATTEMPTS = 2;
+    private static final long HELLO_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * One drawing to judge
+     */
+    private static class Job {
+        final long id;
+        final String imageBase64;
+        final String prompt;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final long queuedAt = System.nanoTime();
+        int attempts; // Guarded by the pool lock
+
+        Job(long id, String imageBase64, String prompt) {
+            this.id = id;
+            this.imageBase64 = imageBase64;
+            this.prompt = prompt;
+        }
+    }
+
+    /**
+     * A connected worker process
+     */
+    private static class Worker {
+        final String id;
+        final Socket socket;
+        final FrameCodec codec; // Writes guarded by itself
+        final Process process; // Null for a worker started by hand
+        final int concurrency;
+        // Guarded by the pool lock
+        final ArrayDeque<Job> queue = new ArrayDeque<>();
+        final Map<Long, Job> running = new HashMap<>();
+        long idleSince = System.nanoTime();
+        boolean retiring;
+        boolean gone;
+        volatile long lastPongNanos = System.nanoTime();
+
+        Worker(String id, Socket socket, FrameCodec codec, Process process, int concurrency) {
+            this.id = id;
+            this.socket = socket;
+            this.codec = codec;
+            this.process = process;
+            this.concurrency = concurrency;
+        }
+
+        int load() {
+            return queue.size() + running.size();
+        }
+
+        void send(String message) throws IOException {
+            synchronized (codec) {
+                codec.writeMessage(message);
+                codec.flush();
+            }
+        }
+    }
+
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final int scaleUpQueued;
+    private final long scaleDownIdleNanos;
+    private final long heartbeatMillis;
+    private final long timeoutMillis;
+    private final String workerJvmArgs;
+    private final ServerSocket serverSocket;
+    private final ServerMetrics metrics = ServerMetrics.get();
+    private final AtomicLong jobIds = new AtomicLong();
+    private final AtomicLong workerIds = new AtomicLong();
+    private final AtomicLong pings = new AtomicLong();
+
+    private final Object lock = new Object();
+    // Guarded by lock
+    private final List<Worker> workers = new ArrayList<>();
+    private final ArrayDeque<Job> backlog = new ArrayDeque<>(); // Waiting while no worker is connected, or given back by one that was lost
+    private final Map<String, Process> starting = new HashMap<>(); // Spawned, not yet connected
+
+    /**
+     * Pool configured from the judge.pool.* system properties; starts the first workers
+     */
+    public JudgeWorkerPool() {
+        this(Integer.getInteger("judge.pool.port", 0), Integer.getInteger("judge.pool.minWorkers", 1),
+                Integer.getInteger("judge.pool.maxWorkers", 4), Integer.getInteger("judge.pool.scaleUpQueued", 8),
+                Long.getLong("judge.pool.scaleDownIdleMs", 30_000), Long.getLong("judge.pool.heartbeatMs", 2_000),
+                Long.getLong("judge.pool.timeoutMs", 60_000), System.getProperty("judge.pool.workerJvmArgs", ""));
+    }
+
+    public JudgeWorkerPool(int port, int minWorkers, int maxWorkers, int scaleUpQueued, long scaleDownIdleMillis,
+                           long heartbeatMillis, long timeoutMillis, String workerJvmArgs) {
+        if (minWorkers < 0 || maxWorkers < Math.max(1, minWorkers)) {
+            throw new IllegalArgumentException("Invalid judge worker pool size " + minWorkers + ".." + maxWorkers);
+        }
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+        this.scaleUpQueued = scaleUpQueued;
+        this.scaleDownIdleNanos = TimeUnit.MILLISECONDS.toNanos(scaleDownIdleMillis);
+        this.heartbeatMillis = heartbeatMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.workerJvmArgs = workerJvmArgs;
+        try {
+            this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the judge worker port " + port, e);
+        }
+
+        metrics.registerGauge("pictionary_judge_pool_workers", () -> {
+            synchronized (lock) {
+                return workers.size();
+            }
+        });
+        metrics.registerGauge("pictionary_judge_pool_queued", this::queued);
+
+        daemon("judge-pool-accept", this::acceptLoop).start();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> daemon("judge-pool-monitor", r));
+        scheduler.scheduleWithFixedDelay(this::monitor, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        // Workers also exit when their connection closes; this covers the ones still starting
+        Runtime.getRuntime().addShutdownHook(new Thread(this::destroyProcesses));
+        Log.info("judge_pool_started", "port", serverSocket.getLocalPort(), "min", minWorkers, "max", maxWorkers);
+    }
+
+    @Override
+    public String analyzeDrawing(String imageBase64, String prompt) throws Exception {
+        Job job = new Job(jobIds.incrementAndGet(), imageBase64, prompt);
+        synchronized (lock) {
+            Worker target = null;
+            for (Worker worker : workers) {
+                if (!worker.retiring && (target == null || worker.load() < target.load())) {
+                    target = worker;
+                }
+            }
+            (target != null ? target.queue : backlog).addLast(job);
+            lock.notifyAll();
+        }
+        try {
+            return job.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            synchronized (lock) {
+                // Don't spend an API call on a drawing nobody is waiting for any more
+                backlog.remove(job);
+                workers.forEach(worker -> worker.queue.remove(job));
+            }
+            throw new IOException("No verdict from the judge workers within " + timeoutMillis + " ms");
+        } finally {
+            metrics.judgePoolLatencyMicros.record((System.nanoTime() - job.queuedAt) / 1000);
+        }
+    }
+
+    private int queued() {
+        synchronized (lock) {
+            int queued = backlog.size();
+            for (Worker worker : workers) {
+                queued += worker.queue.size();
+            }
+            return queued;
+        }
+    }
+
+    private void acceptLoop() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                Log.error("judge_pool_accept_failed", e);
+                return;
+            }
+            daemon("judge-pool-hello", () -> register(socket)).start();
+        }
+    }
+
+    /**
+     * Read a new connection's HELLO and start serving it
+     */
+    private void register(Socket socket) {
+        Worker worker;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout((int) HELLO_TIMEOUT_MILLIS);
+            FrameCodec codec = new FrameCodec(socket.getInputStream(), socket.getOutputStream());
+            String[] hello = codec.readMessage().split(":");
+            if (hello.length != 3 || !"HELLO".equals(hello[0])) {
+                throw new IOException("Expected HELLO:<id>:<concurrency>");
+            }
+            socket.setSoTimeout(0);
+            synchronized (lock) {
+                worker = new Worker(hello[1], socket, codec, starting.remove(hello[1]), Math.max(1, Integer.parseInt(hello[2])));
+                workers.add(worker);
+                // A new worker starts on the backlog
+                worker.queue.addAll(backlog);
+                backlog.clear();
+                lock.notifyAll();
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.warn("judge_worker_rejected", "remote", socket.getRemoteSocketAddress(), "error", e.toString());
+            closeQuietly(socket);
+            return;
+        }
+        Log.info("judge_worker_connected", "worker", worker.id, "concurrency", worker.concurrency,
+                "spawned", worker.process != null);
+        daemon("judge-worker-" + worker.id + "-send", () -> sendLoop(worker)).start();
+        daemon("judge-worker-" + worker.id + "-receive", () -> receiveLoop(worker)).start();
+    }
+
+    /**
+     * Hand the worker drawings while it has capacity: its own queue first, then stolen ones
+     */
+    private void sendLoop(Worker worker) {
+        try {
+            while (true) {
+                Job job;
+                synchronized (lock) {
+                    while (true) {
+                        if (worker.gone) {
+                            return;
+                        }
+                        job = worker.running.size() < worker.concurrency ? nextJob(worker) : null;
+                        if (job != null || (worker.retiring && worker.load() == 0)) {
+                            break;
+                        }
+                        lock.wait();
+                    }
+                    if (job != null) {
+                        worker.running.put(job.id, job);
+                        job.attempts++;
+                    }
+                }
+                if (job == null) {
+                    worker.send("STOP"); // Retired: it exits once it has answered everything
+                    return;
+                }
+                worker.send("JOB:" + job.id + ":" + job.prompt + "|" + job.imageBase64);
+            }
+        } catch (IOException e) {
+            lost(worker, "send_failed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Oldest drawing in the worker's own queue, else the newest one of the longest queue (caller holds lock)
+     */
+    private Job nextJob(Worker worker) {
+        Job job = worker.queue.pollFirst();
+        if (job != null || worker.retiring) {
+            return job;
+        }
+        job = backlog.pollFirst();
+        if (job != null) {
+            return job;
+        }
+        Worker victim = null;
+        for (Worker other : workers) {
+            if (other != worker && !other.queue.isEmpty() && (victim == null || other.queue.size() > victim.queue.size())) {
+                victim = other;
+            }
+        }
+        if (victim == null) {
+            return null;
+        }
+        metrics.judgePoolSteals.increment();
+        return victim.queue.pollLast();
+    }
+
+    private void receiveLoop(Worker worker) {
+        try {
+            while (true) {
+                String message = worker.codec.readMessage();
+                if (message.startsWith("PONG:")) {
+                    worker.lastPongNanos = System.nanoTime();
+                    continue;
+                }
+                String[] parts = message.split(":", 3);
+                if (parts.length < 3 || !("DONE".equals(parts[0]) || "FAIL".equals(parts[0]))) {
+                    Log.warn("judge_worker_bad_message", "worker", worker.id, "type", parts[0]);
+                    continue;
+                }
+                Job job;
+                synchronized (lock) {
+                    job = worker.running.remove(Long.parseLong(parts[1]));
+                    if (worker.running.isEmpty()) {
+                        worker.idleSince = System.nanoTime();
+                    }
+                    lock.notifyAll();
+                }
+                if (job == null) {
+                    continue;
+                }
+                if ("DONE".equals(parts[0])) {
+                    job.result.complete(parts[2]);
+                } else {
+                    job.result.completeExceptionally(new IOException("Judge worker " + worker.id + ": " + parts[2]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            lost(worker, worker.retiring ? "retired" : "disconnected");
+        }
+    }
+
+    /**
+     * Drop a worker and give its drawings to the others; a drawing that already lost a worker fails
+     */
+    private void lost(Worker worker, String reason) {
+        List<Job> failed = new ArrayList<>();
+        synchronized (lock) {
+            if (worker.gone) {
+                return;
+            }
+            worker.gone = true;
+            workers.remove(worker);
+            List<Job> orphans = new ArrayList<>(worker.running.values());
+            orphans.addAll(worker.queue);
+            worker.running.clear();
+            worker.queue.clear();
+            for (Job job : orphans) {
+                if (job.attempts >= MAX_ATTEMPTS) {
+                    failed.add(job);
+                } else {
+                    backlog.addLast(job);
+                    metrics.judgePoolRequeued.increment();
+                }
+            }
+            lock.notifyAll();
+        }
+        for (Job job : failed) {
+            job.result.completeExceptionally(new IOException("Judge worker " + worker.id + " lost (" + reason + ")"));
+        }
+        if ("retired".equals(reason)) {
+            metrics.judgePoolRetired.increment();
+            Log.info("judge_worker_retired", "worker", worker.id);
+        } else {
+            metrics.judgePoolWorkerFailures.increment();
+            Log.warn("judge_worker_lost", "worker", worker.id, "reason", reason, "failed", failed.size());
+        }
+        closeQuietly(worker.socket);
+        if (worker.process != null && !"retired".equals(reason)) {
+            worker.process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Heartbeat, health check and autoscaling; runs every heartbeatMs
+     */
+    private void monitor() {
+        try {
+            long now = System.nanoTime();
+            List<Worker> unresponsive = new ArrayList<>();
+            List<Worker> alive = new ArrayList<>();
+            int spawn = 0;
+            synchronized (lock) {
+                for (Worker worker : workers) {
+                    (now - worker.lastPongNanos > TimeUnit.MILLISECONDS.toNanos(3 * heartbeatMillis) ? unresponsive : alive).add(worker);
+                }
+                int active = 0;
+                int queued = backlog.size();
+                Worker idlest = null;
+                for (Worker worker : alive) {
+                    queued += worker.queue.size();
+                    if (!worker.retiring) {
+                        active++;
+                        if (worker.load() == 0 && (idlest == null || worker.idleSince - idlest.idleSince < 0)) {
+                            idlest = worker;
+                        }
+                    }
+                }
+                int total = active + starting.size();
+                if (total < minWorkers) {
+                    spawn = minWorkers - total;
+                } else if (starting.isEmpty() && total < maxWorkers && queued > scaleUpQueued * Math.max(1, active)) {
+                    spawn = 1;
+                } else if (queued == 0 && active > minWorkers && idlest != null && now - idlest.idleSince > scaleDownIdleNanos) {
+                    idlest.retiring = true;
+                    Log.info("judge_pool_scale_down", "worker", idlest.id, "workers", active - 1);
+                    lock.notifyAll();
+                }
+                if (spawn > 0 && total > 0) {
+                    Log.info("judge_pool_scale_up", "queued", queued, "workers", total + spawn);
+                }
+            }
+            for (Worker worker : unresponsive) {
+                lost(worker, "unresponsive");
+            }
+            String ping = "PING:" + pings.incrementAndGet();
+            for (Worker worker : alive) {
+                try {
+                    worker.send(ping);
+                } catch (IOException e) {
+                    lost(worker, "send_failed");
+                }
+            }
+            for (int i = 0; i < spawn; i++) {
+                spawn();
+            }
+        } catch (RuntimeException e) {
+            Log.error("judge_pool_monitor_failed", e);
+        }
+    }
+
+    /**
+     * Start a JudgeWorker process that connects back to this pool
+     */
+    private void spawn() {
+        String id = "w" + workerIds.incrementAndGet();
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (arg.startsWith("-D")) {
+                command.add(arg);
+            }
+        }
+        command.add("-Dmetrics.port=0"); // Metrics go to the worker's log dump; the port is this server's
+        for (String arg : workerJvmArgs.trim().split("\\s+")) {
+            if (!arg.isEmpty()) {
+                command.add(arg);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("JudgeWorker");
+        command.add(Integer.toString(serverSocket.getLocalPort()));
+        command.add(id);
+        try {
+            Process process = new ProcessBuilder(command).inheritIO().start();
+            synchronized (lock) {
+                starting.put(id, process);
+            }
+            metrics.judgePoolSpawned.increment();
+            Log.info("judge_worker_spawned", "worker", id, "pid", process.pid());
+            process.onExit().thenRun(() -> {
+                synchronized (lock) {
+                    if (starting.remove(id) != null) {
+                        metrics.judgePoolWorkerFailures.increment();
+                        Log.warn("judge_worker_lost", "worker", id, "reason", "exited_before_hello",
+                                "exit_code", process.exitValue());
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.error("judge_worker_spawn_failed", e, "worker", id);
+        }
+    }
+
+    private void destroyProcesses() {
+        synchronized (lock) {
+            starting.values().forEach(Process::destroy);
+            for (Worker worker : workers) {
+                if (worker.process != null) {
+                    worker.process.destroy();
+                }
+            }
+        }
+    }
+
+    private static Thread daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
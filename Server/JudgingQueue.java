@@ -0,0 +1,141 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Judging work, run by a fixed set of worker threads in earliest-deadline-first order.
+ *
+ * A drawing's deadline is when its player is owed a verdict:
+ * <ul>
+ *   <li>AUTO (the round timer ran out): the next round is waiting on the
+ *       verdict, so the deadline is targetMs after it arrived, pulled
+ *       forward by autoBoostMs.</li>
+ *   <li>MANUAL: the player submitted with time left on the clock, so half
+ *       of that time (up to 30 s) is added as slack.</li>
+ * </ul>
+ * Each drawing a player already has queued or being judged pushes their
+ * next deadline back by fairnessPenaltyMs, and a player can have at most
+ * maxPerUser drawings queued or being judged at once. One player spamming
+ * submits therefore only delays their own drawings.
+ *
+ * With no backlog every drawing starts at once and the order doesn't
+ * matter; the ordering only decides who waits when all workers are busy.
+ *
+ * System properties: judging.workers (default 32), judging.targetMs (3000),
+ * judging.autoBoostMs (1000), judging.fairnessPenaltyMs (5000),
+ * judging.maxPerUser (3)
+ */
+public class JudgingQueue {
+    public enum Priority {
+        AUTO, MANUAL
+    }
+
+    private static final long MAX_SLACK_MILLIS = 30_000;
+
+    /**
+     * One queued drawing
+     */
+    private static class Job implements Comparable<Job> {
+        final String user;
+        final Priority priority;
+        final Runnable task;
+        final long enqueuedAt = System.nanoTime();
+        final long deadline;
+        final long sequence; // FIFO among equal deadlines
+
+        Job(String user, Priority priority, Runnable task, long deadline, long sequence) {
+            this.user = user;
+            this.priority = priority;
+            this.task = task;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int byDeadline = Long.compare(deadline - other.deadline, 0); // nanoTime values: compare by difference
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final long targetNanos;
+    private final long autoBoostNanos;
+    private final long fairnessPenaltyNanos;
+    private final int maxPerUser;
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+    private final Map<String, Integer> perUser = new ConcurrentHashMap<>(); // Queued + running, by user; idle users absent
+    private final AtomicLong sequence = new AtomicLong();
+    private final ServerMetrics metrics = ServerMetrics.get();
+
+    /**
+     * Queue configured from the judging.* system properties
+     */
+    public JudgingQueue() {
+        this(Integer.getInteger("judging.workers", 32), Long.getLong("judging.targetMs", 3_000),
+                Long.getLong("judging.autoBoostMs", 1_000), Long.getLong("judging.fairnessPenaltyMs", 5_000),
+                Integer.getInteger("judging.maxPerUser", 3));
+    }
+
+    public JudgingQueue(int workers, long targetMillis, long autoBoostMillis, long fairnessPenaltyMillis, int maxPerUser) {
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.autoBoostNanos = TimeUnit.MILLISECONDS.toNanos(autoBoostMillis);
+        this.fairnessPenaltyNanos = TimeUnit.MILLISECONDS.toNanos(fairnessPenaltyMillis);
+        this.maxPerUser = maxPerUser;
+        metrics.registerGauge("pictionary_judging_backlog", queue::size);
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::workLoop, "judging-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queue a drawing for judging
+     * @param leftMillis time the player still had on the round clock when submitting
+     * @return false if the player already has maxPerUser drawings queued; nothing was queued
+     */
+    public boolean submit(String user, Priority priority, long leftMillis, Runnable task) {
+        int[] ahead = new int[1];
+        perUser.compute(user, (u, count) -> {
+            ahead[0] = count == null ? 0 : count;
+            return ahead[0] >= maxPerUser ? count : ahead[0] + 1;
+        });
+        if (ahead[0] >= maxPerUser) {
+            metrics.judgingRejected.increment();
+            return false;
+        }
+        long deadline = System.nanoTime() + targetNanos + ahead[0] * fairnessPenaltyNanos;
+        if (priority == Priority.AUTO) {
+            deadline -= autoBoostNanos;
+        } else {
+            deadline += TimeUnit.MILLISECONDS.toNanos(Math.min(Math.max(0, leftMillis) / 2, MAX_SLACK_MILLIS));
+        }
+        queue.add(new Job(user, priority, task, deadline, sequence.incrementAndGet()));
+        return true;
+    }
+
+    private void workLoop() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = System.nanoTime();
+            metrics.judgingWaitMicros[job.priority.ordinal()].record((start - job.enqueuedAt) / 1000);
+            if (start - job.deadline > 0) {
+                metrics.judgingDeadlineMisses.increment();
+            }
+            try {
+                job.task.run();
+            } catch (RuntimeException e) {
+                Log.error("judging_task_failed", e, "user", job.user);
+            } finally {
+                perUser.computeIfPresent(job.user, (u, count) -> count <= 1 ? null : count - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Base64;
+
+/**
+ * Judge that runs in the server, used while the real judge is unavailable.
+ *
+ * It cannot recognise objects, so it never awards a win: it only tells an
+ * empty canvas from a real attempt and answers "unknown" with a comment
+ * explaining why the drawing was not scored. That is still better than
+ * making every player wait for a timeout, and it never throws. The
+ * verdict's confidence (for CascadeJudge) is 1 for an empty canvas and 0
+ * otherwise.
+ */
+public class LocalJudge implements Judge {
+    private static final double MIN_INK = 0.002; // Share of non-white pixels below which the canvas counts as empty
+
+    @Override
+    public String analyzeDrawing(String imageBase64, String prompt) {
+        if (isBlank(imageBase64)) {
+            return "{\"object\":\"unknown\",\"comment\":\"The canvas looks empty. Draw something first!\",\"confidence\":1.0}";
+        }
+        return "{\"object\":\"unknown\",\"comment\":\"The AI judge is unavailable right now, "
+                + "so this drawing could not be scored. Keep drawing!\",\"confidence\":0}";
+    }
+
+    private static boolean isBlank(String imageBase64) {
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(imageBase64)));
+            if (image == null) {
+                return false;
+            }
+            int width = image.getWidth(), height = image.getHeight();
+            long limit = (long) (MIN_INK * width * height);
+            int[] row = new int[width];
+            long ink = 0;
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                for (int rgb : row) {
+                    if ((rgb & 0xFFFFFF) != 0xFFFFFF && ++ink > limit) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            return false; // Not a readable PNG; let the comment say it wasn't scored
+        }
+    }
+}
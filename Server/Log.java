@@ -0,0 +1,333 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous structured logger for the server.
+ *
+ * Callers only copy their arguments into a slot of a pre-allocated ring
+ * buffer; a single background thread formats the events and writes them
+ * out. If the ring is full the event is dropped (and counted) instead of
+ * blocking the client threads.
+ *
+ * Events are written as key=value lines, or JSON with -Dlog.format=json:
+ *   2026-01-01T12:00:00.000Z INFO  event=prompt_sent session=s1f user=bob prompt="Draw a cat"
+ *
+ * System properties:
+ *   log.level    DEBUG, INFO, WARN or ERROR (default INFO)
+ *   log.format   kv or json (default kv)
+ *   log.ringSize ring buffer capacity, rounded up to a power of two (default 8192)
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int RING_SIZE = Integer.highestOneBit(Math.max(2, Integer.getInteger("log.ringSize", 8192) - 1)) << 1;
+    private static final int ERRORS_PER_SECOND = 5; // Per event name; the rest is counted and reported as "suppressed"
+
+    /**
+     * One pre-allocated ring buffer slot
+     */
+    private static final class Slot {
+        volatile long sequence = -1; // Sequence number of the event in this slot once it is published
+        long timestamp;
+        Level level;
+        String event;
+        String session;
+        Object[] fields;
+        Throwable error;
+    }
+
+    /**
+     * Token bucket per error event name
+     */
+    private static final class ErrorLimit {
+        long windowStart;
+        int count;
+        int suppressed;
+    }
+
+    private static final Slot[] ring = new Slot[RING_SIZE];
+    private static final AtomicLong head = new AtomicLong(); // Next sequence to claim
+    private static volatile long tail; // Next sequence the writer will consume
+    private static final LongAdder dropped = new LongAdder();
+    private static final ThreadLocal<String> session = new ThreadLocal<>();
+    private static final Map<String, ErrorLimit> errorLimits = new ConcurrentHashMap<>();
+
+    private static volatile Level threshold = Level.valueOf(System.getProperty("log.level", "INFO").toUpperCase());
+    private static final boolean json = "json".equalsIgnoreCase(System.getProperty("log.format", "kv"));
+    private static volatile Writer output = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 64 * 1024);
+    private static final Thread writerThread;
+
+    static {
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring[i] = new Slot();
+        }
+        writerThread = new Thread(Log::drainLoop, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+    }
+
+    private Log() {
+    }
+
+    /**
+     * Set the correlation id attached to every event logged from this thread
+     */
+    public static void setSession(String sessionId) {
+        session.set(sessionId);
+    }
+
+    public static void clearSession() {
+        session.remove();
+    }
+
+    public static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    /**
+     * Redirect log output (used by the benchmark); the old writer is flushed first
+     */
+    public static void setOutput(Writer writer) {
+        flush();
+        output = writer;
+    }
+
+    /**
+     * Number of events dropped because the ring buffer was full
+     */
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    public static boolean isDebugEnabled() {
+        return threshold == Level.DEBUG;
+    }
+
+    public static void debug(String event, Object... fields) {
+        log(Level.DEBUG, event, null, fields);
+    }
+
+    public static void info(String event, Object... fields) {
+        log(Level.INFO, event, null, fields);
+    }
+
+    public static void warn(String event, Object... fields) {
+        log(Level.WARN, event, null, fields);
+    }
+
+    public static void error(String event, Object... fields) {
+        error(event, null, fields);
+    }
+
+    /**
+     * Log an error. At most a few errors per second are written for each
+     * event name, the rest are summarised in a "suppressed" field.
+     */
+    public static void error(String event, Throwable error, Object... fields) {
+        ErrorLimit limit = errorLimits.computeIfAbsent(event, k -> new ErrorLimit());
+        int suppressed;
+        synchronized (limit) {
+            long now = System.currentTimeMillis();
+            if (now - limit.windowStart >= 1000) {
+                limit.windowStart = now;
+                limit.count = 0;
+            }
+            if (++limit.count > ERRORS_PER_SECOND) {
+                limit.suppressed++;
+                return;
+            }
+            suppressed = limit.suppressed;
+            limit.suppressed = 0;
+        }
+        if (suppressed > 0) {
+            Object[] withSuppressed = new Object[fields.length + 2];
+            System.arraycopy(fields, 0, withSuppressed, 0, fields.length);
+            withSuppressed[fields.length] = "suppressed";
+            withSuppressed[fields.length + 1] = suppressed;
+            fields = withSuppressed;
+        }
+        log(Level.ERROR, event, error, fields);
+    }
+
+    /**
+     * Block until everything logged so far has been written
+     */
+    public static void flush() {
+        long target = head.get();
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        while (tail < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(writerThread);
+            Thread.yield();
+        }
+        try {
+            output.flush();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void log(Level level, String event, Throwable error, Object[] fields) {
+        if (level.ordinal() < threshold.ordinal()) {
+            return;
+        }
+        // Claim a slot, or drop the event if the writer is a full ring behind
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= RING_SIZE) {
+                dropped.increment();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = ring[(int) sequence & (RING_SIZE - 1)];
+        slot.timestamp = System.currentTimeMillis();
+        slot.level = level;
+        slot.event = event;
+        slot.session = session.get();
+        slot.fields = fields;
+        slot.error = error;
+        slot.sequence = sequence; // Publish
+    }
+
+    private static void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            long next = tail;
+            Slot slot = ring[(int) next & (RING_SIZE - 1)];
+            if (slot.sequence != next) {
+                try {
+                    output.flush();
+                } catch (IOException ignored) {
+                }
+                LockSupport.parkNanos(1_000_000L);
+                continue;
+            }
+            line.setLength(0);
+            if (json) {
+                formatJson(line, slot);
+            } else {
+                formatKeyValue(line, slot);
+            }
+            slot.fields = null;
+            slot.error = null;
+
+            try {
+                output.write(line.toString());
+            } catch (IOException ignored) {
+            }
+            tail = next + 1; // Release the slot
+        }
+    }
+
+    private static void formatKeyValue(StringBuilder sb, Slot slot) {
+        sb.append(Instant.ofEpochMilli(slot.timestamp)).append(' ');
+        sb.append(slot.level);
+        for (int i = slot.level.name().length(); i < 5; i++) {
+            sb.append(' ');
+        }
+        sb.append(" event=").append(slot.event);
+        if (slot.session != null) {
+            sb.append(" session=").append(slot.session);
+        }
+        Object[] fields = slot.fields;
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            sb.append(' ').append(fields[i]).append('=');
+            appendValue(sb, String.valueOf(fields[i + 1]));
+        }
+        if (slot.error != null) {
+            sb.append(" error=");
+            appendValue(sb, String.valueOf(slot.error));
+            sb.append('\n');
+            StringWriter trace = new StringWriter();
+            slot.error.printStackTrace(new PrintWriter(trace));
+            sb.append(trace);
+        } else {
+            sb.append('\n');
+        }
+    }
+
+    private static void formatJson(StringBuilder sb, Slot slot) {
+        sb.append("{\"ts\":\"").append(Instant.ofEpochMilli(slot.timestamp)).append('"');
+        sb.append(",\"level\":\"").append(slot.level).append('"');
+        sb.append(",\"event\":");
+        appendJsonString(sb, slot.event);
+        if (slot.session != null) {
+            sb.append(",\"session\":");
+            appendJsonString(sb, slot.session);
+        }
+        Object[] fields = slot.fields;
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            sb.append(',');
+            appendJsonString(sb, String.valueOf(fields[i]));
+            sb.append(':');
+            Object value = fields[i + 1];
+            if (value instanceof Number || value instanceof Boolean) {
+                sb.append(value);
+            } else {
+                appendJsonString(sb, String.valueOf(value));
+            }
+        }
+        if (slot.error != null) {
+            StringWriter trace = new StringWriter();
+            slot.error.printStackTrace(new PrintWriter(trace));
+            sb.append(",\"error\":");
+            appendJsonString(sb, trace.toString());
+        }
+        sb.append("}\n");
+    }
+
+    private static void appendValue(StringBuilder sb, String value) {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ' ' || c == '"' || c == '=' || c < 0x20;
+        }
+        if (!quote) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c < 0x20) {
+                sb.append(' ');
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static void appendJsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,306 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Groups players who ask for a match into rooms that play the same prompt.
+ *
+ * Waiting players sit in a grid of FIFO queues, one per (skill bucket,
+ * latency bucket). Skill is the player's smoothed win rate,
+ * (score + 1) / (games + 2), so a new player starts in the middle bucket.
+ * Latency is the round trip of a PING sent when they asked. A player who
+ * fills their own queue up to roomSize is matched at once. Nothing ever
+ * scans all waiters: every operation touches one queue, or on a tick the
+ * queues around the oldest waiters.
+ *
+ * Every tickMs, a queue whose oldest player has waited widenAfterMs looks
+ * in the neighbouring queues too: one more skill bucket either way for
+ * every widenStepMs waited, and neighbouring latency buckets from the
+ * second step on. At maxWaitMs the player gets whatever room of at least
+ * minRoomSize the widened search finds, or is told there is no match.
+ *
+ * Callbacks run outside the lock, on the thread of the player who completed
+ * the room or on the timer wheel, so they must not block. Rooms only form
+ * among players of one server; behind a Gateway that means one node.
+ *
+ * System properties: matchmaking.roomSize (default 4),
+ * matchmaking.minRoomSize (2), matchmaking.maxWaitMs (30000),
+ * matchmaking.widenAfterMs (5000), matchmaking.widenStepMs (5000),
+ * matchmaking.skillBuckets (5), matchmaking.latencyBucketsMs (upper
+ * bounds, default "50,150"), matchmaking.tickMs (500)
+ */
+public class Matchmaker {
+    /**
+     * Players matched to play the same prompt
+     */
+    public static class Room {
+        public final String id;
+        public final List<GameSession> members;
+        public final String object;
+
+        Room(String id, List<GameSession> members, String object) {
+            this.id = id;
+            this.members = members;
+            this.object = object;
+        }
+
+        /**
+         * Usernames of the members, comma separated
+         */
+        public String roster() {
+            StringJoiner names = new StringJoiner(",");
+            for (GameSession member : members) {
+                names.add(member.getUsername());
+            }
+            return names.toString();
+        }
+    }
+
+    /**
+     * A player's place in the queue
+     */
+    public static class Ticket {
+        final GameSession session;
+        final int skill;
+        final int latency;
+        final long since = System.nanoTime();
+        final Consumer<Room> onMatched;
+        final Runnable onNoMatch;
+
+        Ticket(GameSession session, int skill, int latency, Consumer<Room> onMatched, Runnable onNoMatch) {
+            this.session = session;
+            this.skill = skill;
+            this.latency = latency;
+            this.onMatched = onMatched;
+            this.onNoMatch = onNoMatch;
+        }
+    }
+
+    private final int roomSize;
+    private final int minRoomSize;
+    private final long maxWaitNanos;
+    private final long widenAfterNanos;
+    private final long widenStepNanos;
+    private final long[] latencyBoundsMicros;
+    private final long tickMillis;
+    private final TimerWheel timerWheel;
+    private final ArrayDeque<Ticket>[][] queues; // [skill][latency], oldest first; guarded by this
+    private int waiting; // Guarded by this
+    private final Random random = new Random();
+    private final AtomicLong roomIds = new AtomicLong();
+    private final ServerMetrics metrics = ServerMetrics.get();
+
+    /**
+     * Matchmaker configured from the matchmaking.* system properties
+     */
+    public Matchmaker(TimerWheel timerWheel) {
+        this(timerWheel, Integer.getInteger("matchmaking.roomSize", 4), Integer.getInteger("matchmaking.minRoomSize", 2),
+                Long.getLong("matchmaking.maxWaitMs", 30_000), Long.getLong("matchmaking.widenAfterMs", 5_000),
+                Long.getLong("matchmaking.widenStepMs", 5_000), Integer.getInteger("matchmaking.skillBuckets", 5),
+                parseBounds(System.getProperty("matchmaking.latencyBucketsMs", "50,150")),
+                Long.getLong("matchmaking.tickMs", 500));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"}) // Generic array creation; every queue is an ArrayDeque<Ticket>
+    public Matchmaker(TimerWheel timerWheel, int roomSize, int minRoomSize, long maxWaitMillis, long widenAfterMillis,
+                      long widenStepMillis, int skillBuckets, long[] latencyBoundsMillis, long tickMillis) {
+        if (minRoomSize < 2 || roomSize < minRoomSize || skillBuckets < 1 || widenStepMillis < 1) {
+            throw new IllegalArgumentException("Invalid matchmaking settings");
+        }
+        this.timerWheel = timerWheel;
+        this.roomSize = roomSize;
+        this.minRoomSize = minRoomSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.widenAfterNanos = TimeUnit.MILLISECONDS.toNanos(widenAfterMillis);
+        this.widenStepNanos = TimeUnit.MILLISECONDS.toNanos(widenStepMillis);
+        this.latencyBoundsMicros = new long[latencyBoundsMillis.length];
+        for (int i = 0; i < latencyBoundsMillis.length; i++) {
+            latencyBoundsMicros[i] = latencyBoundsMillis[i] * 1000;
+        }
+        this.tickMillis = tickMillis;
+        this.queues = new ArrayDeque[skillBuckets][latencyBoundsMillis.length + 1];
+        for (ArrayDeque<Ticket>[] row : queues) {
+            for (int l = 0; l < row.length; l++) {
+                row[l] = new ArrayDeque<>();
+            }
+        }
+        metrics.registerGauge("pictionary_matchmaking_waiting", () -> {
+            synchronized (this) {
+                return waiting;
+            }
+        });
+        timerWheel.schedule(this::tick, tickMillis);
+    }
+
+    private static long[] parseBounds(String spec) {
+        String[] parts = spec.split(",");
+        long[] bounds = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            bounds[i] = Long.parseLong(parts[i].trim());
+        }
+        return bounds;
+    }
+
+    /**
+     * Queue a player for a room
+     * @param rttMicros round trip to the player, or a negative value if unknown (counted as the slowest bucket)
+     * @param onMatched told the room once it is formed
+     * @param onNoMatch called if nobody was found within maxWaitMs
+     * @return the ticket, for cancel()
+     */
+    public Ticket enqueue(GameSession session, int games, int score, long rttMicros,
+                         Consumer<Room> onMatched, Runnable onNoMatch) {
+        double rate = (score + 1.0) / (games + 2.0);
+        int skill = Math.min(queues.length - 1, (int) (rate * queues.length));
+        int latency = 0;
+        while (latency < latencyBoundsMicros.length && (rttMicros < 0 || rttMicros >= latencyBoundsMicros[latency])) {
+            latency++;
+        }
+        Ticket ticket = new Ticket(session, skill, latency, onMatched, onNoMatch);
+        List<Ticket> matched = null;
+        synchronized (this) {
+            ArrayDeque<Ticket> queue = queues[skill][latency];
+            queue.addLast(ticket);
+            waiting++;
+            if (queue.size() >= roomSize) {
+                matched = new ArrayList<>(roomSize);
+                for (int i = 0; i < roomSize; i++) {
+                    matched.add(queue.pollFirst());
+                }
+                waiting -= roomSize;
+            }
+        }
+        Log.debug("matchmaking_queued", "user", session.getUsername(), "skill", skill, "latency_bucket", latency);
+        if (matched != null) {
+            deliver(matched, false);
+        }
+        return ticket;
+    }
+
+    /**
+     * Leave the queue
+     * @return false if the ticket was already matched or timed out
+     */
+    public synchronized boolean cancel(Ticket ticket) {
+        if (queues[ticket.skill][ticket.latency].remove(ticket)) {
+            waiting--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Widen the search for players who have waited a while; runs on the timer wheel
+     */
+    private void tick() {
+        List<List<Ticket>> rooms = new ArrayList<>();
+        List<Ticket> unmatched = new ArrayList<>();
+        long now = System.nanoTime();
+        try {
+            synchronized (this) {
+                for (int s = 0; s < queues.length; s++) {
+                    for (int l = 0; l < queues[s].length; l++) {
+                        matchOldest(s, l, now, rooms, unmatched);
+                    }
+                }
+            }
+            for (List<Ticket> room : rooms) {
+                deliver(room, true);
+            }
+            for (Ticket ticket : unmatched) {
+                metrics.matchmakingTimeouts.increment();
+                Log.info("matchmaking_no_match", "user", ticket.session.getUsername(), "skill", ticket.skill,
+                        "latency_bucket", ticket.latency);
+                ticket.onNoMatch.run();
+            }
+        } catch (RuntimeException e) {
+            Log.error("matchmaking_tick_failed", e);
+        } finally {
+            timerWheel.schedule(this::tick, tickMillis);
+        }
+    }
+
+    /**
+     * Match the oldest players of one queue with their neighbours while they have waited long enough (caller holds the lock)
+     */
+    private void matchOldest(int s, int l, long now, List<List<Ticket>> rooms, List<Ticket> unmatched) {
+        ArrayDeque<Ticket> own = queues[s][l];
+        while (!own.isEmpty()) {
+            long waited = now - own.peekFirst().since;
+            if (waited < widenAfterNanos) {
+                return;
+            }
+            int skillRadius = (int) Math.min(queues.length, 1 + (waited - widenAfterNanos) / widenStepNanos);
+            int latencyRadius = skillRadius / 2;
+            List<ArrayDeque<Ticket>> nearby = nearby(s, l, skillRadius, latencyRadius);
+            int available = 0;
+            for (ArrayDeque<Ticket> queue : nearby) {
+                available += queue.size();
+            }
+            boolean expired = waited >= maxWaitNanos;
+            if (available >= roomSize || (expired && available >= minRoomSize)) {
+                // Closest queues first, oldest players first within each
+                List<Ticket> room = new ArrayList<>(roomSize);
+                for (ArrayDeque<Ticket> queue : nearby) {
+                    while (room.size() < roomSize && !queue.isEmpty()) {
+                        room.add(queue.pollFirst());
+                    }
+                }
+                waiting -= room.size();
+                rooms.add(room);
+            } else if (expired) {
+                unmatched.add(own.pollFirst());
+                waiting--;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The queue at (s, l) followed by its neighbours within the radii, nearest first
+     */
+    private List<ArrayDeque<Ticket>> nearby(int s, int l, int skillRadius, int latencyRadius) {
+        List<ArrayDeque<Ticket>> nearby = new ArrayList<>();
+        for (int distance = 0; distance <= skillRadius + latencyRadius; distance++) {
+            for (int ds = -skillRadius; ds <= skillRadius; ds++) {
+                int dl = distance - Math.abs(ds);
+                if (dl < 0 || dl > latencyRadius || s + ds < 0 || s + ds >= queues.length) {
+                    continue;
+                }
+                if (l - dl >= 0) {
+                    nearby.add(queues[s + ds][l - dl]);
+                }
+                if (dl != 0 && l + dl < queues[s + ds].length) {
+                    nearby.add(queues[s + ds][l + dl]);
+                }
+            }
+        }
+        return nearby;
+    }
+
+    private void deliver(List<Ticket> tickets, boolean widened) {
+        String[] objects = ClientHandler.getPossibleObjects();
+        List<GameSession> members = new ArrayList<>(tickets.size());
+        long now = System.nanoTime();
+        for (Ticket ticket : tickets) {
+            members.add(ticket.session);
+            metrics.matchmakingWaitMicros.record((now - ticket.since) / 1000);
+        }
+        Room room = new Room("r" + Long.toString(roomIds.incrementAndGet(), 36), List.copyOf(members),
+                objects[random.nextInt(objects.length)]);
+        metrics.matchmakingRooms.increment();
+        if (widened) {
+            metrics.matchmakingWidened.increment();
+        }
+        Log.info("room_formed", "room", room.id, "players", room.roster(), "widened", widened);
+        for (Ticket ticket : tickets) {
+            ticket.onMatched.accept(room);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draining a game node for a rolling restart.
+ *
+ * The node serves GET /health on its metrics port: 200 "ok", or 503
+ * "draining" once a POST to /drain has started draining. The Gateway polls
+ * it and stops routing players here. Players already connected finish
+ * their current game: when a client asks for a NEWGAME, ClientHandler
+ * closes the connection instead, and the client reconnects through the
+ * gateway and plays its next game on another node. Once no client is
+ * connected and no drawing is waiting for a verdict, or after
+ * drainTimeoutMillis at the latest, the process exits (running the
+ * shutdown hooks) so it can be restarted.
+ *
+ * Both endpoints only listen on 127.0.0.1, like /metrics; with
+ * metrics.port=0 the gateway cannot see the node as healthy.
+ *
+ * System properties: node.drainTimeoutMs (default 120000),
+ * node.exitWhenDrained (default true)
+ */
+public class NodeDrain {
+    private static final long POLL_MILLIS = 500;
+
+    private final long drainTimeoutNanos;
+    private final boolean exitWhenDrained;
+    private final ServerMetrics metrics = ServerMetrics.get();
+    private volatile boolean draining;
+
+    /**
+     * Drain settings from the node.* system properties; registers /health and /drain
+     */
+    public NodeDrain() {
+        this(Long.getLong("node.drainTimeoutMs", 120_000),
+                Boolean.parseBoolean(System.getProperty("node.exitWhenDrained", "true")));
+    }
+
+    public NodeDrain(long drainTimeoutMillis, boolean exitWhenDrained) {
+        this.drainTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        this.exitWhenDrained = exitWhenDrained;
+        metrics.registerGauge("pictionary_node_draining", () -> draining ? 1 : 0);
+        metrics.addEndpoint("/health", exchange -> respond(exchange, draining ? 503 : 200, draining ? "draining" : "ok"));
+        metrics.addEndpoint("/drain", exchange -> {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "use POST");
+                return;
+            }
+            startDraining();
+            respond(exchange, 202, "draining");
+        });
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Stop taking new players and exit once the current ones are gone; calling it again does nothing
+     */
+    public synchronized void startDraining() {
+        if (draining) {
+            return;
+        }
+        draining = true;
+        Log.info("node_draining", "clients", metrics.connectedClients.get(),
+                "judging", metrics.judgingQueueDepth.get());
+        Thread watcher = new Thread(this::awaitDrained, "node-drain");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void awaitDrained() {
+        long start = System.nanoTime();
+        try {
+            while (metrics.connectedClients.get() > 0 || metrics.judgingQueueDepth.get() > 0) {
+                if (System.nanoTime() - start > drainTimeoutNanos) {
+                    Log.warn("node_drain_timeout", "clients", metrics.connectedClients.get(),
+                            "judging", metrics.judgingQueueDepth.get());
+                    break;
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+        Log.info("node_drained", "elapsed_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (exitWhenDrained) {
+            System.exit(0);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongConsumer;
+
+/**
+ * Outbound message queue of one client connection.
+ *
+ * Any thread may call send(); only one writer task at a time drains the
+ * queue, so the connection is never written concurrently. The
+ * writer sends everything queued so far and flushes once per batch.
+ *
+ * Messages queued with send() whose type is in COALESCED_TYPES (e.g.
+ * STATS) replace an older queued message of the same type instead of being
+ * sent twice. Game messages go through sendLogged() and are never replaced:
+ * the client counts them to tell GameSession where to resume, so a dropped
+ * one would make it replay messages the client already has. If a slow
+ * client lets the queue grow past the limit the connection is closed.
+ *
+ * sendShared() queues a frame that is already UTF-8 encoded, so a message
+ * fanned out to many connections (spectator streams) is encoded once and
+ * the same bytes are queued on each of them.
+ *
+ * System property: outbound.maxQueued (default 64 messages)
+ */
+public class OutboundQueue {
+    private static final int MAX_QUEUED = Integer.getInteger("outbound.maxQueued", 64);
+    private static final String[] COALESCED_TYPES = {"STATS:"};
+
+    // Writer tasks of all connections share one pool; a connection holds a thread only while it has data to send
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "outbound-writer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Socket socket;
+    private final FrameCodec out;
+    private final String sessionId;
+    private final LongConsumer memoryListener; // Told about bytes entering/leaving the queue
+    private List<Object> queue = new ArrayList<>(); // Strings from send(), encoded frames (byte[]); guarded by lock
+    private final Object lock = new Object();
+    private final ServerMetrics metrics = ServerMetrics.get();
+    private boolean writerScheduled; // Guarded by lock
+    private boolean closed; // Guarded by lock
+
+    public OutboundQueue(Socket socket, FrameCodec out, String sessionId, LongConsumer memoryListener) {
+        this.socket = socket;
+        this.out = out;
+        this.sessionId = sessionId;
+        this.memoryListener = memoryListener;
+    }
+
+    /**
+     * Queue a message for sending
+     * @return false if the connection is closed or was closed because the client is too slow
+     */
+    public boolean send(String message) {
+        return enqueue(message);
+    }
+
+    /**
+     * Queue a game message that GameSession numbered and logged; it is encoded right away
+     * and, like a shared frame, never coalesced
+     * @return false if the connection is closed or was closed because the client is too slow
+     */
+    public boolean sendLogged(String message) {
+        return enqueue(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Queue a UTF-8 encoded frame that may be queued on other connections too; it must not be modified
+     * @return false if the connection is closed or was closed because the client is too slow
+     */
+    public boolean sendShared(byte[] frame) {
+        return enqueue(frame);
+    }
+
+    private boolean enqueue(Object message) {
+        boolean scheduleWriter;
+        synchronized (lock) {
+            if (closed) {
+                return false;
+            }
+            if (!(message instanceof String && coalesce((String) message))) {
+                if (queue.size() >= MAX_QUEUED) {
+                    closed = true;
+                    releaseQueued();
+                    metrics.slowConsumerDisconnects.increment();
+                    Log.warn("slow_consumer_disconnected", "queued", MAX_QUEUED);
+                    closeSocket();
+                    return false;
+                }
+                queue.add(message);
+                memoryListener.accept(sizeOf(message));
+            }
+            scheduleWriter = !writerScheduled;
+            writerScheduled = true;
+        }
+        if (scheduleWriter) {
+            WRITERS.execute(this::drain);
+        }
+        return true;
+    }
+
+    /**
+     * Stop accepting messages; anything still queued is discarded
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            releaseQueued();
+        }
+    }
+
+    /**
+     * Replace a queued message of the same coalesced type, if there is one
+     */
+    private boolean coalesce(String message) {
+        for (String type : COALESCED_TYPES) {
+            if (message.startsWith(type)) {
+                // Queues are short, so a linear scan is cheaper than keeping an index
+                for (int i = 0; i < queue.size(); i++) {
+                    if (queue.get(i) instanceof String && ((String) queue.get(i)).startsWith(type)) {
+                        memoryListener.accept(sizeOf(message) - sizeOf(queue.get(i)));
+                        queue.set(i, message);
+                        metrics.outboundCoalesced.increment();
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void drain() {
+        Log.setSession(sessionId);
+        List<Object> batch = new ArrayList<>();
+        try {
+            while (true) {
+                // Swap buffers so senders never wait on socket writes
+                synchronized (lock) {
+                    if (queue.isEmpty() || closed) {
+                        writerScheduled = false;
+                        return;
+                    }
+                    List<Object> full = queue;
+                    queue = batch;
+                    batch = full;
+                }
+                long batchBytes = 0;
+                for (Object message : batch) {
+                    if (message instanceof String) {
+                        out.writeMessage((String) message);
+                    } else {
+                        byte[] frame = (byte[]) message;
+                        out.writeFrame(frame, 0, frame.length);
+                    }
+                    batchBytes += sizeOf(message);
+                }
+                out.flush(); // One flush per batch
+                metrics.outboundBatchSize.record(batch.size());
+                memoryListener.accept(-batchBytes);
+                batch.clear();
+            }
+        } catch (IOException e) {
+            release(batch); // Credited back only after a flush, so none of it has been yet
+            synchronized (lock) {
+                closed = true;
+                writerScheduled = false;
+                releaseQueued();
+            }
+            Log.warn("send_failed", "error", e.getMessage());
+        } finally {
+            Log.clearSession();
+        }
+    }
+
+    /**
+     * Drop everything still queued (caller holds the lock)
+     */
+    private void releaseQueued() {
+        release(queue);
+    }
+
+    /**
+     * Drop messages, taking their bytes off the session's memory
+     */
+    private void release(List<Object> messages) {
+        long bytes = 0;
+        for (Object message : messages) {
+            bytes += sizeOf(message);
+        }
+        messages.clear();
+        memoryListener.accept(-bytes);
+    }
+
+    /**
+     * Bytes a message takes on the wire (UTF-8), the unit session memory is counted in,
+     * as for the inbound buffers; worked out without encoding the message
+     */
+    private static long sizeOf(Object message) {
+        if (message instanceof byte[]) {
+            return ((byte[]) message).length;
+        }
+        String text = (String) message;
+        long bytes = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                bytes += c < 0x800 || Character.isSurrogate(c) ? 1 : 2; // A surrogate pair is 4 bytes
+            }
+        }
+        return bytes;
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
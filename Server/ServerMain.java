@@ -1,39 +1,149 @@
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Server main program
+ *
+ * Runs on its own, or as one of several game nodes behind a Gateway: give
+ * each node its own -Dserver.port and -Dmetrics.port and the same stats
+ * store (-Ddb.url to one SQLite file, or -Dstats.store=memory for a
+ * throwaway node).
+ *
+ * Game state is snapshotted to disk (StateSnapshot) and read back before
+ * the port opens, so players reconnecting after a restart resume their
+ * games. On shutdown (SIGTERM, Ctrl+C, or a drained node exiting) the
+ * server stops accepting connections, gives drawings being judged up to
+ * shutdown.judgingDrainMs (default 10000) to get their verdicts, stops the
+ * session expiry timers and writes a last snapshot, then finishes pending
+ * database writes and closes the stats store and drawing archive. Time
+ * from JVM start to accepting connections is logged as server_started
+ * ready_ms.
  */
 public class ServerMain {
-    private static final int PORT = 8888;
+    private static final int PORT = Integer.getInteger("server.port", 8888);
+    private static final long JUDGING_DRAIN_MILLIS = Long.getLong("shutdown.judgingDrainMs", 10_000);
+    private static final long DB_FLUSH_MILLIS = 5_000;
     private ExecutorService threadPool;
-    private GeminiAPI geminiAPI;
-    private DatabaseManager databaseManager;
+    private JudgeService judge;
+    private JudgingQueue judgingQueue;
+    private StatsStore statsStore;
+    private DrawingArchive drawingArchive;
+    private StrokeRasterizer strokeRasterizer;
+    private TimerWheel timerWheel;
+    private SessionTable sessionTable;
+    private NodeDrain nodeDrain;
+    private Matchmaker matchmaker;
+    private SpectatorHub spectatorHub;
+    private StateSnapshot stateSnapshot;
+    private volatile ServerSocket serverSocket;
+    private volatile boolean stopping;
     
     public ServerMain() {
         threadPool = Executors.newCachedThreadPool();
-        geminiAPI = new GeminiAPI();
-        databaseManager = new DatabaseManager();
+        // -Djudge.pool=true: judging runs in separate worker processes, each with its own connectJudge()
+        judge = new JudgeService(Boolean.getBoolean("judge.pool") ? new JudgeWorkerPool() : connectJudge());
+        judgingQueue = new JudgingQueue();
+        statsStore = "memory".equals(System.getProperty("stats.store", "sqlite"))
+                ? new InMemoryStatsStore() : new DatabaseManager();
+        drawingArchive = new DrawingArchive();
+        strokeRasterizer = new StrokeRasterizer();
+        timerWheel = new TimerWheel();
+        spectatorHub = new SpectatorHub(drawingArchive);
+        sessionTable = new SessionTable(timerWheel, statsStore, spectatorHub);
+        nodeDrain = new NodeDrain();
+        matchmaker = new Matchmaker(timerWheel);
+        stateSnapshot = new StateSnapshot(sessionTable, judge);
+        stateSnapshot.restore();
+        stateSnapshot.start();
+        ServerMetrics.get().start();
+        
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "server-shutdown"));
+    }
+    
+    /**
+     * Graceful stop, in order: no new connections, let judging finish, save the
+     * game state, then finish and close the stores
+     */
+    private void shutdown() {
+        stopping = true;
+        long start = System.nanoTime();
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {
+        }
+        
+        // Players still connected get the verdicts of drawings already submitted
+        ServerMetrics metrics = ServerMetrics.get();
+        long drainUntil = start + TimeUnit.MILLISECONDS.toNanos(JUDGING_DRAIN_MILLIS);
+        try {
+            while (metrics.judgingQueueDepth.get() > 0 && System.nanoTime() - drainUntil < 0) {
+                Thread.sleep(50);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long judgingLeft = metrics.judgingQueueDepth.get(); // Kept in the snapshot and judged after the restart
+        
+        timerWheel.stop(); // No session expires after the last snapshot, so none is both scored and saved
+        stateSnapshot.stop();
+        sessionTable.close(DB_FLUSH_MILLIS);
+        statsStore.close();
+        drawingArchive.close(); // Drawings still queued for the archive
+        Log.info("server_stopped", "judging_left", judgingLeft,
+                "elapsed_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        Log.flush();
+    }
+    
+    /**
+     * The judge that looks at drawings in this process: Gemini, or with
+     * -Djudge.cascade=true a cheaper model first that escalates unsure
+     * verdicts to Gemini. Starts connecting now rather than on the first
+     * drawing and keeps the connections open. The connecting happens in the
+     * background so the server is ready (and restored players can resume)
+     * without waiting for the API; a drawing that comes first connects itself.
+     */
+    static Judge connectJudge() {
+        GeminiAPI geminiAPI = new GeminiAPI();
+        GeminiAPI cheapAPI = Boolean.getBoolean("judge.cascade")
+                ? new GeminiAPI(System.getProperty("judge.cascade.cheapUrl", GeminiAPI.modelUrl("gemini-2.5-flash-lite")))
+                : null;
+        for (GeminiAPI api : cheapAPI != null ? new GeminiAPI[] {geminiAPI, cheapAPI} : new GeminiAPI[] {geminiAPI}) {
+            Thread warmUp = new Thread(() -> {
+                api.warmUp();
+                api.startKeepAlive();
+            }, "gemini-warm-up");
+            warmUp.setDaemon(true);
+            warmUp.start();
+        }
+        return cheapAPI != null ? new CascadeJudge(cheapAPI, geminiAPI) : geminiAPI;
     }
     
     public void start() {
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("AI-Pictionary Server started, listening on port: " + PORT);
-            System.out.println("Waiting for client connections...");
+            this.serverSocket = serverSocket;
+            long readyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+            ServerMetrics.get().startupMillis.set(readyMillis);
+            Log.info("server_started", "port", PORT, "ready_ms", readyMillis);
             
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("New client connected: " + clientSocket.getRemoteSocketAddress());
+                Log.debug("connection_accepted", "remote", clientSocket.getRemoteSocketAddress());
                 
                 // Create independent handler thread for each client
-                threadPool.submit(new ClientHandler(clientSocket, geminiAPI, databaseManager));
+                threadPool.submit(new ClientHandler(clientSocket, judge, judgingQueue, statsStore, drawingArchive, strokeRasterizer,
+                        timerWheel, sessionTable, nodeDrain, matchmaker, spectatorHub));
             }
         } catch (IOException e) {
-            System.err.println("Server error: " + e.getMessage());
-            e.printStackTrace();
+            if (!stopping) {
+                Log.error("server_error", e);
+            }
         }
     }
     
@@ -0,0 +1,429 @@
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Server metrics registry.
+ *
+ * Counters, gauges and histograms are plain atomics so recording them on the
+ * hot paths costs a few nanoseconds. The values are exposed in Prometheus
+ * text format on a local HTTP endpoint and dumped to the log periodically.
+ * Other components can serve their own paths on the same port (e.g. the
+ * /health and /drain endpoints of NodeDrain).
+ *
+ * System properties:
+ *   metrics.port             HTTP port for /metrics (default 9100, 0 disables)
+ *   metrics.logIntervalSec   seconds between log dumps (default 60, 0 disables)
+ */
+public class ServerMetrics {
+    private static final ServerMetrics INSTANCE = new ServerMetrics();
+
+    // Connections
+    public final AtomicLong connectedClients = new AtomicLong();
+    private final Map<String, LongAdder> messagesByType = new ConcurrentHashMap<>();
+
+    // Drawings and judging
+    public final Histogram drawingSizeBytes = new Histogram();
+    public final Histogram geminiLatencyMicros = new Histogram();
+    public final LongAdder geminiRateLimited = new LongAdder();
+    public final LongAdder geminiErrors = new LongAdder();
+    public final LongAdder geminiTlsSessionsNew = new LongAdder();
+    public final LongAdder geminiTlsSessionsReused = new LongAdder();
+    public final LongAdder geminiHttp2Responses = new LongAdder();
+    public final LongAdder geminiKeepAliveProbes = new LongAdder();
+    public final AtomicLong judgingQueueDepth = new AtomicLong();
+    public final Histogram roundLatencyMicros = new Histogram();
+    public final Histogram[] judgingWaitMicros = histograms(JudgingQueue.Priority.values().length);
+    public final LongAdder judgingDeadlineMisses = new LongAdder();
+    public final LongAdder judgingRejected = new LongAdder();
+    public final Histogram rasterizeLatencyMicros = new Histogram();
+    public final LongAdder rasterizePoolWaits = new LongAdder();
+
+    // Judge circuit breaker and degraded modes
+    public final AtomicLong judgeBreakerState = new AtomicLong(); // CircuitBreaker.State ordinal
+    public final LongAdder[] judgeBreakerTransitions = adders(CircuitBreaker.State.values().length);
+    public final LongAdder judgeRejected = new LongAdder();
+    public final LongAdder[] judgeDegraded = adders(JudgeService.DegradedMode.values().length);
+    public final LongAdder judgeDeferredScored = new LongAdder();
+    public final LongAdder judgeDeferredDropped = new LongAdder();
+
+    // Out-of-process judge workers (JudgeWorkerPool)
+    public final Histogram judgePoolLatencyMicros = new Histogram();
+    public final LongAdder judgePoolSteals = new LongAdder();
+    public final LongAdder judgePoolRequeued = new LongAdder();
+    public final LongAdder judgePoolSpawned = new LongAdder();
+    public final LongAdder judgePoolRetired = new LongAdder();
+    public final LongAdder judgePoolWorkerFailures = new LongAdder();
+
+    // Matchmaking
+    public final Histogram matchmakingWaitMicros = new Histogram();
+    public final LongAdder matchmakingRooms = new LongAdder();
+    public final LongAdder matchmakingWidened = new LongAdder();
+    public final LongAdder matchmakingTimeouts = new LongAdder();
+
+    // Spectating
+    public final LongAdder spectateFrames = new LongAdder();
+    public final LongAdder spectateDeliveries = new LongAdder();
+    public final LongAdder spectateRejected = new LongAdder();
+
+    // Outbound queues
+    public final Histogram outboundBatchSize = new Histogram();
+    public final LongAdder outboundCoalesced = new LongAdder();
+    public final LongAdder slowConsumerDisconnects = new LongAdder();
+
+    // Connection memory
+    public final AtomicLong sessionMemoryBytes = new AtomicLong();
+    public final Histogram sessionPeakMemoryBytes = new Histogram();
+    public final LongAdder oversizedFrames = new LongAdder();
+
+    // Liveness
+    public final LongAdder reapedHandshake = new LongAdder();
+    public final LongAdder reapedIdle = new LongAdder();
+
+    // Session resume
+    public final LongAdder sessionsResumed = new LongAdder();
+    public final LongAdder resumeFailures = new LongAdder();
+    public final LongAdder sessionsExpired = new LongAdder();
+    public final LongAdder messagesReplayed = new LongAdder();
+
+    // State snapshots and restarts
+    public final Histogram snapshotWriteMicros = new Histogram();
+    public final AtomicLong snapshotBytes = new AtomicLong();
+    public final LongAdder sessionsRestored = new LongAdder();
+    public final AtomicLong startupMillis = new AtomicLong(); // JVM start to accepting connections
+
+    // Drawing archive
+    public final LongAdder archiveDropped = new LongAdder();
+
+    // Database
+    public final Histogram dbWriteLatencyMicros = new Histogram();
+
+    /**
+     * Counters of one CascadeJudge stage
+     */
+    public static class StageMetrics {
+        public final LongAdder calls = new LongAdder();
+        public final LongAdder accepted = new LongAdder();
+        public final LongAdder escalated = new LongAdder();
+        public final LongAdder errors = new LongAdder();
+        public final LongAdder costMicroDollars = new LongAdder(); // Estimated
+        public final Histogram latencyMicros = new Histogram();
+    }
+
+    private final Map<String, StageMetrics> cascadeStages = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> extraGauges = new ConcurrentHashMap<>();
+    private final Map<String, HttpHandler> endpoints = new TreeMap<>(); // Guarded by this
+    private final long startTime = System.currentTimeMillis();
+    private HttpServer httpServer;
+    private ScheduledExecutorService logScheduler;
+    private Map<String, Long> lastLoggedMessageCounts = new TreeMap<>();
+    private long lastLogTime = System.nanoTime();
+
+    public static ServerMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Count one inbound message of the given type (e.g. "DRAWING")
+     */
+    public void recordMessage(String type) {
+        LongAdder adder = messagesByType.get(type);
+        if (adder == null) {
+            adder = messagesByType.computeIfAbsent(type, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    /**
+     * Counters of the CascadeJudge stage with this name, created on first use
+     */
+    public StageMetrics cascadeStage(String name) {
+        return cascadeStages.computeIfAbsent(name, n -> new StageMetrics());
+    }
+
+    /**
+     * Register a gauge whose value is read when metrics are exported
+     */
+    public void registerGauge(String name, LongSupplier supplier) {
+        extraGauges.put(name, supplier);
+    }
+
+    /**
+     * Serve another path on the metrics port (local only); may be called before or after start()
+     */
+    public synchronized void addEndpoint(String path, HttpHandler handler) {
+        endpoints.put(path, handler);
+        if (httpServer != null) {
+            httpServer.createContext(path, handler);
+        }
+    }
+
+    /**
+     * Start the HTTP endpoint and the periodic log dump
+     */
+    public synchronized void start() {
+        int port = Integer.getInteger("metrics.port", 9100);
+        if (port > 0) {
+            try {
+                httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+                httpServer.createContext("/metrics", exchange -> {
+                    byte[] body = toPrometheusText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(body);
+                    }
+                });
+                endpoints.forEach(httpServer::createContext);
+                httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "metrics-http");
+                    t.setDaemon(true);
+                    return t;
+                }));
+                httpServer.start();
+                Log.info("metrics_endpoint_started", "url", "http://127.0.0.1:" + port + "/metrics");
+            } catch (IOException e) {
+                Log.error("metrics_endpoint_failed", e, "port", port);
+            }
+        }
+
+        int interval = Integer.getInteger("metrics.logIntervalSec", 60);
+        if (interval > 0) {
+            logScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics-log");
+                t.setDaemon(true);
+                return t;
+            });
+            logScheduler.scheduleAtFixedRate(() -> Log.info("metrics", "summary", toLogLine()),
+                    interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+        if (logScheduler != null) {
+            logScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Render all metrics in Prometheus text exposition format
+     */
+    public String toPrometheusText() {
+        StringBuilder sb = new StringBuilder(4096);
+        gauge(sb, "pictionary_connected_clients", "Currently connected clients", connectedClients.get());
+
+        sb.append("# HELP pictionary_messages_total Inbound messages by type\n");
+        sb.append("# TYPE pictionary_messages_total counter\n");
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(messagesByType).entrySet()) {
+            sb.append("pictionary_messages_total{type=\"").append(e.getKey()).append("\"} ")
+              .append(e.getValue().sum()).append('\n');
+        }
+
+        summary(sb, "pictionary_drawing_size_bytes", "Inbound drawing size (base64 characters)", drawingSizeBytes, 1);
+        summary(sb, "pictionary_gemini_latency_seconds", "Gemini API call latency", geminiLatencyMicros, 1e-6);
+        counter(sb, "pictionary_gemini_rate_limited_total", "Gemini responses with status 429", geminiRateLimited.sum());
+        counter(sb, "pictionary_gemini_errors_total", "Failed Gemini calls (non-200 or exception)", geminiErrors.sum());
+        counter(sb, "pictionary_gemini_tls_sessions_new_total", "Gemini responses (calls and probes) in a TLS session not seen before", geminiTlsSessionsNew.sum());
+        counter(sb, "pictionary_gemini_tls_sessions_reused_total", "Gemini responses (calls and probes) in an already established or resumed TLS session", geminiTlsSessionsReused.sum());
+        counter(sb, "pictionary_gemini_http2_responses_total", "Gemini responses received over HTTP/2", geminiHttp2Responses.sum());
+        counter(sb, "pictionary_gemini_keep_alive_probes_total", "Probes sent to keep the idle Gemini connection open", geminiKeepAliveProbes.sum());
+        gauge(sb, "pictionary_judging_queue_depth", "Drawings waiting for or in judging", judgingQueueDepth.get());
+        summary(sb, "pictionary_round_latency_seconds", "Time from drawing received to RESULT sent", roundLatencyMicros, 1e-6);
+        labelledSummary(sb, "pictionary_judging_wait_seconds", "Time a drawing waited for a judging worker, by priority class", "class",
+                JudgingQueue.Priority.values(), judgingWaitMicros, 1e-6);
+        counter(sb, "pictionary_judging_deadline_misses_total", "Drawings whose judging started after their deadline", judgingDeadlineMisses.sum());
+        counter(sb, "pictionary_judging_rejected_total", "Drawings refused because the player already had the maximum queued", judgingRejected.sum());
+        summary(sb, "pictionary_rasterize_latency_seconds", "Time to render and encode a STROKES drawing, including waiting for a canvas", rasterizeLatencyMicros, 1e-6);
+        counter(sb, "pictionary_rasterize_pool_waits_total", "Renders that waited because every pooled canvas was busy", rasterizePoolWaits.sum());
+        gauge(sb, "pictionary_judge_breaker_state", "Judge circuit breaker state (0 closed, 1 open, 2 half open)", judgeBreakerState.get());
+        labelled(sb, "pictionary_judge_breaker_transitions_total", "Judge circuit breaker transitions by new state", "to",
+                CircuitBreaker.State.values(), judgeBreakerTransitions);
+        counter(sb, "pictionary_judge_rejected_total", "Drawings not sent to the judge because the breaker was open", judgeRejected.sum());
+        labelled(sb, "pictionary_judge_degraded_total", "Drawings answered by a degraded mode instead of the judge", "mode",
+                JudgeService.DegradedMode.values(), judgeDegraded);
+        counter(sb, "pictionary_judge_deferred_scored_total", "Deferred drawings judged after the judge came back", judgeDeferredScored.sum());
+        counter(sb, "pictionary_judge_deferred_dropped_total", "Deferred drawings given up on (too old or queue full)", judgeDeferredDropped.sum());
+        if (!cascadeStages.isEmpty()) {
+            Map<String, StageMetrics> stages = new TreeMap<>(cascadeStages);
+            String[] names = stages.keySet().toArray(new String[0]);
+            labelled(sb, "pictionary_cascade_calls_total", "Drawings sent to each cascade stage", "stage", names,
+                    stages.values().stream().map(m -> m.calls).toArray(LongAdder[]::new));
+            labelled(sb, "pictionary_cascade_accepted_total", "Verdicts a cascade stage was confident enough to give", "stage", names,
+                    stages.values().stream().map(m -> m.accepted).toArray(LongAdder[]::new));
+            labelled(sb, "pictionary_cascade_escalated_total", "Drawings passed on to the next cascade stage", "stage", names,
+                    stages.values().stream().map(m -> m.escalated).toArray(LongAdder[]::new));
+            labelled(sb, "pictionary_cascade_errors_total", "Failed calls per cascade stage", "stage", names,
+                    stages.values().stream().map(m -> m.errors).toArray(LongAdder[]::new));
+            labelled(sb, "pictionary_cascade_cost_microdollars_total", "Estimated spend per cascade stage, in millionths of a dollar", "stage", names,
+                    stages.values().stream().map(m -> m.costMicroDollars).toArray(LongAdder[]::new));
+            labelledSummary(sb, "pictionary_cascade_latency_seconds", "Latency of each cascade stage", "stage", names,
+                    stages.values().stream().map(m -> m.latencyMicros).toArray(Histogram[]::new), 1e-6);
+        }
+        summary(sb, "pictionary_judge_pool_latency_seconds", "Time from handing a drawing to the worker pool to its verdict", judgePoolLatencyMicros, 1e-6);
+        counter(sb, "pictionary_judge_pool_steals_total", "Drawings taken by an idle worker from another worker's queue", judgePoolSteals.sum());
+        counter(sb, "pictionary_judge_pool_requeued_total", "Drawings handed to another worker after theirs failed", judgePoolRequeued.sum());
+        counter(sb, "pictionary_judge_pool_spawned_total", "Judge worker processes started", judgePoolSpawned.sum());
+        counter(sb, "pictionary_judge_pool_retired_total", "Idle judge workers stopped by the autoscaler", judgePoolRetired.sum());
+        counter(sb, "pictionary_judge_pool_worker_failures_total", "Judge workers lost (exited, disconnected or missed health checks)", judgePoolWorkerFailures.sum());
+        summary(sb, "pictionary_matchmaking_wait_seconds", "Time from asking for a match to being placed in a room", matchmakingWaitMicros, 1e-6);
+        counter(sb, "pictionary_matchmaking_rooms_total", "Rooms formed", matchmakingRooms.sum());
+        counter(sb, "pictionary_matchmaking_widened_total", "Rooms formed by searching neighbouring skill or latency buckets", matchmakingWidened.sum());
+        counter(sb, "pictionary_matchmaking_timeouts_total", "Players who waited the maximum time without a match", matchmakingTimeouts.sum());
+        counter(sb, "pictionary_spectate_frames_total", "Spectator frames encoded (once each, however many watchers)", spectateFrames.sum());
+        counter(sb, "pictionary_spectate_deliveries_total", "Spectator frames queued to watchers", spectateDeliveries.sum());
+        counter(sb, "pictionary_spectate_rejected_total", "LIVE timeline pieces dropped as malformed", spectateRejected.sum());
+        summary(sb, "pictionary_outbound_batch_size", "Messages written per flush", outboundBatchSize, 1);
+        counter(sb, "pictionary_outbound_coalesced_total", "Queued messages replaced by a newer one", outboundCoalesced.sum());
+        counter(sb, "pictionary_slow_consumer_disconnects_total", "Connections closed because the outbound queue was full", slowConsumerDisconnects.sum());
+        gauge(sb, "pictionary_session_memory_bytes", "Inbound buffers and queued outbound messages held by all sessions", sessionMemoryBytes.get());
+        summary(sb, "pictionary_session_peak_memory_bytes", "Peak memory held by a session, recorded when it ends", sessionPeakMemoryBytes, 1);
+        counter(sb, "pictionary_oversized_frames_total", "Connections closed for sending a frame over the size limit", oversizedFrames.sum());
+        counter(sb, "pictionary_reaped_handshake_total", "Connections closed for not sending a username in time", reapedHandshake.sum());
+        counter(sb, "pictionary_reaped_idle_total", "Connections closed after missing heartbeats", reapedIdle.sum());
+        counter(sb, "pictionary_sessions_resumed_total", "Sessions resumed after a reconnect", sessionsResumed.sum());
+        counter(sb, "pictionary_resume_failures_total", "RESUME handshakes that fell back to a new session", resumeFailures.sum());
+        counter(sb, "pictionary_sessions_expired_total", "Detached sessions dropped after the grace period", sessionsExpired.sum());
+        counter(sb, "pictionary_messages_replayed_total", "Messages resent from the replay log on resume", messagesReplayed.sum());
+        summary(sb, "pictionary_snapshot_write_seconds", "Time to copy and write a state snapshot", snapshotWriteMicros, 1e-6);
+        gauge(sb, "pictionary_snapshot_bytes", "Size of the last state snapshot", snapshotBytes.get());
+        counter(sb, "pictionary_sessions_restored_total", "Sessions read back from the state snapshot at startup", sessionsRestored.sum());
+        gauge(sb, "pictionary_startup_milliseconds", "Time from JVM start to accepting connections", startupMillis.get());
+        counter(sb, "pictionary_archive_dropped_total", "Drawings not archived because the archive writer queue was full", archiveDropped.sum());
+        summary(sb, "pictionary_db_write_latency_seconds", "Database write latency", dbWriteLatencyMicros, 1e-6);
+
+        for (Map.Entry<String, LongSupplier> e : new TreeMap<>(extraGauges).entrySet()) {
+            gauge(sb, e.getKey(), e.getKey(), e.getValue().getAsLong());
+        }
+
+        // JVM / process resource usage
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        gauge(sb, "process_heap_used_bytes", "Heap in use", memory.getHeapMemoryUsage().getUsed());
+        gauge(sb, "process_threads", "Live JVM threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        gauge(sb, "process_uptime_seconds", "Server uptime", (System.currentTimeMillis() - startTime) / 1000);
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long cpuNanos = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            sb.append("# HELP process_cpu_seconds_total CPU time used by the server\n");
+            sb.append("# TYPE process_cpu_seconds_total counter\n");
+            sb.append("process_cpu_seconds_total ").append(cpuNanos / 1e9).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * One-line summary for the periodic log dump, with per-second message rates
+     */
+    public synchronized String toLogLine() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastLogTime) / 1e9);
+        StringBuilder rates = new StringBuilder();
+        Map<String, Long> current = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : messagesByType.entrySet()) {
+            current.put(e.getKey(), e.getValue().sum());
+        }
+        for (Map.Entry<String, Long> e : current.entrySet()) {
+            long previous = lastLoggedMessageCounts.getOrDefault(e.getKey(), 0L);
+            rates.append(String.format(" %s=%.2f/s", e.getKey(), (e.getValue() - previous) / seconds));
+        }
+        lastLoggedMessageCounts = current;
+        lastLogTime = now;
+
+        return "clients=" + connectedClients.get()
+                + " queue=" + judgingQueueDepth.get()
+                + rates
+                + " gemini_p50=" + geminiLatencyMicros.getPercentile(50) / 1000 + "ms"
+                + " gemini_p99=" + geminiLatencyMicros.getPercentile(99) / 1000 + "ms"
+                + " gemini_429=" + geminiRateLimited.sum()
+                + " gemini_errors=" + geminiErrors.sum()
+                + " round_p99=" + roundLatencyMicros.getPercentile(99) / 1000 + "ms"
+                + " db_write_p99=" + dbWriteLatencyMicros.getPercentile(99) + "us";
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Counter family with one sample per key (enum constant or name), e.g. name{mode="local"}
+     */
+    private static void labelled(StringBuilder sb, String name, String help, String label, Object[] keys, LongAdder[] values) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (int i = 0; i < keys.length; i++) {
+            sb.append(name).append('{').append(label).append("=\"").append(keys[i].toString().toLowerCase())
+              .append("\"} ").append(values[i].sum()).append('\n');
+        }
+    }
+
+    /**
+     * Summary family with one set of quantiles per key (enum constant or name), e.g. name{class="auto",quantile="0.5"}
+     */
+    private static void labelledSummary(StringBuilder sb, String name, String help, String label, Object[] keys,
+                                        Histogram[] histograms, double scale) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        for (int i = 0; i < keys.length; i++) {
+            String labels = label + "=\"" + keys[i].toString().toLowerCase() + "\"";
+            for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                sb.append(name).append('{').append(labels).append(",quantile=\"").append(q).append("\"} ")
+                  .append(histograms[i].getPercentile(q * 100) * scale).append('\n');
+            }
+            sb.append(name).append("_sum{").append(labels).append("} ").append(histograms[i].getSum() * scale).append('\n');
+            sb.append(name).append("_count{").append(labels).append("} ").append(histograms[i].getCount()).append('\n');
+        }
+    }
+
+    private static Histogram[] histograms(int count) {
+        Histogram[] histograms = new Histogram[count];
+        for (int i = 0; i < count; i++) {
+            histograms[i] = new Histogram();
+        }
+        return histograms;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String help, Histogram histogram, double scale) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+              .append(histogram.getPercentile(q * 100) * scale).append('\n');
+        }
+        sb.append(name).append("_sum ").append(histogram.getSum() * scale).append('\n');
+        sb.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+}
@@ -0,0 +1,160 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Game sessions by resume token.
+ *
+ * When a connection drops, its session stays here for a grace period so the
+ * client can reconnect with RESUME:<token>:<lastSeq>:<username> and carry on
+ * with the same prompt, round and pending verdict. A session nobody resumes
+ * is dropped when the grace period ends, and a game that was under way is
+ * scored as it stood (won or lost) instead of vanishing, and its spectator
+ * stream is closed. Sessions restored from a StateSnapshot after a restart
+ * start out detached, with a full grace period.
+ *
+ * System property: session.graceMs (default 60000)
+ */
+public class SessionTable {
+    private static final long GRACE_PERIOD = Long.getLong("session.graceMs", 60_000);
+
+    private final Map<String, GameSession> sessions = new ConcurrentHashMap<>();
+    private final TimerWheel timerWheel;
+    private final StatsStore statsStore;
+    private final SpectatorHub spectatorHub;
+    private final SecureRandom random = new SecureRandom();
+    private final ExecutorService scoring = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "score-expired");
+        thread.setDaemon(true);
+        return thread;
+    }); // Scores of expired sessions, off the timer thread since they hit the database
+    private final ServerMetrics metrics = ServerMetrics.get();
+
+    public SessionTable(TimerWheel timerWheel, StatsStore statsStore, SpectatorHub spectatorHub) {
+        this.timerWheel = timerWheel;
+        this.statsStore = statsStore;
+        this.spectatorHub = spectatorHub;
+        metrics.registerGauge("pictionary_sessions", sessions::size);
+    }
+
+    /**
+     * Create a session for a fresh login
+     */
+    public GameSession create(String username) {
+        byte[] bytes = new byte[18];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        GameSession session = new GameSession(token, username);
+        sessions.put(token, session);
+        return session;
+    }
+
+    /**
+     * Look up a session for a RESUME handshake
+     * @return null if the token is unknown or expired
+     */
+    public GameSession find(String token, String username) {
+        GameSession session = sessions.get(token);
+        if (session == null || !session.getUsername().equals(username)) {
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Put back a session read from a snapshot; its player has the grace period to resume it
+     */
+    public void restore(GameSession session) {
+        synchronized (session) {
+            sessions.put(session.getToken(), session);
+            session.expiry = timerWheel.schedule(() -> expire(session), GRACE_PERIOD);
+        }
+    }
+
+    /**
+     * The live sessions, for a snapshot
+     */
+    public Collection<GameSession> all() {
+        return sessions.values();
+    }
+
+    /**
+     * Finish recording the scores of sessions that have expired; waits up to timeoutMillis
+     */
+    public void close(long timeoutMillis) {
+        scoring.shutdown();
+        try {
+            if (!scoring.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                Log.warn("expired_scores_unsaved", "timeout_ms", timeoutMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called when a session's connection closes; starts the grace period
+     */
+    public void detach(GameSession session, OutboundQueue outbound) {
+        synchronized (session) {
+            if (!session.detach(outbound)) {
+                return;
+            }
+            if (session.expiry != null) {
+                session.expiry.cancel();
+            }
+            session.expiry = timerWheel.schedule(() -> expire(session), GRACE_PERIOD);
+        }
+    }
+
+    /**
+     * Stop the grace period timer of a session that was just resumed
+     */
+    public void resumed(GameSession session) {
+        synchronized (session) {
+            if (session.expiry != null) {
+                session.expiry.cancel();
+                session.expiry = null;
+            }
+        }
+    }
+
+    private void expire(GameSession session) {
+        if (!session.expire()) {
+            return; // Resumed just in time
+        }
+        metrics.sessionsExpired.increment();
+        Log.info("session_expired", "user", session.getUsername(), "game_in_progress", session.gameInProgress);
+        spectatorHub.remove(session.getUsername(), session.getToken());
+
+        boolean record;
+        boolean won;
+        synchronized (session) {
+            record = session.gameInProgress && session.drawingsSubmitted > 0;
+            won = session.gameWon;
+            if (record) {
+                // A late verdict for this game now credits it through the database
+                session.gameInProgress = false;
+                session.lastEndedGame = session.gameNumber;
+                session.lastEndedWon = won;
+            }
+        }
+        if (record) {
+            // Record the abandoned game rather than losing it
+            try {
+                scoring.execute(() -> statsStore.updateUserScore(session.getUsername(), won));
+            } catch (RejectedExecutionException e) {
+                // Scoring already shut down; record it here rather than drop it
+                statsStore.updateUserScore(session.getUsername(), won);
+            }
+        }
+        // Only now, so a snapshot never misses a session whose score isn't queued yet
+        sessions.remove(session.getToken(), session);
+    }
+}
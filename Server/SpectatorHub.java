@@ -0,0 +1,209 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Live spectating: each player's drawing, streamed to whoever watches them.
+ *
+ * The player's client sends LIVE:&lt;base64 StrokeTimeline&gt; with every
+ * stroke, erase and undo (the events since its previous LIVE). The hub
+ * checks the piece, adds it to the game's timeline and turns it into one
+ * SPECTATE:&lt;player&gt;:&lt;base64&gt; frame, encoded once; the same bytes are
+ * queued on every watcher's OutboundQueue, so a hundred watchers cost a
+ * hundred queue entries rather than a hundred encodings. A watcher that
+ * falls behind is disconnected by its own queue, never slowing the player.
+ *
+ * WATCH:&lt;player&gt; subscribes a connection (one player at a time):
+ * it gets SPECTATING:&lt;player&gt;:&lt;prompt&gt; and the game so far as a
+ * single SPECTATE frame, then the live frames. Every new game of the
+ * player sends SPECTATING again. The finished game's timeline goes to the
+ * DrawingArchive for replay. A channel belongs to the session that started
+ * its current game, so an old session of the same player expiring after
+ * they logged in again leaves the new game's stream alone. Spectator frames are not game messages: they
+ * skip the session replay log and a watcher that reconnects watches again.
+ *
+ * Only players on this server can be watched; behind a Gateway that means
+ * players routed to the same node.
+ *
+ * System properties: spectate.maxWatchers (per player, default 256),
+ * spectate.maxGameBytes (timeline data accepted per game, default 1 MB)
+ */
+public class SpectatorHub {
+    private static final int MAX_WATCHERS = Integer.getInteger("spectate.maxWatchers", 256);
+    private static final int MAX_GAME_BYTES = Integer.getInteger("spectate.maxGameBytes", 1024 * 1024);
+    private static final int MAX_SIDE = 4096; // Largest canvas side a watcher is asked to render
+
+    /**
+     * A player's stream; guarded by itself
+     */
+    private static class Channel {
+        final String player;
+        final List<OutboundQueue> watchers = new CopyOnWriteArrayList<>();
+        String sessionToken; // Session whose game this is
+        String prompt = "";
+        StrokeTimeline timeline; // Current game; null until its first events arrive
+        int receivedBytes;
+        boolean overLimit;
+
+        Channel(String player) {
+            this.player = player;
+        }
+    }
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+    private final DrawingArchive drawingArchive;
+    private final ServerMetrics metrics = ServerMetrics.get();
+
+    public SpectatorHub(DrawingArchive drawingArchive) {
+        this.drawingArchive = drawingArchive;
+        metrics.registerGauge("pictionary_spectators", () -> {
+            long watching = 0;
+            for (Channel channel : channels.values()) {
+                watching += channel.watchers.size();
+            }
+            return watching;
+        });
+    }
+
+    /**
+     * A player started a game: archive the last one and tell watchers
+     * @param sessionToken the player's session, which now owns the channel
+     */
+    public void newGame(String player, String sessionToken, String prompt) {
+        while (true) {
+            Channel channel = channels.computeIfAbsent(player, Channel::new);
+            synchronized (channel) {
+                if (channels.get(player) != channel) {
+                    continue; // Removed by an expiring session in the meantime
+                }
+                archive(channel);
+                channel.sessionToken = sessionToken;
+                channel.prompt = prompt;
+                channel.timeline = null;
+                channel.receivedBytes = 0;
+                channel.overLimit = false;
+                fanOut(channel, "SPECTATING:" + player + ":" + prompt);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add a piece of the player's timeline and stream it to the watchers
+     * @return false if it was malformed or the game is over the size limit (and was dropped)
+     */
+    public boolean publish(String player, String timelineBase64) {
+        Channel channel = channels.get(player);
+        if (channel == null) {
+            return false;
+        }
+        synchronized (channel) {
+            if (channel.overLimit) {
+                return false;
+            }
+            channel.receivedBytes += timelineBase64.length();
+            if (channel.receivedBytes > MAX_GAME_BYTES) {
+                channel.overLimit = true;
+                Log.warn("spectate_game_too_large", "user", player, "limit_bytes", MAX_GAME_BYTES);
+                return false;
+            }
+            try {
+                StrokeTimeline piece = StrokeTimeline.decode(Base64.getDecoder().decode(timelineBase64));
+                if (channel.timeline == null) {
+                    if (piece.getWidth() > MAX_SIDE || piece.getHeight() > MAX_SIDE) {
+                        throw new IllegalArgumentException("Canvas too large: " + piece.getWidth() + "x" + piece.getHeight());
+                    }
+                    StrokeTimeline timeline = new StrokeTimeline(piece.getWidth(), piece.getHeight());
+                    timeline.append(piece); // Checks stroke ids and ordering
+                    channel.timeline = timeline;
+                } else {
+                    channel.timeline.append(piece);
+                }
+            } catch (IllegalArgumentException e) {
+                metrics.spectateRejected.increment();
+                Log.warn("invalid_timeline", "user", player, "error", e.getMessage());
+                return false;
+            }
+            fanOut(channel, "SPECTATE:" + player + ":" + timelineBase64);
+        }
+        return true;
+    }
+
+    /**
+     * Start streaming a player's game to a connection
+     * @return false if the player isn't on this server or has too many watchers
+     */
+    public boolean watch(String player, OutboundQueue watcher) {
+        Channel channel = channels.get(player);
+        if (channel == null) {
+            return false;
+        }
+        synchronized (channel) {
+            if (channel.watchers.size() >= MAX_WATCHERS) {
+                Log.warn("spectate_watchers_full", "user", player, "limit", MAX_WATCHERS);
+                return false;
+            }
+            // Catch up before the next live frame: what the game looks like so far, in one frame
+            watcher.send("SPECTATING:" + player + ":" + channel.prompt);
+            if (channel.timeline != null && channel.timeline.size() > 0) {
+                watcher.send("SPECTATE:" + player + ":" + Base64.getEncoder().encodeToString(channel.timeline.encode()));
+            }
+            channel.watchers.add(watcher);
+        }
+        Log.info("spectate_started", "player", player);
+        return true;
+    }
+
+    public void unwatch(String player, OutboundQueue watcher) {
+        Channel channel = channels.get(player);
+        if (channel != null) {
+            channel.watchers.remove(watcher);
+        }
+    }
+
+    /**
+     * A session of the player is gone: archive their game and let watchers know, unless the
+     * channel now belongs to a newer session of theirs
+     */
+    public void remove(String player, String sessionToken) {
+        Channel channel = channels.get(player);
+        if (channel == null) {
+            return;
+        }
+        synchronized (channel) {
+            if (!sessionToken.equals(channel.sessionToken) || !channels.remove(player, channel)) {
+                return;
+            }
+            archive(channel);
+            fanOut(channel, "NOSPECTATE:" + player);
+            channel.watchers.clear();
+        }
+    }
+
+    /**
+     * Encode a frame once and queue the same bytes for every watcher (caller holds the channel)
+     */
+    private void fanOut(Channel channel, String message) {
+        if (channel.watchers.isEmpty()) {
+            return;
+        }
+        byte[] frame = message.getBytes(StandardCharsets.UTF_8);
+        metrics.spectateFrames.increment();
+        for (OutboundQueue watcher : channel.watchers) {
+            if (watcher.sendShared(frame)) {
+                metrics.spectateDeliveries.increment();
+            } else {
+                channel.watchers.remove(watcher); // Closed, or too slow and now disconnected
+            }
+        }
+    }
+
+    private void archive(Channel channel) {
+        if (channel.timeline != null && channel.timeline.size() > 0) {
+            drawingArchive.archive(DrawingArchive.KIND_TIMELINE, channel.timeline.encode());
+        }
+    }
+}
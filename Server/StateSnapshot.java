@@ -0,0 +1,299 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Server state kept on disk so that a restart doesn't cost players their games.
+ *
+ * Every snapshot.intervalMs a background thread writes the game sessions
+ * (state, replay log and the drawings still owed a verdict) and the judge's
+ * verdict cache to snapshot.file. Each session is copied under its own lock
+ * and the cache under its lock, so games wait for a memory copy at most,
+ * never for the disk. The file is written beside the old one and moved over
+ * it, so a crash while writing leaves the previous snapshot in place.
+ * ServerMain writes a last snapshot when it shuts down.
+ *
+ * At startup the file is memory-mapped and read back before the server
+ * accepts connections. Sessions come back detached with a fresh grace
+ * period: the clients reconnect with RESUME as after any dropped
+ * connection, get the messages they missed, and drawings that were being
+ * judged are judged again. Matchmaking rooms and spectator streams are not
+ * kept; they start over with the players' next games.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   magic (int) | version (int) | written at (epoch millis, long) | sectionCount (int)
+ *   per section: id (byte) | length (int) | body
+ *     SESSIONS: count | GameSession.writeSnapshot() each
+ *     VERDICTS: count | per verdict: image hash (bytes) | verdict (string)
+ *   CRC32 of everything before it (int)
+ * </pre>
+ * Strings are an int byte length (-1 for null) and UTF-8; byte strings an
+ * int length and the bytes. Unknown sections are skipped. A file whose
+ * checksum doesn't match is not read at all, so damage that would still
+ * parse (a changed byte inside a string) can't come back as wrong state.
+ *
+ * System properties: snapshot.file (default server_state.snapshot, empty
+ * to turn snapshots off), snapshot.intervalMs (default 10000)
+ */
+public class StateSnapshot {
+    private static final int MAGIC = 0x50535331; // "PSS1"
+    private static final int VERSION = 2; // 2 added the checksum
+    private static final byte SESSIONS = 1;
+    private static final byte VERDICTS = 2;
+    private static final int MAX_COUNT = 1 << 24; // Sanity limit on counts and lengths read back
+
+    private final Path file;
+    private final long intervalMillis;
+    private final SessionTable sessionTable;
+    private final JudgeService judge;
+    private final ServerMetrics metrics = ServerMetrics.get();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Snapshots configured from the snapshot.* system properties
+     */
+    public StateSnapshot(SessionTable sessionTable, JudgeService judge) {
+        this(System.getProperty("snapshot.file", "server_state.snapshot"), Long.getLong("snapshot.intervalMs", 10_000),
+                sessionTable, judge);
+    }
+
+    /**
+     * @param file where snapshots go; null or empty for none
+     */
+    public StateSnapshot(String file, long intervalMillis, SessionTable sessionTable, JudgeService judge) {
+        this.file = file == null || file.isEmpty() ? null : Paths.get(file);
+        this.intervalMillis = intervalMillis;
+        this.sessionTable = sessionTable;
+        this.judge = judge;
+    }
+
+    /**
+     * Read back the last snapshot, if there is one; a damaged one is logged and ignored
+     * @return sessions restored
+     */
+    public int restore() {
+        if (file == null) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        List<GameSession> sessions = new ArrayList<>();
+        Map<String, String> verdicts = new LinkedHashMap<>();
+        long writtenAt;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+                throw new IllegalArgumentException("not a version " + VERSION + " snapshot");
+            }
+            if (mapped.limit() < 12) {
+                throw new BufferUnderflowException();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(mapped.slice(0, mapped.limit() - 4));
+            if ((int) crc.getValue() != mapped.getInt(mapped.limit() - 4)) {
+                throw new IllegalArgumentException("checksum mismatch");
+            }
+            ByteBuffer in = mapped.slice(8, mapped.limit() - 12);
+            writtenAt = in.getLong();
+            int sections = readCount(in);
+            for (int i = 0; i < sections; i++) {
+                byte id = in.get();
+                int length = readCount(in);
+                ByteBuffer body = in.slice(in.position(), length);
+                in.position(in.position() + length);
+                if (id == SESSIONS) {
+                    int count = readCount(body);
+                    for (int s = 0; s < count; s++) {
+                        sessions.add(GameSession.readSnapshot(body));
+                    }
+                } else if (id == VERDICTS) {
+                    int count = readCount(body);
+                    for (int v = 0; v < count; v++) {
+                        String hash = Base64.getEncoder().encodeToString(readBytes(body));
+                        String verdict = readString(body);
+                        if (verdict == null) {
+                            throw new IllegalArgumentException("Verdict missing");
+                        }
+                        verdicts.put(hash, verdict);
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            Log.info("snapshot_not_found", "file", file);
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            // Truncated (BufferUnderflowException, IndexOutOfBoundsException), damaged or not ours: start empty
+            Log.warn("snapshot_unreadable", "file", file, "error", e.toString());
+            return 0;
+        }
+
+        // Only a snapshot that read back completely is used
+        for (GameSession session : sessions) {
+            sessionTable.restore(session);
+        }
+        judge.restoreVerdicts(verdicts);
+        metrics.sessionsRestored.add(sessions.size());
+        Log.info("snapshot_restored", "sessions", sessions.size(), "verdicts", verdicts.size(),
+                "age_ms", System.currentTimeMillis() - writtenAt,
+                "elapsed_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return sessions.size();
+    }
+
+    /**
+     * Start writing snapshots every intervalMillis
+     */
+    public synchronized void start() {
+        if (file == null || intervalMillis <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::writeQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        Log.info("snapshots_started", "file", file, "interval_ms", intervalMillis);
+    }
+
+    /**
+     * Stop the periodic snapshots and write a last one
+     */
+    public void stop() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
+        }
+        writeQuietly();
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException | RuntimeException e) {
+            Log.error("snapshot_failed", e, "file", file);
+        }
+    }
+
+    /**
+     * Write a snapshot now (serialised with the periodic ones)
+     */
+    public synchronized void write() throws IOException {
+        if (file == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(bytes, crc));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.writeInt(2);
+
+        ByteArrayOutputStream section = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream body = new DataOutputStream(section);
+        List<GameSession> sessions = new ArrayList<>(sessionTable.all());
+        body.writeInt(sessions.size());
+        for (GameSession session : sessions) {
+            session.writeSnapshot(body);
+        }
+        writeSection(out, SESSIONS, section);
+
+        section.reset();
+        Map<String, String> verdicts = judge.cachedVerdicts();
+        body.writeInt(verdicts.size());
+        for (Map.Entry<String, String> verdict : verdicts.entrySet()) {
+            writeBytes(body, Base64.getDecoder().decode(verdict.getKey()));
+            writeString(body, verdict.getValue());
+        }
+        writeSection(out, VERDICTS, section);
+        out.writeInt((int) crc.getValue());
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        metrics.snapshotWriteMicros.record((System.nanoTime() - start) / 1000);
+        metrics.snapshotBytes.set(bytes.size());
+        Log.debug("snapshot_written", "sessions", sessions.size(), "verdicts", verdicts.size(), "bytes", bytes.size());
+    }
+
+    private static void writeSection(DataOutputStream out, byte id, ByteArrayOutputStream section) throws IOException {
+        out.writeByte(id);
+        out.writeInt(section.size());
+        section.writeTo(out);
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == -1) {
+            return null;
+        }
+        return new String(readBytes(in, length), StandardCharsets.UTF_8);
+    }
+
+    static byte[] readBytes(ByteBuffer in) {
+        return readBytes(in, readCount(in));
+    }
+
+    /**
+     * A count or length, checked so a damaged file can't make us allocate gigabytes
+     */
+    static int readCount(ByteBuffer in) {
+        int count = in.getInt();
+        if (count < 0 || count > MAX_COUNT || count > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    private static byte[] readBytes(ByteBuffer in, int length) {
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] data = new byte[length];
+        in.get(data);
+        return data;
+    }
+}
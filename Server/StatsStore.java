@@ -0,0 +1,45 @@
+import java.util.Map;
+
+/**
+ * Where user statistics (games played, games won) live.
+ *
+ * A single server keeps them in its own SQLite file (DatabaseManager).
+ * Game nodes behind a Gateway must all see the same numbers, since a
+ * player's next connection may land on another node: they share one store,
+ * e.g. the same SQLite file when the nodes run on one machine.
+ * InMemoryStatsStore stands in for tests and throwaway nodes.
+ * Implementations are thread-safe.
+ */
+public interface StatsStore {
+    /**
+     * Record a finished game
+     * @param correct whether the user won it
+     */
+    void updateUserScore(String username, boolean correct);
+
+    /**
+     * Turn an already recorded lost game into a win (a verdict that arrived after the game ended)
+     */
+    void addWin(String username);
+
+    int getUserScore(String username);
+
+    int getUserGames(String username);
+
+    /**
+     * Top players by score, best first (ties by name)
+     * @return username -> score, in rank order
+     */
+    Map<String, Integer> getLeaderboard(int limit);
+
+    void close();
+
+    /**
+     * Get user statistics as a formatted string
+     */
+    default String getUserStats(String username) {
+        int games = getUserGames(username);
+        int score = getUserScore(username);
+        return "Games: " + games + " | Score: " + score;
+    }
+}
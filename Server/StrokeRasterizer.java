@@ -0,0 +1,149 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns stroke data (StrokeCodec) sent by clients into the base64 PNG the
+ * judge expects, so clients can send a few KB of vectors instead of an image.
+ *
+ * Drawings are rendered straight at the judge's input size: the longer side
+ * is scaled down to maxSide pixels (Gemini tiles images at 768x768, so
+ * anything larger is only downsampled again on their side) and smaller
+ * drawings are never scaled up. Each render borrows a slot holding a
+ * maxSide x maxSide image and a PNG writer; only the top-left corner the
+ * drawing needs is cleared, drawn and encoded. There are at most poolSize
+ * slots (one per core by default); when all are busy, callers wait rather
+ * than allocating another canvas. PNG and Base64 bytes go through pooled
+ * buffers, so a render allocates little beyond the result string.
+ *
+ * Safe to call from any number of judging threads.
+ */
+public class StrokeRasterizer {
+    public static final int DEFAULT_MAX_SIDE = Integer.getInteger("rasterizer.maxSide", 768);
+    public static final int DEFAULT_POOL_SIZE = Integer.getInteger("rasterizer.pool",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * A reusable canvas and encoder; used by one thread at a time
+     */
+    private static class Slot {
+        final BufferedImage image;
+        final ImageWriter writer;
+
+        Slot(int maxSide) {
+            image = new BufferedImage(maxSide, maxSide, BufferedImage.TYPE_INT_RGB);
+            writer = ImageIO.getImageWritersByFormatName("png").next();
+        }
+    }
+
+    private final int maxSide;
+    private final int poolSize;
+    private final BlockingQueue<Slot> idle;
+    private final AtomicInteger created = new AtomicInteger();
+    private final BufferPool bufferPool = BufferPool.SHARED;
+    private final ServerMetrics metrics = ServerMetrics.get();
+
+    static {
+        // ImageIO otherwise buffers every PNG through a temporary file
+        ImageIO.setUseCache(false);
+    }
+
+    public StrokeRasterizer() {
+        this(DEFAULT_MAX_SIDE, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param maxSide longest side of a rendered image, in pixels
+     * @param poolSize most renders in progress at once (and canvases kept)
+     */
+    public StrokeRasterizer(int maxSide, int poolSize) {
+        if (maxSide < 1 || poolSize < 1) {
+            throw new IllegalArgumentException("maxSide and poolSize must be positive");
+        }
+        this.maxSide = maxSide;
+        this.poolSize = poolSize;
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * Render a drawing and encode it as base64 PNG
+     * @throws IllegalArgumentException if the drawing has no area
+     */
+    public String rasterizeBase64(StrokeCodec.Drawing drawing) throws IOException, InterruptedException {
+        if (drawing.width <= 0 || drawing.height <= 0) {
+            throw new IllegalArgumentException("Empty drawing: " + drawing.width + "x" + drawing.height);
+        }
+        long start = System.nanoTime();
+        double scale = Math.min(1.0, (double) maxSide / Math.max(drawing.width, drawing.height));
+        int width = Math.max(1, Math.min(maxSide, (int) Math.round(drawing.width * scale)));
+        int height = Math.max(1, Math.min(maxSide, (int) Math.round(drawing.height * scale)));
+
+        Slot slot = acquire();
+        PooledOutputStream png = new PooledOutputStream(bufferPool, 16 * 1024);
+        PooledOutputStream base64 = null;
+        try {
+            StrokeRenderer.render(slot.image, width, height, scale, drawing.strokes);
+            encodePng(slot, width, height, png);
+
+            base64 = new PooledOutputStream(bufferPool, (png.size() + 2) / 3 * 4);
+            try (OutputStream encoder = Base64.getEncoder().wrap(base64)) {
+                encoder.write(png.getBuffer(), 0, png.size());
+            }
+            return new String(base64.getBuffer(), 0, base64.size(), StandardCharsets.ISO_8859_1);
+        } finally {
+            if (base64 != null) {
+                base64.release();
+            }
+            png.release();
+            idle.offer(slot);
+            metrics.rasterizeLatencyMicros.record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * Canvases allocated so far (at most the pool size)
+     */
+    public int getAllocatedSlots() {
+        return created.get();
+    }
+
+    private Slot acquire() throws InterruptedException {
+        Slot slot = idle.poll();
+        if (slot != null) {
+            return slot;
+        }
+        // Canvases are created on first use, up to the pool size
+        int count = created.get();
+        while (count < poolSize) {
+            if (created.compareAndSet(count, count + 1)) {
+                return new Slot(maxSide);
+            }
+            count = created.get();
+        }
+        metrics.rasterizePoolWaits.increment();
+        return idle.take();
+    }
+
+    private static void encodePng(Slot slot, int width, int height, OutputStream out) throws IOException {
+        ImageWriteParam param = slot.writer.getDefaultWriteParam();
+        param.setSourceRegion(new Rectangle(0, 0, width, height));
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            slot.writer.setOutput(stream);
+            slot.writer.write(null, new IIOImage(slot.image, null, null), param);
+        } finally {
+            slot.writer.reset();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hashed timer wheel shared by all sessions for deadlines and periodic checks.
+ *
+ * Scheduling and cancelling are O(1); one thread advances the wheel every
+ * tick and runs the tasks that are due. Timing is only accurate to one
+ * tick, which is plenty for handshake deadlines and idle timeouts.
+ * Tasks run on the wheel thread, so they must be short (close a socket,
+ * queue a message) and never block.
+ */
+public class TimerWheel {
+    /**
+     * Handle of a scheduled task
+     */
+    public static class Timeout {
+        private final Runnable task;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        Timeout(Runnable task, long remainingRounds) {
+            this.task = task;
+            this.remainingRounds = remainingRounds;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickMillis;
+    private final List<Timeout>[] slots;
+    private final Thread thread;
+    private long tick; // Ticks processed so far; guarded by this
+    private volatile boolean running = true;
+
+    public TimerWheel() {
+        this(100, 512);
+    }
+
+    /**
+     * @param tickMillis length of one tick
+     * @param slotCount  wheel size (rounded up to a power of two)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"}) // Generic array creation; each slot is an ArrayList<Timeout>
+    public TimerWheel(long tickMillis, int slotCount) {
+        int size = Integer.highestOneBit(Math.max(2, slotCount - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.slots = new List[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        thread = new Thread(this::run, "timer-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run the task once after the given delay
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        synchronized (this) {
+            Timeout timeout = new Timeout(task, (ticks - 1) / slots.length);
+            slots[(int) ((tick + ticks) & (slots.length - 1))].add(timeout);
+            return timeout;
+        }
+    }
+
+    /**
+     * Stop the wheel; a task already running is given up to a few seconds to finish,
+     * so (unless it hangs) nothing runs any more once this returns
+     */
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        long nextTick = System.nanoTime() + tickMillis * 1_000_000L;
+        List<Timeout> due = new ArrayList<>();
+        while (running) {
+            long sleepNanos = nextTick - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            nextTick += tickMillis * 1_000_000L;
+
+            synchronized (this) {
+                tick++;
+                Iterator<Timeout> it = slots[(int) (tick & (slots.length - 1))].iterator();
+                while (it.hasNext()) {
+                    Timeout timeout = it.next();
+                    if (timeout.cancelled) {
+                        it.remove();
+                    } else if (timeout.remainingRounds > 0) {
+                        timeout.remainingRounds--;
+                    } else {
+                        it.remove();
+                        due.add(timeout);
+                    }
+                }
+            }
+
+            // Run outside the lock so tasks can schedule follow-ups
+            for (Timeout timeout : due) {
+                if (timeout.cancelled) {
+                    continue;
+                }
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    Log.error("timer_task_failed", e);
+                }
+            }
+            due.clear();
+        }
+    }
+}
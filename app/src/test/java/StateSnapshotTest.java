@@ -0,0 +1,242 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * StateSnapshot write and restore, and restoring from truncated or foreign files
+ */
+class StateSnapshotTest {
+    private final List<TimerWheel> wheels = new ArrayList<>();
+    private final Judge judge = (imageBase64, prompt) -> "{\"object\": \"unknown\", \"comment\": \"\"}";
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("snapshot-test");
+        file = directory.resolve("server_state.snapshot");
+    }
+
+    @AfterEach
+    void cleanUp() throws IOException {
+        wheels.forEach(TimerWheel::stop);
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void sessionsAndVerdictsRoundTrip() throws IOException {
+        SessionTable table = newTable();
+        JudgeService service = new JudgeService(judge);
+        List<GameSession> sessions = populate(table, new Random(1));
+        Map<String, String> verdicts = new LinkedHashMap<>();
+        verdicts.put(hash(1), "{\"object\": \"cat\", \"comment\": \"Whiskers\"}");
+        verdicts.put(hash(2), "{\"object\": \"house\", \"comment\": \"\"}");
+        service.restoreVerdicts(verdicts);
+        new StateSnapshot(file.toString(), 0, table, service).write();
+
+        SessionTable restoredTable = newTable();
+        JudgeService restoredService = new JudgeService(judge);
+        assertEquals(sessions.size(), new StateSnapshot(file.toString(), 0, restoredTable, restoredService).restore());
+
+        for (GameSession session : sessions) {
+            GameSession restored = restoredTable.find(session.getToken(), session.getUsername());
+            assertNotNull(restored, session.getUsername() + " not restored");
+            assertEquals(session.currentObject, restored.currentObject);
+            assertEquals(session.gameWon, restored.gameWon);
+            assertEquals(session.gameInProgress, restored.gameInProgress);
+            assertEquals(session.drawingsSubmitted, restored.drawingsSubmitted);
+            assertEquals(session.gameNumber, restored.gameNumber);
+            assertEquals(session.lastEndedGame, restored.lastEndedGame);
+            assertEquals(session.lastEndedWon, restored.lastEndedWon);
+            // Replay log, sequence number and pending drawings included
+            assertArrayEquals(snapshotOf(session), snapshotOf(restored), session.getUsername());
+        }
+        assertEquals(verdicts, restoredService.cachedVerdicts());
+    }
+
+    @Test
+    void pendingDrawingsComeBackToBeJudged() throws IOException {
+        SessionTable table = newTable();
+        GameSession session = table.create("alice");
+        session.gameNumber = 3;
+        GameSession.PendingDrawing drawing = new GameSession.PendingDrawing(3, "tree", DrawingArchive.KIND_STROKES,
+                Base64.getEncoder().encodeToString(new byte[]{2, 10, 20, 0, 0}), "tool=pen");
+        drawing.deferred = true;
+        session.addPending(drawing);
+        new StateSnapshot(file.toString(), 0, table, new JudgeService(judge)).write();
+
+        SessionTable restoredTable = newTable();
+        new StateSnapshot(file.toString(), 0, restoredTable, new JudgeService(judge)).restore();
+        List<GameSession.PendingDrawing> restored =
+                restoredTable.find(session.getToken(), "alice").takeRestoredDrawings();
+
+        assertEquals(1, restored.size());
+        assertEquals(3, restored.get(0).game);
+        assertEquals("tree", restored.get(0).object);
+        assertEquals(DrawingArchive.KIND_STROKES, restored.get(0).kind);
+        assertEquals(drawing.dataBase64, restored.get(0).dataBase64);
+        assertEquals("tool=pen", restored.get(0).meta);
+        assertTrue(restored.get(0).deferred);
+        assertTrue(restoredTable.find(session.getToken(), "alice").takeRestoredDrawings().isEmpty(),
+                "restored drawings are handed out once");
+    }
+
+    @Test
+    void missingFileRestoresNothing() {
+        assertEquals(0, new StateSnapshot(file.toString(), 0, newTable(), new JudgeService(judge)).restore());
+    }
+
+    @Test
+    void truncatedSnapshotRestoresNothing() throws IOException {
+        SessionTable table = newTable();
+        populate(table, new Random(2));
+        new StateSnapshot(file.toString(), 0, table, new JudgeService(judge)).write();
+        byte[] data = Files.readAllBytes(file);
+
+        for (int length = 0; length < data.length; length += 1 + length / 16) {
+            Files.write(file, Arrays.copyOf(data, length));
+            SessionTable restoredTable = newTable();
+            JudgeService restoredService = new JudgeService(judge);
+            assertEquals(0, new StateSnapshot(file.toString(), 0, restoredTable, restoredService).restore(),
+                    "length " + length);
+            assertTrue(restoredTable.all().isEmpty(), "sessions kept from a snapshot cut at " + length);
+            assertTrue(restoredService.cachedVerdicts().isEmpty());
+        }
+    }
+
+    @Test
+    void garbageRestoresNothing() throws IOException {
+        Random random = new Random(3);
+        for (int i = 0; i < 50; i++) {
+            byte[] data = new byte[random.nextInt(4096)];
+            random.nextBytes(data);
+            Files.write(file, data);
+            SessionTable restoredTable = newTable();
+            assertEquals(0, new StateSnapshot(file.toString(), 0, restoredTable, new JudgeService(judge)).restore());
+            assertTrue(restoredTable.all().isEmpty());
+        }
+    }
+
+    @Test
+    void corruptedSnapshotRestoresNothing() throws IOException {
+        SessionTable table = newTable();
+        populate(table, new Random(4));
+        new StateSnapshot(file.toString(), 0, table, new JudgeService(judge)).write();
+        byte[] valid = Files.readAllBytes(file);
+        Random random = new Random(5);
+
+        for (int i = 0; i < 500; i++) {
+            byte[] data = valid.clone();
+            for (int flips = 1 + random.nextInt(4); flips > 0; flips--) {
+                data[random.nextInt(data.length)] ^= (byte) (1 + random.nextInt(255));
+            }
+            Files.write(file, data);
+            SessionTable restoredTable = newTable();
+            // Even a changed byte inside a string, which would still parse, fails the checksum
+            assertEquals(0, new StateSnapshot(file.toString(), 0, restoredTable, new JudgeService(judge)).restore());
+            assertTrue(restoredTable.all().isEmpty());
+        }
+    }
+
+    @Test
+    void sessionWithoutTokenIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        StateSnapshot.writeString(out, null);
+        StateSnapshot.writeString(out, "alice");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> GameSession.readSnapshot(ByteBuffer.wrap(bytes.toByteArray())));
+    }
+
+    @Test
+    void noFileMeansNoSnapshots() throws IOException {
+        SessionTable table = newTable();
+        table.create("alice");
+        StateSnapshot snapshot = new StateSnapshot("", 0, table, new JudgeService(judge));
+        snapshot.write();
+
+        assertEquals(0, snapshot.restore());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertFalse(files.findAny().isPresent());
+        }
+    }
+
+    private SessionTable newTable() {
+        TimerWheel wheel = new TimerWheel();
+        wheels.add(wheel);
+        return new SessionTable(wheel, new InMemoryStatsStore(), new SpectatorHub(null));
+    }
+
+    /**
+     * Sessions in assorted states: new, mid-game with drawings being judged, between games
+     */
+    private static List<GameSession> populate(SessionTable table, Random random) {
+        List<GameSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            GameSession session = table.create("player" + i);
+            if (i % 4 != 0) {
+                session.gameNumber = 1 + random.nextInt(10);
+                session.lastEndedGame = session.gameNumber - 1;
+                session.lastEndedWon = random.nextBoolean();
+                session.currentObject = i % 3 == 0 ? null : "object" + i;
+                session.gameInProgress = i % 2 == 0;
+                session.gameWon = i % 5 == 0;
+                session.drawingsSubmitted = random.nextInt(4);
+                for (int m = random.nextInt(50); m > 0; m--) {
+                    session.send("PROMPT:héllo " + m); // Not ASCII, and past the replay log's length
+                }
+                for (int d = 0; d < session.drawingsSubmitted; d++) {
+                    byte[] data = new byte[1 + random.nextInt(200)];
+                    random.nextBytes(data);
+                    GameSession.PendingDrawing drawing = new GameSession.PendingDrawing(session.gameNumber,
+                            session.currentObject, d % 2 == 0 ? DrawingArchive.KIND_PNG : DrawingArchive.KIND_STROKES,
+                            Base64.getEncoder().encodeToString(data), d % 2 == 0 ? "" : "strokes=" + d);
+                    drawing.deferred = d == 1;
+                    session.addPending(drawing);
+                }
+            }
+            sessions.add(session);
+        }
+        return sessions;
+    }
+
+    private static byte[] snapshotOf(GameSession session) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        session.writeSnapshot(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static String hash(int seed) {
+        byte[] hash = new byte[32];
+        new Random(seed).nextBytes(hash);
+        return Base64.getEncoder().encodeToString(hash);
+    }
+}
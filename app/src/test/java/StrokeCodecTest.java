@@ -0,0 +1,194 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * StrokeCodec round trips, and decoding of truncated, random and invalid data
+ */
+class StrokeCodecTest {
+
+    static List<Stroke> sampleStrokes(Random random) {
+        List<Stroke> strokes = new ArrayList<>();
+        Stroke path = new Stroke(Stroke.PATH, 0x123456, 5);
+        int x = -20, y = 300;
+        for (int i = 0; i < 200; i++) {
+            path.add(x, y);
+            x += random.nextInt(21) - 10;
+            y += random.nextInt(21) - 10;
+        }
+        strokes.add(path);
+        strokes.add(shape(Stroke.LINE, 0xFF0000, 3, 0, 0, 799, 599));
+        strokes.add(shape(Stroke.RECTANGLE, 0x00FF00, 1, 500, 400, 100, 50));
+        strokes.add(shape(Stroke.ELLIPSE, 0x0000FF, 20, -5, -5, 40, 40));
+        Stroke fill = new Stroke(Stroke.FILL, 0xFFFF00, 0);
+        fill.add(400, 300);
+        strokes.add(fill);
+        Stroke dot = new Stroke(Stroke.PATH, 0x123456, 8); // Same colour again: one palette entry
+        dot.add(10, 10);
+        strokes.add(dot);
+        return strokes;
+    }
+
+    static Stroke shape(int kind, int color, int width, int x0, int y0, int x1, int y1) {
+        Stroke stroke = new Stroke(kind, color, width);
+        stroke.add(x0, y0);
+        stroke.add(x1, y1);
+        return stroke;
+    }
+
+    static void assertSameStroke(Stroke expected, Stroke actual) {
+        assertEquals(expected.getKind(), actual.getKind(), "kind");
+        assertEquals(expected.getColor(), actual.getColor(), "color");
+        assertEquals(expected.getWidth(), actual.getWidth(), "width");
+        assertEquals(expected.getPointCount(), actual.getPointCount(), "points");
+        for (int i = 0; i < expected.getPointCount(); i++) {
+            assertEquals(expected.getX(i), actual.getX(i), "x" + i);
+            assertEquals(expected.getY(i), actual.getY(i), "y" + i);
+        }
+    }
+
+    @Test
+    void roundTrip() {
+        List<Stroke> strokes = sampleStrokes(new Random(1));
+        StrokeCodec.Drawing drawing = StrokeCodec.decode(StrokeCodec.encode(800, 600, strokes));
+
+        assertEquals(800, drawing.width);
+        assertEquals(600, drawing.height);
+        assertEquals(strokes.size(), drawing.strokes.size());
+        for (int i = 0; i < strokes.size(); i++) {
+            assertSameStroke(strokes.get(i), drawing.strokes.get(i));
+        }
+    }
+
+    @Test
+    void emptyDrawingRoundTrips() {
+        StrokeCodec.Drawing drawing = StrokeCodec.decode(StrokeCodec.encode(0, 0, List.of()));
+        assertEquals(0, drawing.strokes.size());
+    }
+
+    @Test
+    void truncatedDataIsRejected() {
+        byte[] data = StrokeCodec.encode(800, 600, sampleStrokes(new Random(2)));
+        for (int length = 0; length < data.length; length++) {
+            byte[] prefix = Arrays.copyOf(data, length);
+            assertThrows(IllegalArgumentException.class, () -> StrokeCodec.decode(prefix), "length " + length);
+        }
+    }
+
+    @Test
+    void garbageThrowsOnlyIllegalArgument() {
+        Random random = new Random(3);
+        byte[] valid = StrokeCodec.encode(800, 600, sampleStrokes(random));
+        for (int i = 0; i < 5_000; i++) {
+            byte[] data;
+            if (i % 2 == 0) {
+                data = new byte[random.nextInt(64)];
+                random.nextBytes(data);
+                if (data.length > 0) {
+                    data[0] = (byte) (1 + random.nextInt(2)); // Get past the version check
+                }
+            } else {
+                data = valid.clone();
+                for (int flips = 1 + random.nextInt(4); flips > 0; flips--) {
+                    data[1 + random.nextInt(data.length - 1)] = (byte) random.nextInt(256);
+                }
+            }
+            try {
+                StrokeCodec.decode(data);
+            } catch (IllegalArgumentException expected) {
+                // Malformed, fine; anything else (an index or allocation error) fails the test
+            }
+        }
+    }
+
+    @Test
+    void invalidStrokesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> decodeStroke(Stroke.PATH, -1, 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> decodeStroke(Stroke.PATH, StrokeCodec.MAX_STROKE_WIDTH + 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> decodeStroke(Stroke.PATH, 5, 0));
+        assertThrows(IllegalArgumentException.class, () -> decodeStroke(Stroke.LINE, 5, 1));
+        assertThrows(IllegalArgumentException.class, () -> decodeStroke(Stroke.RECTANGLE, 5, 3));
+        assertThrows(IllegalArgumentException.class, () -> decodeStroke(Stroke.FILL, 0, 2));
+        assertThrows(IllegalArgumentException.class, () -> decodeStroke(Stroke.FILL + 1, 5, 1));
+
+        assertEquals(1, decodeStroke(Stroke.PATH, StrokeCodec.MAX_STROKE_WIDTH, 1).strokes.size());
+        assertEquals(1, decodeStroke(Stroke.ELLIPSE, 5, 2).strokes.size());
+        assertEquals(1, decodeStroke(Stroke.FILL, 0, 1).strokes.size());
+    }
+
+    @Test
+    void limitsAreCheckedBeforeAllocating() {
+        ByteArrayOutputStream out = header(1);
+        StrokeCodec.writeVarint(out, StrokeCodec.MAX_STROKES + 1);
+        assertThrows(IllegalArgumentException.class, () -> StrokeCodec.decode(out.toByteArray()));
+
+        ByteArrayOutputStream huge = header(1);
+        StrokeCodec.writeVarint(huge, 1);
+        StrokeCodec.writeVarint(huge, Stroke.PATH);
+        StrokeCodec.writeVarint(huge, 0);
+        StrokeCodec.writeVarint(huge, 5);
+        StrokeCodec.writeVarint(huge, Integer.MAX_VALUE); // Points that aren't there
+        assertThrows(IllegalArgumentException.class, () -> StrokeCodec.decode(huge.toByteArray()));
+    }
+
+    @Test
+    void varintsRoundTrip() {
+        int[] values = {0, 1, 127, 128, 300, 16_383, 16_384, Integer.MAX_VALUE};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int value : values) {
+            StrokeCodec.writeVarint(out, value);
+        }
+        StrokeCodec.Reader in = new StrokeCodec.Reader(out.toByteArray());
+        int[] read = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            read[i] = in.readVarint();
+        }
+        assertArrayEquals(values, read);
+        for (int value : new int[]{0, 1, -1, 1000, -1000, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            assertEquals(value, StrokeCodec.unzigzag(StrokeCodec.zigzag(value)));
+        }
+    }
+
+    /**
+     * A drawing of one stroke, written by hand so that it can break the rules
+     */
+    private static StrokeCodec.Drawing decodeStroke(int kind, int width, int pointCount) {
+        ByteArrayOutputStream out = header(1);
+        StrokeCodec.writeVarint(out, 1);
+        StrokeCodec.writeVarint(out, kind);
+        StrokeCodec.writeVarint(out, 0);
+        StrokeCodec.writeVarint(out, width);
+        StrokeCodec.writeVarint(out, pointCount);
+        for (int i = 0; i < pointCount; i++) {
+            StrokeCodec.writeVarint(out, StrokeCodec.zigzag(i * 3));
+            StrokeCodec.writeVarint(out, StrokeCodec.zigzag(-i));
+        }
+        return StrokeCodec.decode(out.toByteArray());
+    }
+
+    /**
+     * Version, an 800x600 size and a palette of paletteSize greys
+     */
+    private static ByteArrayOutputStream header(int paletteSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(StrokeCodec.VERSION);
+        StrokeCodec.writeVarint(out, 800);
+        StrokeCodec.writeVarint(out, 600);
+        StrokeCodec.writeVarint(out, paletteSize);
+        for (int i = 0; i < paletteSize; i++) {
+            out.write(0x80);
+            out.write(0x80);
+            out.write(0x80);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,197 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * StrokeTimeline round trips, streaming in pieces, and decoding of truncated, random and invalid data
+ */
+class StrokeTimelineTest {
+
+    /**
+     * Strokes added over time with erases, undos and redos in between
+     */
+    static StrokeTimeline sampleTimeline(Random random, int adds) {
+        StrokeTimeline timeline = new StrokeTimeline(320, 240);
+        List<Stroke> strokes = StrokeCodecTest.sampleStrokes(random);
+        int time = 0;
+        for (int i = 0; i < adds; i++) {
+            time += random.nextInt(300);
+            timeline.add(StrokeTimeline.Event.add(time, random.nextInt(500), strokes.get(i % strokes.size())));
+            if (i > 2 && random.nextInt(4) == 0) {
+                time += random.nextInt(100);
+                int[] ids = {random.nextInt(i + 1), random.nextInt(i + 1)};
+                timeline.add(StrokeTimeline.Event.hide(time, ids));
+                if (random.nextBoolean()) {
+                    time += random.nextInt(100);
+                    timeline.add(StrokeTimeline.Event.show(time, ids));
+                }
+            }
+        }
+        return timeline;
+    }
+
+    static void assertSameTimeline(StrokeTimeline expected, StrokeTimeline actual) {
+        assertEquals(expected.getWidth(), actual.getWidth(), "width");
+        assertEquals(expected.getHeight(), actual.getHeight(), "height");
+        assertEquals(expected.size(), actual.size(), "events");
+        for (int i = 0; i < expected.size(); i++) {
+            StrokeTimeline.Event e = expected.get(i);
+            StrokeTimeline.Event a = actual.get(i);
+            assertEquals(e.type, a.type, "type " + i);
+            assertEquals(e.time, a.time, "time " + i);
+            if (e.type == StrokeTimeline.ADD) {
+                assertEquals(e.duration, a.duration, "duration " + i);
+                StrokeCodecTest.assertSameStroke(e.stroke, a.stroke);
+            } else {
+                assertArrayEquals(e.strokeIds, a.strokeIds, "ids " + i);
+            }
+        }
+    }
+
+    @Test
+    void roundTrip() {
+        StrokeTimeline timeline = sampleTimeline(new Random(1), 60);
+        StrokeTimeline decoded = StrokeTimeline.decode(timeline.encode());
+
+        assertSameTimeline(timeline, decoded);
+        assertEquals(timeline.getStrokeCount(), decoded.getStrokeCount());
+        assertEquals(timeline.getDuration(), decoded.getDuration());
+    }
+
+    @Test
+    void streamedPiecesAppendToTheWhole() {
+        StrokeTimeline timeline = sampleTimeline(new Random(2), 60);
+        // The sender's timeline grows while it streams; each piece holds the events since the last one
+        StrokeTimeline drawing = new StrokeTimeline(timeline.getWidth(), timeline.getHeight());
+        StrokeTimeline received = null;
+        Random random = new Random(3);
+        int sent = 0;
+        while (sent < timeline.size()) {
+            int next = Math.min(timeline.size(), sent + 1 + random.nextInt(10));
+            for (int i = sent; i < next; i++) {
+                drawing.add(timeline.get(i));
+            }
+            StrokeTimeline piece = StrokeTimeline.decode(drawing.encode(sent));
+            if (received == null) {
+                received = piece;
+            } else {
+                received.append(piece);
+            }
+            sent = next;
+        }
+        assertSameTimeline(timeline, received);
+    }
+
+    @Test
+    void pieceNamingAMissingStrokeIsRejectedOnAppend() {
+        StrokeTimeline piece = new StrokeTimeline(320, 240);
+        piece.add(StrokeTimeline.Event.add(0, 0, StrokeCodecTest.shape(Stroke.LINE, 0, 1, 0, 0, 5, 5)));
+        StrokeTimeline orphan = StrokeTimeline.decode(encodeHide(5));
+
+        assertThrows(IllegalArgumentException.class, () -> piece.append(orphan));
+    }
+
+    @Test
+    void truncatedDataIsRejected() {
+        byte[] data = sampleTimeline(new Random(4), 20).encode();
+        for (int length = 0; length < data.length; length++) {
+            byte[] prefix = Arrays.copyOf(data, length);
+            assertThrows(IllegalArgumentException.class, () -> StrokeTimeline.decode(prefix), "length " + length);
+        }
+    }
+
+    @Test
+    void garbageThrowsOnlyIllegalArgument() {
+        Random random = new Random(5);
+        byte[] valid = sampleTimeline(random, 20).encode();
+        for (int i = 0; i < 5_000; i++) {
+            byte[] data;
+            if (i % 2 == 0) {
+                data = new byte[random.nextInt(64)];
+                random.nextBytes(data);
+                if (data.length > 0) {
+                    data[0] = StrokeTimeline.VERSION;
+                }
+            } else {
+                data = valid.clone();
+                for (int flips = 1 + random.nextInt(4); flips > 0; flips--) {
+                    data[1 + random.nextInt(data.length - 1)] = (byte) random.nextInt(256);
+                }
+            }
+            try {
+                StrokeTimeline.decode(data);
+            } catch (IllegalArgumentException expected) {
+                // Malformed, fine; anything else fails the test
+            }
+        }
+    }
+
+    @Test
+    void invalidStrokesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> StrokeTimeline.decode(encodeAdd(Stroke.PATH, -1, 1)));
+        assertThrows(IllegalArgumentException.class,
+                () -> StrokeTimeline.decode(encodeAdd(Stroke.PATH, StrokeCodec.MAX_STROKE_WIDTH + 1, 1)));
+        assertThrows(IllegalArgumentException.class, () -> StrokeTimeline.decode(encodeAdd(Stroke.PATH, 5, 0)));
+        assertThrows(IllegalArgumentException.class, () -> StrokeTimeline.decode(encodeAdd(Stroke.LINE, 5, 3)));
+        assertThrows(IllegalArgumentException.class, () -> StrokeTimeline.decode(encodeAdd(Stroke.FILL, 0, 2)));
+        assertThrows(IllegalArgumentException.class, () -> StrokeTimeline.decode(encodeAdd(Stroke.FILL + 1, 5, 1)));
+
+        assertEquals(1, StrokeTimeline.decode(encodeAdd(Stroke.RECTANGLE, 5, 2)).getStrokeCount());
+        assertEquals(1, StrokeTimeline.decode(encodeAdd(Stroke.FILL, 0, 1)).getStrokeCount());
+    }
+
+    @Test
+    void timeMustNotGoBackwards() {
+        StrokeTimeline timeline = new StrokeTimeline(320, 240);
+        timeline.add(StrokeTimeline.Event.add(100, 0, StrokeCodecTest.shape(Stroke.LINE, 0, 1, 0, 0, 5, 5)));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> timeline.add(StrokeTimeline.Event.hide(99, new int[]{0})));
+    }
+
+    /**
+     * A timeline of one ADD, written by hand so that it can break the rules
+     */
+    private static byte[] encodeAdd(int kind, int width, int pointCount) {
+        ByteArrayOutputStream out = header(1);
+        StrokeCodec.writeVarint(out, StrokeTimeline.ADD);
+        StrokeCodec.writeVarint(out, 0);
+        StrokeCodec.writeVarint(out, 0);
+        StrokeCodec.writeVarint(out, kind);
+        out.write(0x80);
+        out.write(0x80);
+        out.write(0x80);
+        StrokeCodec.writeVarint(out, width);
+        StrokeCodec.writeVarint(out, pointCount);
+        for (int i = 0; i < pointCount; i++) {
+            StrokeCodec.writeVarint(out, StrokeCodec.zigzag(i));
+            StrokeCodec.writeVarint(out, StrokeCodec.zigzag(-i));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeHide(int id) {
+        ByteArrayOutputStream out = header(1);
+        StrokeCodec.writeVarint(out, StrokeTimeline.HIDE);
+        StrokeCodec.writeVarint(out, 10);
+        StrokeCodec.writeVarint(out, 1);
+        StrokeCodec.writeVarint(out, id);
+        return out.toByteArray();
+    }
+
+    private static ByteArrayOutputStream header(int eventCount) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(StrokeTimeline.VERSION);
+        StrokeCodec.writeVarint(out, 320);
+        StrokeCodec.writeVarint(out, 240);
+        StrokeCodec.writeVarint(out, eventCount);
+        return out;
+    }
+}
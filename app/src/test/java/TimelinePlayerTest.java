@@ -0,0 +1,72 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Seeking with keyframes must draw exactly what rendering from the first event draws
+ */
+class TimelinePlayerTest {
+    private static final long FRAME_BYTES = 4L * 320 * 240; // One keyframe of sampleTimeline()'s size
+
+    @Test
+    void keyframesRenderLikeScratch() {
+        StrokeTimeline timeline = StrokeTimelineTest.sampleTimeline(new Random(1), 150);
+        TimelinePlayer keyframed = new TimelinePlayer(timeline, 3 * FRAME_BYTES);
+        TimelinePlayer scratch = new TimelinePlayer(timeline, 0);
+
+        assertTrue(keyframed.getKeyframeCount() > 0, "no keyframes taken");
+        assertEquals(0, scratch.getKeyframeCount());
+        assertSameFrames(keyframed, scratch, new Random(2), 300);
+    }
+
+    @Test
+    void keyframesTakenWhileLiveRenderLikeScratch() {
+        StrokeTimeline source = StrokeTimelineTest.sampleTimeline(new Random(3), 150);
+        StrokeTimeline live = new StrokeTimeline(source.getWidth(), source.getHeight());
+        TimelinePlayer keyframed = new TimelinePlayer(live, 4 * FRAME_BYTES);
+        Random random = new Random(4);
+        for (int i = 0; i < source.size(); i++) {
+            live.add(source.get(i));
+            if (random.nextInt(5) == 0) {
+                keyframed.sync();
+            }
+        }
+        keyframed.sync();
+
+        assertSameFrames(keyframed, new TimelinePlayer(source, 0), random, 300);
+    }
+
+    @Test
+    void keyframesStayWithinBudget() {
+        StrokeTimeline timeline = StrokeTimelineTest.sampleTimeline(new Random(5), 600);
+        for (int frames = 1; frames <= 8; frames++) {
+            TimelinePlayer player = new TimelinePlayer(timeline, frames * FRAME_BYTES);
+            assertTrue(player.getKeyframeCount() <= frames,
+                    player.getKeyframeCount() + " keyframes for a budget of " + frames);
+            assertTrue(player.getKeyframeCount() > 0, "budget of " + frames + " unused");
+        }
+        assertEquals(0, new TimelinePlayer(timeline, FRAME_BYTES - 1).getKeyframeCount());
+    }
+
+    private static void assertSameFrames(TimelinePlayer player, TimelinePlayer reference, Random random, int seeks) {
+        BufferedImage image = player.newImage();
+        BufferedImage expected = reference.newImage();
+        int duration = reference.getDuration();
+        for (int i = 0; i < seeks; i++) {
+            // Random seeks, backwards as well as forwards, plus both ends
+            long millis = i == 0 ? 0 : i == 1 ? duration : random.nextInt(duration + 1);
+            player.renderAt(image, millis);
+            reference.renderAt(expected, millis);
+            assertArrayEquals(pixels(expected), pixels(image), "frame at " + millis + " ms");
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
@@ -0,0 +1,58 @@
+package pictionary.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DrawingCanvas.getImageAsBase64(): PNG encoding plus Base64 of the full
+ * 800x600 canvas, for drawings of increasing complexity. snapshot() is
+ * what the EDT still pays per submission now that encoding runs in
+ * SubmissionPipeline: with the previous snapshot passed back in, only
+ * tiles changed since are copied (here, none). fullSnapshot() copies
+ * every tile into a new image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CanvasEncodingBenchmark {
+    @Param({"0", "10", "50", "200"})
+    public int strokes;
+
+    private Object canvas;
+    private MethodHandle getImageAsBase64;
+    private MethodHandle snapshot;
+    private BufferedImage reuse;
+
+    @Setup
+    public void setUp() throws Throwable {
+        canvas = Hooks.newInstance("DrawingCanvas", new Class<?>[] {int.class, int.class}, 800, 600);
+        getImageAsBase64 = Hooks.method("DrawingCanvas", "getImageAsBase64");
+        snapshot = Hooks.method("DrawingCanvas", "snapshot", BufferedImage.class);
+        Hooks.method("DrawingCanvas", "load", List.class).invoke(canvas, Hooks.mouseStrokes(strokes, strokes));
+    }
+
+    @Benchmark
+    public Object getImageAsBase64() throws Throwable {
+        return getImageAsBase64.invoke(canvas);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object snapshot() throws Throwable {
+        reuse = (BufferedImage) snapshot.invoke(canvas, reuse);
+        return reuse;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object fullSnapshot() throws Throwable {
+        return snapshot.invoke(canvas, (BufferedImage) null);
+    }
+}
@@ -0,0 +1,70 @@
+package pictionary.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GeminiAPI request building and response parsing.
+ *
+ * parseResponse() runs against recorded response bodies in
+ * src/main/resources/responses: a normal answer, an answer wrapped in a
+ * markdown code fence, and an error body.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class GeminiApiBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class RequestState {
+        @Param({"10", "200"})
+        public int strokes;
+
+        Object geminiAPI;
+        MethodHandle buildRequestJson;
+        String imageBase64;
+
+        @Setup
+        public void setUp() {
+            geminiAPI = Hooks.newInstance("GeminiAPI", new Class<?>[0]);
+            buildRequestJson = Hooks.method("GeminiAPI", "buildRequestJson", String.class, String.class);
+            imageBase64 = Hooks.toBase64(Hooks.syntheticDrawing(strokes, strokes));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ResponseState {
+        @Param({"plain", "markdown", "error"})
+        public String response;
+
+        Object geminiAPI;
+        MethodHandle parseResponse;
+        String responseBody;
+
+        @Setup
+        public void setUp() throws IOException {
+            geminiAPI = Hooks.newInstance("GeminiAPI", new Class<?>[0]);
+            parseResponse = Hooks.method("GeminiAPI", "parseResponse", String.class);
+            try (InputStream in = GeminiApiBenchmark.class.getResourceAsStream("/responses/" + response + ".json")) {
+                responseBody = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object buildRequestJson(RequestState state) throws Throwable {
+        return state.buildRequestJson.invoke(state.geminiAPI, state.imageBase64, "Draw a cat");
+    }
+
+    @Benchmark
+    public Object parseResponse(ResponseState state) throws Throwable {
+        return state.parseResponse.invoke(state.geminiAPI, state.responseBody);
+    }
+}
@@ -0,0 +1,83 @@
+package pictionary.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Access to the application classes from the benchmarks.
+ *
+ * The game classes live in the default package, which JMH benchmarks can't
+ * use and named packages can't import, so the benchmarks look them up
+ * reflectively once during setup and call them through method handles.
+ */
+final class Hooks {
+    private Hooks() {
+    }
+
+    static Class<?> type(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Handle for a (possibly private) method; instance methods take the receiver first
+     */
+    static MethodHandle method(String className, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = type(className).getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Object newInstance(String className, Class<?>[] parameterTypes, Object... args) {
+        try {
+            Constructor<?> constructor = type(className).getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            return constructor.newInstance(args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Random scribble PNG of the canvas size, rendered by the load test's SyntheticDrawings
+     */
+    static java.awt.image.BufferedImage syntheticDrawing(int strokes, long seed) {
+        try {
+            return (java.awt.image.BufferedImage) method("SyntheticDrawings", "render",
+                    int.class, int.class, int.class, int.class, java.util.Random.class)
+                    .invoke(800, 600, strokes, 20, new java.util.Random(seed));
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Mouse-like strokes on an 800x600 canvas, from the load test's SyntheticDrawings
+     */
+    static java.util.List<?> mouseStrokes(int strokes, long seed) {
+        try {
+            return (java.util.List<?>) method("SyntheticDrawings", "mouseStrokes",
+                    int.class, int.class, int.class, java.util.Random.class)
+                    .invoke(800, 600, strokes, new java.util.Random(seed));
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toBase64(java.awt.image.BufferedImage image) {
+        try {
+            return (String) method("SyntheticDrawings", "toBase64", java.awt.image.BufferedImage.class).invoke(image);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package pictionary.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per record written: Log.info() versus the System.out.println()
+ * calls it replaced. Both write to a scratch file so the terminal speed
+ * doesn't dominate the numbers. The *Contended variants run one thread per
+ * core.
+ *
+ * Log.info() only queues the record and drops it if the ring buffer is
+ * full, so a producer running flat out would mostly time the drop path.
+ * Each thread therefore waits for the writer (Log.flush()) every
+ * RING_SIZE / (2 x threads) records: the ring never fills, and the time
+ * includes the writer's share of every record, as println's does. A trial
+ * in which anything was dropped fails rather than report a number.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class LogBenchmark {
+    /**
+     * How far one thread may get ahead of the log writer
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+        int batch;
+        long logged;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkParams params) {
+            // Log rounds log.ringSize up to a power of two, so this keeps the ring at most half full
+            batch = Math.max(1, Integer.getInteger("log.ringSize", 8192) / (2 * params.getThreads()));
+        }
+    }
+
+    private File file;
+    private PrintStream printStream;
+    private MethodHandle info;
+    private MethodHandle flush;
+    private MethodHandle getDropped;
+    private long droppedBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        file = File.createTempFile("log_benchmark", ".out");
+        // Same setup as System.out: small buffer, flushed on every println
+        printStream = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 128), true);
+        Hooks.method("Log", "setOutput", Writer.class).invoke(new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024));
+        info = Hooks.method("Log", "info", String.class, Object[].class);
+        flush = Hooks.method("Log", "flush");
+        getDropped = Hooks.method("Log", "getDropped");
+        droppedBefore = (long) getDropped.invoke();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        flush.invoke();
+        long dropped = (long) getDropped.invoke() - droppedBefore;
+        printStream.close();
+        file.delete();
+        if (dropped > 0) {
+            throw new IllegalStateException(dropped + " Log.info() records dropped; the times would include the drop path");
+        }
+    }
+
+    @Benchmark
+    public void println() {
+        printStream.println("Sent prompt to user1: Draw a cat");
+    }
+
+    @Benchmark
+    public void logInfo(Producer producer) throws Throwable {
+        log(producer);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void printlnContended() {
+        printStream.println("Sent prompt to user1: Draw a cat");
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void logInfoContended(Producer producer) throws Throwable {
+        log(producer);
+    }
+
+    private void log(Producer producer) throws Throwable {
+        info.invoke("prompt_sent", new Object[] {"user", "user1", "prompt", "Draw a cat"});
+        if (++producer.logged % producer.batch == 0) {
+            flush.invoke(); // Wait for the writer to catch up
+        }
+    }
+}
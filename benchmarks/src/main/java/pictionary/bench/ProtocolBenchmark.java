@@ -0,0 +1,96 @@
+package pictionary.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prompt generation and message round trips: Java serialization (the
+ * original protocol) versus the length-prefixed FrameCodec frames.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ProtocolBenchmark {
+    private MethodHandle generatePrompt;
+    private String[] objects;
+    private int next;
+    private String statsMessage;
+    private String drawingMessage;
+    private MethodHandle newFrameCodec;
+    private MethodHandle writeMessage;
+    private MethodHandle flush;
+    private MethodHandle readMessage;
+
+    @Setup
+    public void setUp() throws Throwable {
+        generatePrompt = Hooks.method("ClientHandler", "generatePrompt", String.class);
+        objects = (String[]) Hooks.method("ClientHandler", "getPossibleObjects").invoke();
+        statsMessage = "STATS:Games: 42 | Score: 17";
+        drawingMessage = "DRAWING:" + Hooks.toBase64(Hooks.syntheticDrawing(50, 1));
+        newFrameCodec = java.lang.invoke.MethodHandles.lookup().unreflectConstructor(
+                Hooks.type("FrameCodec").getConstructor(InputStream.class, OutputStream.class));
+        writeMessage = Hooks.method("FrameCodec", "writeMessage", String.class);
+        flush = Hooks.method("FrameCodec", "flush");
+        readMessage = Hooks.method("FrameCodec", "readMessage");
+    }
+
+    @Benchmark
+    public Object generatePrompt() throws Throwable {
+        next = (next + 1) % objects.length;
+        return generatePrompt.invoke(objects[next]);
+    }
+
+    @Benchmark
+    public Object statsRoundTrip() throws Exception {
+        return roundTrip(statsMessage);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object drawingRoundTrip() throws Exception {
+        return roundTrip(drawingMessage);
+    }
+
+    @Benchmark
+    public Object statsFrameRoundTrip() throws Throwable {
+        return frameRoundTrip(statsMessage);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object drawingFrameRoundTrip() throws Throwable {
+        return frameRoundTrip(drawingMessage);
+    }
+
+    /**
+     * FrameCodec write + flush on one side, read on the other
+     */
+    private Object frameRoundTrip(String message) throws Throwable {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length() + 64);
+        Object writer = newFrameCodec.invoke((InputStream) InputStream.nullInputStream(), (OutputStream) bytes);
+        writeMessage.invoke(writer, message);
+        flush.invoke(writer);
+        Object reader = newFrameCodec.invoke((InputStream) new ByteArrayInputStream(bytes.toByteArray()),
+                (OutputStream) OutputStream.nullOutputStream());
+        return readMessage.invoke(reader);
+    }
+
+    /**
+     * writeObject + flush on one side, readObject on the other, including
+     * the stream headers a new connection pays once
+     */
+    private static Object roundTrip(String message) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length() + 64);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(message);
+        out.flush();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return in.readObject();
+    }
+}
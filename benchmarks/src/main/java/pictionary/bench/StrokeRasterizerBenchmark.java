@@ -0,0 +1,56 @@
+package pictionary.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StrokeRasterizer.rasterizeBase64(): rendering an 800x600 stroke drawing
+ * at the judge's 768 px and encoding it as base64 PNG, in images per
+ * second. The strokes are simplified first, as the client sends them.
+ * single() is one judging thread; allCores() runs one thread per core
+ * against the same rasterizer (and its pool of one canvas per core), so
+ * its score divided by the core count is images/sec/core under load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class StrokeRasterizerBenchmark {
+    @Param({"10", "50", "200"})
+    public int strokes;
+
+    private Object rasterizer;
+    private Object drawing;
+    private MethodHandle rasterizeBase64;
+
+    @Setup
+    public void setUp() throws Throwable {
+        rasterizer = Hooks.newInstance("StrokeRasterizer", new Class<?>[] {int.class, int.class},
+                768, Runtime.getRuntime().availableProcessors());
+        MethodHandle simplified = Hooks.method("Stroke", "simplified", double.class);
+        List<Object> sent = new ArrayList<>();
+        for (Object stroke : Hooks.mouseStrokes(strokes, strokes)) {
+            sent.add(simplified.invoke(stroke, 1.0));
+        }
+        drawing = Hooks.newInstance("StrokeCodec$Drawing", new Class<?>[] {int.class, int.class, List.class},
+                800, 600, sent);
+        rasterizeBase64 = Hooks.method("StrokeRasterizer", "rasterizeBase64", Hooks.type("StrokeCodec$Drawing"));
+    }
+
+    @Benchmark
+    public Object single() throws Throwable {
+        return rasterizeBase64.invoke(rasterizer, drawing);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object allCores() throws Throwable {
+        return rasterizeBase64.invoke(rasterizer, drawing);
+    }
+}